@@ -0,0 +1,26 @@
+package com.ycyu.backend.config;
+
+import com.ycyu.backend.service.DbConcurrencyLimiter;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+// 虚拟线程模式下所有 Spring Data 仓库调用都经过数据库并发限制；平台线程数量本身有限，不需要额外限流。
+// 流式导出不经过这里：一次导出会占用连接直到结束，已由 offline-event.export.max-concurrent 单独限制
+@Aspect
+@Component
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class DbConcurrencyAspect {
+
+    @Autowired
+    private DbConcurrencyLimiter dbConcurrencyLimiter;
+
+    @Around("execution(public * *(..)) && this(org.springframework.data.repository.Repository)"
+            + " && !execution(* com.ycyu.backend.repository.OfflineEventRepositoryCustom.streamEvents(..))")
+    public Object limitRepositoryCall(ProceedingJoinPoint joinPoint) throws Throwable {
+        return dbConcurrencyLimiter.execute(joinPoint::proceed);
+    }
+}
@@ -0,0 +1,53 @@
+package com.ycyu.backend.config;
+
+import com.ycyu.backend.service.MedicationAdherenceService;
+import com.ycyu.backend.service.MqttInboundPipeline;
+import com.ycyu.backend.service.MqttService;
+import com.ycyu.backend.service.OfflineEventRetentionService;
+import com.ycyu.backend.service.OfflineEventWriteBuffer;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfig {
+
+    // 读数型指标：抓取时直接读取各组件维护的计数，不在处理路径上额外记录
+    @Bean
+    public MeterBinder backendGauges(MqttService mqttService, MqttInboundPipeline mqttInboundPipeline,
+                                     OfflineEventWriteBuffer offlineEventWriteBuffer,
+                                     OfflineEventRetentionService offlineEventRetentionService,
+                                     MedicationAdherenceService medicationAdherenceService) {
+        return registry -> {
+            // 设备在线数由心跳跟踪器在上线/离线时增量维护
+            Gauge.builder("devices.online", mqttService, MqttService::getOnlineDeviceCount)
+                    .description("在线设备数")
+                    .register(registry);
+            Gauge.builder("devices.offline", mqttService,
+                            service -> service.getTrackedDeviceCount() - service.getOnlineDeviceCount())
+                    .description("已知但离线的设备数")
+                    .register(registry);
+
+            Gauge.builder("mqtt.inbound.queue.depth", mqttInboundPipeline, MqttInboundPipeline::getQueueDepth)
+                    .description("入站管道积压消息数")
+                    .register(registry);
+            FunctionCounter.builder("mqtt.inbound.dropped", mqttInboundPipeline, MqttInboundPipeline::getDroppedCount)
+                    .description("入站队列满被丢弃的消息数")
+                    .register(registry);
+
+            Gauge.builder("offline.events.pending", offlineEventWriteBuffer, OfflineEventWriteBuffer::getPendingCount)
+                    .description("等待落库的离线事件数")
+                    .register(registry);
+            FunctionCounter.builder("offline.events.purged", offlineEventRetentionService,
+                            OfflineEventRetentionService::getPurgedCount)
+                    .description("保留期清理逐行删除的离线事件数")
+                    .register(registry);
+            Gauge.builder("medication.adherence.pending", medicationAdherenceService,
+                            MedicationAdherenceService::getPendingCount)
+                    .description("尚未写入计数表的依从性增量条数")
+                    .register(registry);
+        };
+    }
+}
@@ -22,6 +22,10 @@ public class MqttConfig {
     @Value("${mqtt.client-id:backend-server}")
     private String clientId;
 
+    // 每个连接允许的在途消息数（Paho默认10，批量下发时容易报 too many publishes in progress）
+    @Value("${mqtt.outbound.max-inflight:100}")
+    private int maxInflight;
+
     @Bean
     public MqttPahoClientFactory mqttClientFactory() {
         DefaultMqttPahoClientFactory factory = new DefaultMqttPahoClientFactory();
@@ -38,6 +42,7 @@ public class MqttConfig {
         options.setCleanSession(true);
         options.setConnectionTimeout(10);
         options.setKeepAliveInterval(60);
+        options.setMaxInflight(maxInflight);
 
         factory.setConnectionOptions(options);
         return factory;
@@ -1,15 +1,23 @@
 package com.ycyu.backend.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ycyu.backend.service.BackendMetrics;
+import com.ycyu.backend.service.DeviceMessageCodec;
+import com.ycyu.backend.service.EmbeddedMqttBroker;
+import com.ycyu.backend.service.EmergencyClassifier;
+import com.ycyu.backend.service.MqttInboundPipeline;
+import com.ycyu.backend.service.MqttPublisherPool;
 import com.ycyu.backend.service.MqttService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.integration.annotation.ServiceActivator;
 import org.springframework.integration.channel.DirectChannel;
 import org.springframework.integration.mqtt.core.MqttPahoClientFactory;
 import org.springframework.integration.mqtt.inbound.MqttPahoMessageDrivenChannelAdapter;
-import org.springframework.integration.mqtt.outbound.MqttPahoMessageHandler;
+import org.springframework.integration.mqtt.support.MqttHeaders;
 import org.springframework.integration.router.PayloadTypeRouter;
 import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.MessageHandler;
@@ -20,6 +28,10 @@ import java.nio.charset.StandardCharsets;
 @Configuration
 public class MqttIntegrationConfig {
 
+    // 内嵌Broker且JVM内直连时，后端不再建立MQTT客户端连接
+    private static final String IN_JVM_BROKER = "${mqtt.embedded.enabled:false} and ${mqtt.embedded.in-jvm:true}";
+    private static final String CLIENT_CONNECTIONS = "!(" + IN_JVM_BROKER + ")";
+
     @Autowired
     private MqttPahoClientFactory mqttClientFactory;
 
@@ -32,6 +44,62 @@ public class MqttIntegrationConfig {
     @Autowired
     private com.ycyu.backend.service.DeviceEventService deviceEventService;
 
+    @Autowired
+    private com.ycyu.backend.service.ConfigSyncService configSyncService;
+
+    @Autowired
+    private com.ycyu.backend.service.DeviceResponseService deviceResponseService;
+
+    @Autowired
+    private DeviceMessageCodec deviceMessageCodec;
+
+    @Autowired
+    private BackendMetrics backendMetrics;
+
+    @Value("${mqtt.inbound.workers:4}")
+    private int inboundWorkers;
+
+    @Value("${mqtt.inbound.queue-capacity:10000}")
+    private int inboundQueueCapacity;
+
+    @Value("${mqtt.inbound.overflow-policy:BLOCK}")
+    private MqttInboundPipeline.OverflowPolicy inboundOverflowPolicy;
+
+    @Value("${mqtt.inbound.offer-timeout-ms:1000}")
+    private long inboundOfferTimeoutMs;
+
+    // 与 Tomcat 请求处理共用虚拟线程开关
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    // 虚拟线程模式下的分区数（每个分区一个虚拟线程）
+    @Value("${mqtt.inbound.virtual-workers:256}")
+    private int inboundVirtualWorkers;
+
+    // 紧急报警走独立的优先通道
+    @Value("${mqtt.inbound.priority.enabled:true}")
+    private boolean inboundPriorityEnabled;
+
+    // 识别紧急事件时扫描负载开头的字节数
+    @Value("${mqtt.inbound.priority.scan-bytes:128}")
+    private int inboundPriorityScanBytes;
+
+    @Value("${mqtt.outbound.connections:4}")
+    private int outboundConnections;
+
+    // 每个连接的在途窗口（QoS1等待PUBACK的消息数），与连接选项中的maxInflight一致
+    @Value("${mqtt.outbound.max-inflight:100}")
+    private int outboundMaxInflight;
+
+    @Value("${mqtt.outbound.queue-capacity:10000}")
+    private int outboundQueueCapacity;
+
+    @Value("${mqtt.outbound.offer-timeout-ms:1000}")
+    private long outboundOfferTimeoutMs;
+
+    @Value("${mqtt.outbound.publish-timeout-ms:30000}")
+    private long outboundPublishTimeoutMs;
+
     // 出站通道（发送消息）
     @Bean
     public MessageChannel mqttOutboundChannel() {
@@ -44,29 +112,55 @@ public class MqttIntegrationConfig {
         return new DirectChannel();
     }
 
-    // MQTT 出站处理器
+    // MQTT 出站发布池 - 多个连接按设备ID分担下发，每个连接独立的在途窗口
     @Bean
+    @ConditionalOnExpression(CLIENT_CONNECTIONS)
     @ServiceActivator(inputChannel = "mqttOutboundChannel")
-    public MqttPahoMessageHandler mqttOutbound() {
-        MqttPahoMessageHandler handler = new MqttPahoMessageHandler(
+    public MqttPublisherPool mqttOutbound() {
+        MqttPublisherPool pool = new MqttPublisherPool(
+                mqttClientFactory,
                 "backend-server-out",
-                mqttClientFactory
+                outboundConnections,
+                outboundMaxInflight,
+                outboundQueueCapacity,
+                outboundOfferTimeoutMs,
+                outboundPublishTimeoutMs,
+                1
         );
-        handler.setAsync(true);
-        handler.setDefaultQos(1);
-        handler.setDefaultRetained(false);
-        return handler;
+        pool.setConnectionListener(backendMetrics::onMqttConnectionState);
+        return pool;
     }
 
-    // MQTT 入站适配器 - 订阅设备状态和事件
+    // 内嵌Broker出站 - 直接投递到设备会话，不经过MQTT客户端
     @Bean
+    @ConditionalOnExpression(IN_JVM_BROKER)
+    @ServiceActivator(inputChannel = "mqttOutboundChannel")
+    public MessageHandler mqttEmbeddedOutbound(EmbeddedMqttBroker embeddedMqttBroker) {
+        return message -> {
+            String topic = message.getHeaders().get(MqttHeaders.TOPIC, String.class);
+            if (topic == null) {
+                throw new org.springframework.messaging.MessageHandlingException(message, "MQTT出站消息缺少topic");
+            }
+            Integer qos = message.getHeaders().get(MqttHeaders.QOS, Integer.class);
+            Boolean retained = message.getHeaders().get(MqttHeaders.RETAINED, Boolean.class);
+            Object payload = message.getPayload();
+            byte[] bytes = payload instanceof byte[]
+                    ? (byte[]) payload : payload.toString().getBytes(StandardCharsets.UTF_8);
+            embeddedMqttBroker.publish(topic, qos != null ? qos : 1, retained != null && retained, bytes);
+        };
+    }
+
+    // MQTT 入站适配器 - 订阅设备状态、事件和响应
+    @Bean
+    @ConditionalOnExpression(CLIENT_CONNECTIONS)
     public MqttPahoMessageDrivenChannelAdapter mqttInbound() {
         MqttPahoMessageDrivenChannelAdapter adapter = 
                 new MqttPahoMessageDrivenChannelAdapter(
                         "backend-server-in",
                         mqttClientFactory,
                         "medicinebox/+/status",      // 订阅所有设备状态
-                        "medicinebox/+/events"       // 订阅所有设备事件
+                        "medicinebox/+/events",      // 订阅所有设备事件
+                        "medicinebox/+/response"     // 订阅设备对命令和配置同步的响应
                 );
         adapter.setCompletionTimeout(5000);
         adapter.setQos(1);
@@ -74,22 +168,35 @@ public class MqttIntegrationConfig {
         return adapter;
     }
 
-    // MQTT 消息处理器 - 处理设备状态和事件
+    // MQTT 入站管道 - 接收线程只负责按设备分区入队，由工作线程调用消息处理器
     @Bean
     @ServiceActivator(inputChannel = "mqttInboundChannel")
+    public MqttInboundPipeline mqttInboundPipeline() {
+        return new MqttInboundPipeline(
+                backendMetrics.timedInboundHandler(mqttMessageHandler()),
+                virtualThreads ? inboundVirtualWorkers : inboundWorkers,
+                inboundQueueCapacity,
+                inboundOverflowPolicy,
+                inboundOfferTimeoutMs,
+                virtualThreads,
+                inboundPriorityEnabled ? new EmergencyClassifier(inboundPriorityScanBytes) : null
+        );
+    }
+
+    // MQTT 消息处理器 - 处理设备状态和事件
+    @Bean
     public MessageHandler mqttMessageHandler() {
         return new MessageHandler() {
             @Override
             public void handleMessage(Message<?> message) throws org.springframework.messaging.MessagingException {
                 try {
-                    String payload = "";
-                    
-                    // 处理不同类型的消息负载
+                    // 处理不同类型的消息负载，统一按字节解析，只有旧格式兜底时才转成字符串
+                    byte[] payload = new byte[0];
                     Object messagePayload = message.getPayload();
                     if (messagePayload instanceof byte[]) {
-                        payload = new String((byte[]) messagePayload, StandardCharsets.UTF_8);
+                        payload = (byte[]) messagePayload;
                     } else if (messagePayload instanceof String) {
-                        payload = (String) messagePayload;
+                        payload = ((String) messagePayload).getBytes(StandardCharsets.UTF_8);
                     }
                     
                     String topic = (String) message.getHeaders().get("mqtt_receivedTopic");
@@ -99,19 +206,30 @@ public class MqttIntegrationConfig {
                         if (topic.startsWith("medicinebox/") && topic.endsWith("/status")) {
                             String deviceId = topic.substring(12, topic.length() - 7); // 移除"medicinebox/"和"/status"
 
-                            System.out.println("📡 收到设备状态消息:");
-                            System.out.println("  设备ID: " + deviceId);
-                            System.out.println("  状态: " + payload);
-
                             // 更新设备在线状态
                             mqttService.updateDeviceStatus(deviceId);
 
-                            // 解析状态信息
-                            if (payload.contains("\"mqttConnected\":true")) {
-                                System.out.println("✅ 设备 " + deviceId + " MQTT连接正常");
+                            DeviceMessageCodec.DeviceMessage status = deviceMessageCodec.decode(payload);
+                            if (status == null) {
+                                System.out.println("⚠️ 设备 " + deviceId + " 状态消息解析失败");
+                                return;
                             }
-                            if (payload.contains("\"arduinoReady\":true")) {
-                                System.out.println("✅ 设备 " + deviceId + " Arduino已就绪");
+
+                            System.out.println("📡 收到设备状态消息: " + deviceId + " (" + status.getType() + ")");
+
+                            // 更新设备上报的状态字段
+                            mqttService.applyDeviceMessage(deviceId, status);
+
+                            if (status.has(DeviceMessageCodec.DeviceMessage.MQTT_CONNECTED) && !status.isMqttConnected()) {
+                                System.out.println("⚠️ 设备 " + deviceId + " MQTT连接异常");
+                            }
+                            if (status.has(DeviceMessageCodec.DeviceMessage.ARDUINO_READY) && !status.isArduinoReady()) {
+                                System.out.println("⚠️ 设备 " + deviceId + " Arduino未就绪");
+                            }
+
+                            // 设备上报的配置版本号作为同步确认
+                            if (status.getConfigVersion() != null) {
+                                configSyncService.onReportedVersion(deviceId, status.getConfigVersion());
                             }
                         } 
                         // 处理设备事件消息
@@ -120,15 +238,11 @@ public class MqttIntegrationConfig {
                             
                             System.out.println("📡 收到设备事件消息:");
                             System.out.println("  设备ID: " + deviceId);
-                            System.out.println("  事件: " + payload);
                             
-                            // 更新设备在线状态
-                            mqttService.updateDeviceStatus(deviceId);
-                            
-                            try {
-                                // 尝试解析JSON消息
-                                com.fasterxml.jackson.databind.JsonNode jsonNode = objectMapper.readTree(payload);
-                                String eventType = jsonNode.has("type") ? jsonNode.get("type").asText() : "";
+                            // 先处理事件（紧急报警先推送到前端），再更新设备在线状态
+                            DeviceMessageCodec.DeviceMessage event = deviceMessageCodec.decode(payload);
+                            if (event != null) {
+                                String eventType = event.getType();
                                 
                                 System.out.println("  事件类型: " + eventType);
                                 
@@ -145,7 +259,7 @@ public class MqttIntegrationConfig {
                                         break;
                                         
                                     case "MEDICINE_REMINDER":
-                                        String medicineName = jsonNode.has("message") ? jsonNode.get("message").asText() : "未知药品";
+                                        String medicineName = event.getMessage() != null ? event.getMessage() : "未知药品";
                                         System.out.println("💊 设备 " + deviceId + " 服药提醒: " + medicineName);
                                         deviceEventService.handleMedicationReminder(deviceId, medicineName, new java.util.Date().toString());
                                         break;
@@ -159,26 +273,46 @@ public class MqttIntegrationConfig {
                                         System.out.println("⚠️ 未知事件类型: " + eventType);
                                 }
                                 
-                            } catch (Exception jsonException) {
+                            } else {
                                 // JSON解析失败，尝试按旧格式处理
                                 System.out.println("JSON解析失败，尝试旧格式处理");
+                                String text = new String(payload, StandardCharsets.UTF_8).trim();
                                 
                                 // 处理紧急事件
-                                if ("EMERGENCY".equals(payload.trim())) {
+                                if ("EMERGENCY".equals(text)) {
                                     System.out.println("🚨 设备 " + deviceId + " 触发紧急状态");
                                     deviceEventService.handleDeviceWarning(deviceId, "EMERGENCY", "设备 " + deviceId + " 长按触发紧急报警");
                                 } 
                                 // 处理紧急事件取消
-                                else if ("EMERGENCY_CANCEL".equals(payload.trim())) {
+                                else if ("EMERGENCY_CANCEL".equals(text)) {
                                     System.out.println("✅ 设备 " + deviceId + " 取消紧急状态");
                                     deviceEventService.handleDeviceWarning(deviceId, "EMERGENCY_CANCEL", "设备 " + deviceId + " 已取消紧急报警");
                                 } 
                                 // 处理服药确认
-                                else if ("TAKEN".equals(payload.trim())) {
+                                else if ("TAKEN".equals(text)) {
                                     System.out.println("✅ 设备 " + deviceId + " 服药确认");
                                     deviceEventService.handleMedicineTaken(deviceId, "未知药品");
                                 }
                             }
+
+                            // 更新设备在线状态
+                            mqttService.updateDeviceStatus(deviceId);
+                        }
+                        // 处理设备响应消息（命令结果、同步结果、配置读回）
+                        else if (topic.startsWith("medicinebox/") && topic.endsWith("/response")) {
+                            String deviceId = topic.substring(12, topic.length() - 9); // 移除"medicinebox/"和"/response"
+
+                            System.out.println("📡 收到设备响应消息:");
+                            System.out.println("  设备ID: " + deviceId);
+
+                            // 更新设备在线状态
+                            mqttService.updateDeviceStatus(deviceId);
+
+                            try {
+                                deviceResponseService.handleResponse(deviceId, objectMapper.readTree(payload));
+                            } catch (Exception responseException) {
+                                System.out.println("响应消息解析失败: " + responseException.getMessage());
+                            }
                         }
                     }
 
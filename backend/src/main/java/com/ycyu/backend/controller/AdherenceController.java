@@ -0,0 +1,120 @@
+package com.ycyu.backend.controller;
+
+import com.ycyu.backend.dto.AdherenceDayDTO;
+import com.ycyu.backend.service.MedicationAdherenceService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/adherence")
+public class AdherenceController {
+    
+    @Autowired
+    private MedicationAdherenceService medicationAdherenceService;
+    
+    // 药盒在日期范围内的每日服药依从性（默认最近30天）
+    @GetMapping("/device/{deviceId}")
+    public ResponseEntity<Map<String, Object>> getDeviceAdherence(
+            @PathVariable String deviceId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate) {
+        return adherenceResponse(deviceId, startDate, endDate, 0, "获取设备服药依从性成功");
+    }
+    
+    // 服药依从性趋势：每日计数和截至每天的滑动窗口服药率，不指定设备时为全部药盒合计
+    @GetMapping("/trend")
+    public ResponseEntity<Map<String, Object>> getTrend(
+            @RequestParam(required = false) String deviceId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(defaultValue = "7") int window) {
+        String target = deviceId != null && !deviceId.isEmpty() ? deviceId : MedicationAdherenceService.ALL_DEVICES;
+        return adherenceResponse(target, startDate, endDate, window, "获取服药依从性趋势成功");
+    }
+    
+    private ResponseEntity<Map<String, Object>> adherenceResponse(String deviceId, LocalDate startDate, LocalDate endDate,
+                                                                  int window, String message) {
+        try {
+            LocalDate end = endDate != null ? endDate : LocalDate.now();
+            LocalDate start = startDate != null ? startDate : end.minusDays(29);
+            List<AdherenceDayDTO> days = medicationAdherenceService.getDailyAdherence(deviceId, start, end, window);
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("deviceId", deviceId);
+            response.put("startDate", start);
+            response.put("endDate", end);
+            if (window > 0) {
+                response.put("window", window);
+            }
+            response.put("days", days);
+            response.put("summary", medicationAdherenceService.summarize(days));
+            response.put("message", message);
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(errorResponse(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(errorResponse("获取服药依从性失败: " + e.getMessage()));
+        }
+    }
+    
+    // 从原始离线事件重建指定日期范围的计数（默认最近30天）
+    @PostMapping("/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuild(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate) {
+        try {
+            LocalDate end = endDate != null ? endDate : LocalDate.now();
+            LocalDate start = startDate != null ? startDate : end.minusDays(29);
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("result", medicationAdherenceService.rebuild(start, end));
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(errorResponse(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(errorResponse("重建服药依从性计数失败: " + e.getMessage()));
+        }
+    }
+    
+    // 立即写入内存中的增量
+    @PostMapping("/checkpoint")
+    public ResponseEntity<Map<String, Object>> checkpoint() {
+        try {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("rows", medicationAdherenceService.checkpoint());
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(errorResponse("写入服药依从性计数失败: " + e.getMessage()));
+        }
+    }
+    
+    // 依从性计数统计
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> getStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", medicationAdherenceService.getStats());
+        response.put("timestamp", System.currentTimeMillis());
+        return ResponseEntity.ok(response);
+    }
+    
+    private Map<String, Object> errorResponse(String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", message);
+        response.put("timestamp", System.currentTimeMillis());
+        return response;
+    }
+}
@@ -0,0 +1,75 @@
+package com.ycyu.backend.controller;
+
+import com.ycyu.backend.service.EmergencyLatencyBenchmark;
+import com.ycyu.backend.service.ExecutionModeBenchmark;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// 压测接口，只在压测环境启用（benchmark.enabled=true）
+@RestController
+@RequestMapping("/monitor/benchmark")
+@ConditionalOnProperty(name = "benchmark.enabled", havingValue = "true")
+public class BenchmarkController {
+
+    @Autowired
+    private ExecutionModeBenchmark executionModeBenchmark;
+
+    @Autowired
+    private EmergencyLatencyBenchmark emergencyLatencyBenchmark;
+
+    // 平台线程与虚拟线程入站处理对比压测（合成负载，不访问真实数据库）
+    @PostMapping("/execution-mode")
+    public ResponseEntity<Map<String, Object>> runExecutionModeBenchmark(
+            @RequestParam(defaultValue = "2000") int messages,
+            @RequestParam(defaultValue = "500") int devices,
+            @RequestParam(defaultValue = "20") long blockingMs) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            response.put("success", true);
+            response.put("result", executionModeBenchmark.run(messages, devices, blockingMs));
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "压测失败: " + e.getMessage());
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    // 心跳积压下紧急报警从进入入站管道到WebSocket推送的延迟，对比关闭/开启优先通道（经过真实消息处理器）
+    @PostMapping("/emergency-latency")
+    public ResponseEntity<Map<String, Object>> runEmergencyLatencyBenchmark(
+            @RequestParam(defaultValue = "5000") int heartbeats,
+            @RequestParam(defaultValue = "50") int emergencies,
+            @RequestParam(defaultValue = "500") int devices,
+            @RequestParam(defaultValue = "2") long blockingMs) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            response.put("success", true);
+            response.put("result", emergencyLatencyBenchmark.run(heartbeats, emergencies, devices, blockingMs));
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "压测失败: " + e.getMessage());
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.ycyu.backend.controller;
+
+import com.ycyu.backend.service.ConfigSyncService;
+import com.ycyu.backend.service.DbConcurrencyLimiter;
+import com.ycyu.backend.service.DeviceMessageCodec;
+import com.ycyu.backend.service.DeviceResponseService;
+import com.ycyu.backend.service.EmbeddedMqttBroker;
+import com.ycyu.backend.service.MedicineService;
+import com.ycyu.backend.service.MqttInboundPipeline;
+import com.ycyu.backend.service.MqttPublisherPool;
+import com.ycyu.backend.service.OfflineEventWriteBuffer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/monitor")
+public class MonitorController {
+
+    @Autowired
+    private MqttInboundPipeline mqttInboundPipeline;
+
+    // 内嵌Broker的JVM内直连模式下没有出站发布池
+    @Autowired(required = false)
+    private MqttPublisherPool mqttPublisherPool;
+
+    @Autowired(required = false)
+    private EmbeddedMqttBroker embeddedMqttBroker;
+
+    @Autowired
+    private OfflineEventWriteBuffer offlineEventWriteBuffer;
+
+    @Autowired
+    private MedicineService medicineService;
+
+    @Autowired
+    private ConfigSyncService configSyncService;
+
+    @Autowired
+    private DeviceResponseService deviceResponseService;
+
+    @Autowired
+    private DeviceMessageCodec deviceMessageCodec;
+
+    // 只在虚拟线程模式下启用
+    @Autowired(required = false)
+    private DbConcurrencyLimiter dbConcurrencyLimiter;
+
+    // 获取MQTT入站管道统计（队列深度、丢弃数等）
+    @GetMapping("/mqtt-inbound")
+    public ResponseEntity<Map<String, Object>> getInboundStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", mqttInboundPipeline.getStats());
+        response.put("timestamp", System.currentTimeMillis());
+
+        return ResponseEntity.ok(response);
+    }
+
+    // MQTT出站发布池：各连接的队列深度、在途数与发布延迟
+    @GetMapping("/mqtt-outbound")
+    public ResponseEntity<Map<String, Object>> getOutboundStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", mqttPublisherPool != null ? mqttPublisherPool.getStats() : null);
+        response.put("timestamp", System.currentTimeMillis());
+
+        return ResponseEntity.ok(response);
+    }
+
+    // 内嵌MQTT Broker：连接数、转发/下发计数与下发延迟，未启用时stats为null
+    @GetMapping("/mqtt-embedded")
+    public ResponseEntity<Map<String, Object>> getEmbeddedBrokerStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("enabled", embeddedMqttBroker != null);
+        response.put("stats", embeddedMqttBroker != null ? embeddedMqttBroker.getStats() : null);
+        response.put("timestamp", System.currentTimeMillis());
+
+        return ResponseEntity.ok(response);
+    }
+
+    // 获取离线事件写缓冲统计（批次数、批大小、积压数等）
+    @GetMapping("/event-writer")
+    public ResponseEntity<Map<String, Object>> getEventWriterStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", offlineEventWriteBuffer.getStats());
+        response.put("timestamp", System.currentTimeMillis());
+
+        return ResponseEntity.ok(response);
+    }
+
+    // 获取药品计划缓存统计（命中、未命中、重建次数）
+    @GetMapping("/schedule-cache")
+    public ResponseEntity<Map<String, Object>> getScheduleCacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", medicineService.getScheduleCacheStats());
+        response.put("timestamp", System.currentTimeMillis());
+
+        return ResponseEntity.ok(response);
+    }
+
+    // 获取配置同步确认统计（确认数、重试数、确认耗时等）
+    @GetMapping("/config-sync")
+    public ResponseEntity<Map<String, Object>> getConfigSyncStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", configSyncService.getStats());
+        response.put("timestamp", System.currentTimeMillis());
+
+        return ResponseEntity.ok(response);
+    }
+
+    // 获取设备响应统计（在途请求、超时数、往返延迟直方图）
+    @GetMapping("/device-responses")
+    public ResponseEntity<Map<String, Object>> getDeviceResponseStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", deviceResponseService.getStats());
+        response.put("timestamp", System.currentTimeMillis());
+
+        return ResponseEntity.ok(response);
+    }
+
+    // 获取设备消息解码统计（解码次数、失败数、单条平均/最大耗时）
+    @GetMapping("/device-codec")
+    public ResponseEntity<Map<String, Object>> getDeviceCodecStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", deviceMessageCodec.getStats());
+        response.put("timestamp", System.currentTimeMillis());
+
+        return ResponseEntity.ok(response);
+    }
+
+    // 数据库并发限制：许可占用、排队数与等待时间，未启用虚拟线程时stats为null
+    @GetMapping("/db-limiter")
+    public ResponseEntity<Map<String, Object>> getDbLimiterStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("enabled", dbConcurrencyLimiter != null);
+        response.put("stats", dbConcurrencyLimiter != null ? dbConcurrencyLimiter.getStats() : null);
+        response.put("timestamp", System.currentTimeMillis());
+
+        return ResponseEntity.ok(response);
+    }
+}
@@ -1,16 +1,24 @@
 package com.ycyu.backend.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.ycyu.backend.dto.DeviceResponseDTO;
 import com.ycyu.backend.dto.DeviceStatusDTO;
 import com.ycyu.backend.dto.MedicineDTO;
+import com.ycyu.backend.service.BulkSyncJob;
+import com.ycyu.backend.service.BulkSyncService;
+import com.ycyu.backend.service.DeviceResponseService;
 import com.ycyu.backend.service.MedicineService;
 import com.ycyu.backend.service.MqttService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/nodemcu")
@@ -22,6 +30,12 @@ public class NodeMCUController {
     @Autowired
     private MqttService mqttService;
 
+    @Autowired
+    private DeviceResponseService deviceResponseService;
+
+    @Autowired
+    private BulkSyncService bulkSyncService;
+
     @GetMapping("/config")
     public ResponseEntity<String> getConfigForNodeMCU() {
         List<MedicineDTO> medicines = medicineService.getActiveMedicines();
@@ -63,16 +77,18 @@ public class NodeMCUController {
             @RequestParam String deviceId,
             @RequestParam(required = false) String ipAddress) {
 
-        List<MedicineDTO> medicines = medicineService.getActiveMedicines();
+        MedicineService.ScheduleSnapshot schedule = medicineService.getActiveSchedule();
+        List<MedicineDTO> medicines = schedule.getMedicines();
 
         // 通过MQTT同步配置到设备
         try {
-            mqttService.syncMedicinesToDevice(deviceId, medicines);
+            mqttService.syncMedicinesToDevice(deviceId, schedule);
 
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("message", "配置已通过MQTT发送到设备: " + deviceId);
             response.put("medicines", medicines.size());
+            response.put("configVersion", schedule.getVersion());
             response.put("deviceId", deviceId);
             response.put("timestamp", System.currentTimeMillis());
 
@@ -88,28 +104,105 @@ public class NodeMCUController {
         }
     }
 
-    // 发送命令到设备
+    // 批量同步配置到多个设备
+    // 请求体: {"deviceIds": [...], "allOnline": true, "pattern": "medicinebox_*"}，三种方式可组合
+    @PostMapping("/sync/bulk")
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<Map<String, Object>> bulkSync(@RequestBody Map<String, Object> request) {
+        try {
+            List<String> deviceIds = (List<String>) request.get("deviceIds");
+            boolean allOnline = Boolean.TRUE.equals(request.get("allOnline"));
+            String pattern = (String) request.get("pattern");
+
+            List<String> targets = bulkSyncService.resolveTargets(deviceIds, allOnline, pattern);
+            if (targets.isEmpty()) {
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", false);
+                response.put("message", "没有匹配的目标设备");
+
+                return ResponseEntity.badRequest().body(response);
+            }
+
+            BulkSyncJob job = bulkSyncService.startSync(targets);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("message", "批量同步任务已创建");
+            response.put("job", job.toSummary(false));
+            response.put("timestamp", System.currentTimeMillis());
+
+            return ResponseEntity.accepted().body(response);
+
+        } catch (Exception e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "批量同步失败: " + e.getMessage());
+
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    // 查询批量同步任务进度
+    @GetMapping("/sync/jobs/{jobId}")
+    public ResponseEntity<Map<String, Object>> getBulkSyncJob(
+            @PathVariable String jobId,
+            @RequestParam(required = false, defaultValue = "false") boolean details) {
+
+        BulkSyncJob job = bulkSyncService.getJob(jobId);
+        Map<String, Object> response = new HashMap<>();
+        if (job == null) {
+            response.put("success", false);
+            response.put("message", "任务不存在: " + jobId);
+
+            return ResponseEntity.status(404).body(response);
+        }
+
+        response.put("success", true);
+        response.put("job", job.toSummary(details));
+        response.put("timestamp", System.currentTimeMillis());
+
+        return ResponseEntity.ok(response);
+    }
+
+    // 发送命令到设备；wait>0时等待设备响应（毫秒），超时仍返回已发送
     @PostMapping("/command")
-    public ResponseEntity<Map<String, Object>> sendCommand(
+    public DeferredResult<ResponseEntity<Map<String, Object>>> sendCommand(
             @RequestParam String deviceId,
             @RequestParam String command,
+            @RequestParam(required = false, defaultValue = "0") long wait,
             @RequestBody(required = false) Map<String, Object> data) {
 
+        DeferredResult<ResponseEntity<Map<String, Object>>> result = new DeferredResult<>(wait > 0 ? wait : null);
         try {
             if (data == null) {
                 data = new HashMap<>();
             }
 
-            mqttService.sendCommand(deviceId, command, data);
+            CompletableFuture<DeviceResponseDTO> future = mqttService.sendCommand(deviceId, command, data);
 
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("message", "命令已发送到设备: " + deviceId);
-            response.put("command", command);
-            response.put("deviceId", deviceId);
-            response.put("timestamp", System.currentTimeMillis());
+            if (wait <= 0) {
+                result.setResult(ResponseEntity.ok(commandResponse(deviceId, command)));
+                return result;
+            }
 
-            return ResponseEntity.ok(response);
+            // 超时和设备响应在不同线程回调，各自构造响应体，不共享可变的Map
+            result.onTimeout(() -> result.setResult(ResponseEntity.ok(commandResponse(deviceId, command))));
+            future.whenComplete((deviceResponse, error) -> {
+                Map<String, Object> response = commandResponse(deviceId, command);
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    response.put("success", false);
+                    response.put("message", "设备未响应: " + cause.getMessage());
+                    result.setResult(ResponseEntity.status(504).body(response));
+                    return;
+                }
+                response.put("success", deviceResponse.isSuccess());
+                response.put("completed", true);
+                response.put("message", deviceResponse.getMessage());
+                response.put("response", deviceResponse);
+                result.setResult(ResponseEntity.ok(response));
+            });
 
         } catch (Exception e) {
             Map<String, Object> response = new HashMap<>();
@@ -117,8 +210,40 @@ public class NodeMCUController {
             response.put("message", "命令发送失败: " + e.getMessage());
             response.put("deviceId", deviceId);
 
-            return ResponseEntity.status(500).body(response);
+            result.setResult(ResponseEntity.status(500).body(response));
+        }
+        return result;
+    }
+
+    // 命令已发送、尚未收到设备响应时的响应体
+    private Map<String, Object> commandResponse(String deviceId, String command) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("message", "命令已发送到设备: " + deviceId);
+        response.put("command", command);
+        response.put("deviceId", deviceId);
+        response.put("completed", false);
+        response.put("timestamp", System.currentTimeMillis());
+        return response;
+    }
+
+    // 获取设备最近一次读回的配置（GET_CONFIG 命令的结果）
+    @GetMapping("/devices/{deviceId}/config")
+    public ResponseEntity<Map<String, Object>> getDeviceConfig(@PathVariable String deviceId) {
+        JsonNode config = deviceResponseService.getLastConfig(deviceId);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", config != null);
+        response.put("deviceId", deviceId);
+        response.put("medicines", config);
+        response.put("localConfigVersion", mqttService.getReportedConfigVersion(deviceId));
+        response.put("configVersion", medicineService.getActiveScheduleVersion());
+        response.put("timestamp", System.currentTimeMillis());
+        if (config == null) {
+            response.put("message", "尚未读回设备配置，请先发送 GET_CONFIG 命令");
         }
+
+        return ResponseEntity.ok(response);
     }
 
     // 获取设备状态列表
@@ -141,7 +266,8 @@ public class NodeMCUController {
         response.put("devices", deviceStatusList);
         response.put("timestamp", System.currentTimeMillis());
         response.put("total", deviceStatusList.size());
-        response.put("onlineCount", deviceStatusList.stream().filter(DeviceStatusDTO::isOnline).count());
+        response.put("onlineCount", mqttService.getOnlineDeviceCount());
+        response.put("configVersion", medicineService.getActiveScheduleVersion());
 
         return ResponseEntity.ok(response);
     }
@@ -4,9 +4,13 @@ import com.ycyu.backend.dto.NotificationDTO;
 import com.ycyu.backend.service.DeviceEventService;
 import com.ycyu.backend.service.NotificationService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -21,6 +25,10 @@ public class NotificationController {
     @Autowired
     private DeviceEventService deviceEventService;
 
+    // 长轮询最长挂起时间（毫秒）
+    @Value("${notification.poll.max-wait-ms:30000}")
+    private long maxPollWaitMs;
+
     @PostMapping("/test")
     public ResponseEntity<Map<String, Object>> sendTestNotification(
             @RequestParam String deviceId,
@@ -118,15 +126,16 @@ public class NotificationController {
 
     @GetMapping("/history")
     public ResponseEntity<Map<String, Object>> getNotificationHistory(
-            @RequestParam(required = false) String deviceId) {
+            @RequestParam(required = false) String deviceId,
+            @RequestParam(required = false, defaultValue = "" + Integer.MAX_VALUE) int limit) {
 
         try {
             List<NotificationDTO> notifications;
 
             if (deviceId != null && !deviceId.isEmpty()) {
-                notifications = notificationService.getDeviceNotifications(deviceId);
+                notifications = notificationService.getDeviceNotifications(deviceId, limit);
             } else {
-                notifications = notificationService.getAllNotifications();
+                notifications = notificationService.getAllNotifications(limit);
             }
 
             Map<String, Object> response = new HashMap<>();
@@ -145,56 +154,120 @@ public class NotificationController {
         }
     }
 
+    // 增量轮询：传入cursor（上次返回的游标）获取之后的新通知；wait>0时无新通知则挂起等待
     @GetMapping("/poll")
-    public ResponseEntity<Map<String, Object>> pollNotifications(
+    public DeferredResult<ResponseEntity<Map<String, Object>>> pollNotifications(
             @RequestParam(required = false) String deviceId,
-            @RequestParam(required = false) Long lastTimestamp) {
+            @RequestParam(required = false) Long lastTimestamp,
+            @RequestParam(required = false) Long cursor,
+            @RequestParam(required = false, defaultValue = "" + Integer.MAX_VALUE) int limit,
+            @RequestParam(required = false, defaultValue = "0") long wait) {
 
-        try {
-            List<NotificationDTO> allNotifications;
+        String key = deviceId != null && !deviceId.isEmpty() ? deviceId : "all";
+        long waitMs = Math.min(Math.max(wait, 0), maxPollWaitMs);
+        DeferredResult<ResponseEntity<Map<String, Object>>> result = new DeferredResult<>(waitMs > 0 ? waitMs : null);
 
-            if (deviceId != null && !deviceId.isEmpty()) {
-                allNotifications = notificationService.getDeviceNotifications(deviceId);
-            } else {
-                allNotifications = notificationService.getAllNotifications();
+        try {
+            // 未传cursor时按lastTimestamp二分定位，兼容旧客户端（返回顺序保持时间倒序）
+            boolean legacy = cursor == null;
+            long startCursor = legacy
+                    ? (lastTimestamp != null ? notificationService.cursorAfterTimestamp(key, lastTimestamp) : -1)
+                    : cursor;
+
+            List<NotificationDTO> newNotifications = notificationService.pollNotifications(key, startCursor, limit);
+            if (!newNotifications.isEmpty() || waitMs == 0) {
+                result.setResult(buildPollResponse(key, startCursor, newNotifications, legacy));
+                return result;
             }
 
-            List<NotificationDTO> newNotifications;
-            if (lastTimestamp != null) {
-                newNotifications = allNotifications.stream()
-                    .filter(n -> n.getTimestamp() > lastTimestamp)
-                    .collect(java.util.stream.Collectors.toList());
-            } else {
-                newNotifications = allNotifications;
+            // 暂无新通知，挂起请求直到有新通知或超时
+            Runnable waiter = () -> result.setResult(buildPollResponse(key, startCursor,
+                    notificationService.pollNotifications(key, startCursor, limit), legacy));
+            notificationService.addPollWaiter(key, waiter);
+            result.onTimeout(() -> result.setResult(buildPollResponse(key, startCursor, List.of(), legacy)));
+            result.onCompletion(() -> notificationService.removePollWaiter(key, waiter));
+
+            // 注册后再检查一次，避免注册前刚到达的通知被错过
+            List<NotificationDTO> arrived = notificationService.pollNotifications(key, startCursor, limit);
+            if (!arrived.isEmpty()) {
+                notificationService.removePollWaiter(key, waiter);
+                result.setResult(buildPollResponse(key, startCursor, arrived, legacy));
             }
+        } catch (Exception e) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "轮询失败: " + e.getMessage());
+
+            result.setResult(ResponseEntity.status(500).body(response));
+        }
+        return result;
+    }
+
+    private ResponseEntity<Map<String, Object>> buildPollResponse(String key, long startCursor,
+                                                                  List<NotificationDTO> notifications, boolean legacy) {
+        long nextCursor = notifications.isEmpty()
+                ? Math.min(startCursor, notificationService.getLatestSequence(key))
+                : notifications.get(notifications.size() - 1).getSequence();
+
+        List<NotificationDTO> ordered = notifications;
+        if (legacy) {
+            ordered = new ArrayList<>(notifications);
+            Collections.reverse(ordered);
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("notifications", ordered);
+        response.put("count", ordered.size());
+        response.put("cursor", nextCursor);
+        // 游标之后有通知已被覆盖，客户端应重新拉取历史
+        response.put("truncated", startCursor + 1 < notificationService.getOldestSequence(key));
+        response.put("timestamp", System.currentTimeMillis());
+
+        return ResponseEntity.ok(response);
+    }
+
+    @PostMapping("/read")
+    public ResponseEntity<Map<String, Object>> markAsRead(
+            @RequestParam String notificationId) {
+
+        try {
+            boolean found = notificationService.markNotificationAsRead(notificationId);
 
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
-            response.put("notifications", newNotifications);
-            response.put("count", newNotifications.size());
+            response.put("message", found ? "通知已标记为已读" : "通知不存在或已过期");
+            response.put("found", found);
+            response.put("notificationId", notificationId);
             response.put("timestamp", System.currentTimeMillis());
 
             return ResponseEntity.ok(response);
+
         } catch (Exception e) {
             Map<String, Object> response = new HashMap<>();
             response.put("success", false);
-            response.put("message", "轮询失败: " + e.getMessage());
+            response.put("message", "操作失败: " + e.getMessage());
 
             return ResponseEntity.status(500).body(response);
         }
     }
 
-    @PostMapping("/read")
-    public ResponseEntity<Map<String, Object>> markAsRead(
-            @RequestParam String notificationId) {
+    // 批量标记已读：将设备通知流中序号不超过upToSequence的通知全部标记为已读
+    @PostMapping("/read-all")
+    public ResponseEntity<Map<String, Object>> markAllAsRead(
+            @RequestParam(required = false) String deviceId,
+            @RequestParam(required = false) Long upToSequence) {
 
         try {
-            notificationService.markNotificationAsRead(notificationId);
+            String key = deviceId != null && !deviceId.isEmpty() ? deviceId : "all";
+            long upTo = upToSequence != null ? upToSequence : Long.MAX_VALUE;
+            int marked = notificationService.markAllAsRead(key, upTo);
 
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
-            response.put("message", "通知已标记为已读");
-            response.put("notificationId", notificationId);
+            response.put("message", "已标记 " + marked + " 条通知为已读");
+            response.put("marked", marked);
+            response.put("unreadCount", notificationService.getUnreadCount(key));
             response.put("timestamp", System.currentTimeMillis());
 
             return ResponseEntity.ok(response);
@@ -208,6 +281,26 @@ public class NotificationController {
         }
     }
 
+    // 获取未读数（不传deviceId时返回所有通知流的未读数）
+    @GetMapping("/unread-count")
+    public ResponseEntity<Map<String, Object>> getUnreadCount(
+            @RequestParam(required = false) String deviceId) {
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        if (deviceId != null && !deviceId.isEmpty()) {
+            response.put("deviceId", deviceId);
+            response.put("unreadCount", notificationService.getUnreadCount(deviceId));
+        } else {
+            Map<String, Integer> counts = notificationService.getUnreadCounts();
+            response.put("unreadCounts", counts);
+            response.put("unreadCount", counts.values().stream().mapToInt(Integer::intValue).sum());
+        }
+        response.put("timestamp", System.currentTimeMillis());
+
+        return ResponseEntity.ok(response);
+    }
+
     @DeleteMapping("/clear")
     public ResponseEntity<Map<String, Object>> clearNotifications(
             @RequestParam(required = false) String deviceId) {
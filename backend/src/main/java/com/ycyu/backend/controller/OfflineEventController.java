@@ -1,12 +1,28 @@
 package com.ycyu.backend.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ycyu.backend.dto.OfflineEventFilter;
+import com.ycyu.backend.dto.OfflineEventPage;
 import com.ycyu.backend.entity.OfflineEvent;
+import com.ycyu.backend.entity.OfflineEventDailyRollup;
+import com.ycyu.backend.repository.OfflineEventDailyRollupRepository;
+import com.ycyu.backend.service.OfflineEventExportService;
+import com.ycyu.backend.service.OfflineEventRetentionService;
 import com.ycyu.backend.service.OfflineEventService;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -17,6 +33,18 @@ public class OfflineEventController {
     @Autowired
     private OfflineEventService offlineEventService;
     
+    @Autowired
+    private OfflineEventExportService offlineEventExportService;
+    
+    @Autowired
+    private OfflineEventRetentionService offlineEventRetentionService;
+    
+    @Autowired
+    private OfflineEventDailyRollupRepository rollupRepository;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
     // 记录离线事件
     @PostMapping
     public ResponseEntity<Map<String, Object>> recordEvent(@RequestBody Map<String, Object> request) {
@@ -45,49 +73,68 @@ public class OfflineEventController {
         }
     }
     
-    // 获取设备的离线事件列表
+    // 获取设备的离线事件列表（新的在前）
+    // 游标分页：首次不带 cursor，之后传上一页返回的 nextCursor；includeData=true 时返回 eventData
     @GetMapping("/device/{deviceId}")
-    public ResponseEntity<Map<String, Object>> getDeviceEvents(@PathVariable String deviceId) {
-        List<OfflineEvent> events = offlineEventService.getDeviceEvents(deviceId);
-        
-        Map<String, Object> response = Map.of(
-            "success", true,
-            "events", events,
-            "count", events.size(),
-            "message", "获取设备离线事件成功"
-        );
-        
-        return ResponseEntity.ok(response);
+    public ResponseEntity<Map<String, Object>> getDeviceEvents(
+            @PathVariable String deviceId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(defaultValue = "false") boolean includeData) {
+        try {
+            OfflineEventPage page = offlineEventService.getDeviceEvents(deviceId, cursor, limit, includeData);
+            return ResponseEntity.ok(pageResponse(page, "获取设备离线事件成功"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(errorResponse(e.getMessage()));
+        }
     }
     
-    // 获取未处理的离线事件
+    // 获取未处理的离线事件（旧的在前，游标分页）
     @GetMapping("/unprocessed")
-    public ResponseEntity<Map<String, Object>> getUnprocessedEvents() {
-        List<OfflineEvent> events = offlineEventService.getUnprocessedEvents();
-        
-        Map<String, Object> response = Map.of(
-            "success", true,
-            "events", events,
-            "count", events.size(),
-            "message", "获取未处理离线事件成功"
-        );
-        
-        return ResponseEntity.ok(response);
+    public ResponseEntity<Map<String, Object>> getUnprocessedEvents(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(defaultValue = "false") boolean includeData) {
+        try {
+            OfflineEventPage page = offlineEventService.getUnprocessedEvents(cursor, limit, includeData);
+            return ResponseEntity.ok(pageResponse(page, "获取未处理离线事件成功"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(errorResponse(e.getMessage()));
+        }
     }
     
-    // 获取设备的未处理离线事件
+    // 获取设备的未处理离线事件（旧的在前，游标分页）
     @GetMapping("/device/{deviceId}/unprocessed")
-    public ResponseEntity<Map<String, Object>> getDeviceUnprocessedEvents(@PathVariable String deviceId) {
-        List<OfflineEvent> events = offlineEventService.getDeviceUnprocessedEvents(deviceId);
-        
-        Map<String, Object> response = Map.of(
-            "success", true,
-            "events", events,
-            "count", events.size(),
-            "message", "获取设备未处理离线事件成功"
-        );
-        
-        return ResponseEntity.ok(response);
+    public ResponseEntity<Map<String, Object>> getDeviceUnprocessedEvents(
+            @PathVariable String deviceId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(defaultValue = "false") boolean includeData) {
+        try {
+            OfflineEventPage page = offlineEventService.getDeviceUnprocessedEvents(deviceId, cursor, limit, includeData);
+            return ResponseEntity.ok(pageResponse(page, "获取设备未处理离线事件成功"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(errorResponse(e.getMessage()));
+        }
+    }
+    
+    // nextCursor 可能为空，使用HashMap
+    private Map<String, Object> pageResponse(OfflineEventPage page, String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("events", page.getEvents());
+        response.put("count", page.getEvents().size());
+        response.put("nextCursor", page.getNextCursor());
+        response.put("hasMore", page.isHasMore());
+        response.put("message", message);
+        return response;
+    }
+    
+    private Map<String, Object> errorResponse(String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", message);
+        return response;
     }
     
     // 处理离线事件
@@ -116,10 +163,11 @@ public class OfflineEventController {
     @PostMapping("/process/device/{deviceId}")
     public ResponseEntity<Map<String, Object>> processDeviceEvents(@PathVariable String deviceId) {
         try {
-            offlineEventService.processDeviceEvents(deviceId);
+            long affected = offlineEventService.processDeviceEvents(deviceId);
             
             Map<String, Object> response = Map.of(
                 "success", true,
+                "affected", affected,
                 "message", "设备离线事件批量处理成功"
             );
             
@@ -138,10 +186,11 @@ public class OfflineEventController {
     @DeleteMapping("/device/{deviceId}")
     public ResponseEntity<Map<String, Object>> deleteDeviceEvents(@PathVariable String deviceId) {
         try {
-            offlineEventService.deleteDeviceEvents(deviceId);
+            long affected = offlineEventService.deleteDeviceEvents(deviceId);
             
             Map<String, Object> response = Map.of(
                 "success", true,
+                "affected", affected,
                 "message", "设备离线事件删除成功"
             );
             
@@ -155,4 +204,132 @@ public class OfflineEventController {
             return ResponseEntity.status(500).body(response);
         }
     }
+    
+    // 按条件批量标记为已处理，条件可组合：设备、类型、时间范围（ISO格式）、不大于某个事件ID
+    @PostMapping("/process/bulk")
+    public ResponseEntity<Map<String, Object>> processEvents(
+            @RequestParam(required = false) String deviceId,
+            @RequestParam(required = false) String eventType,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime,
+            @RequestParam(required = false) Long maxId) {
+        OfflineEventFilter filter = new OfflineEventFilter(deviceId, eventType, startTime, endTime, maxId);
+        try {
+            long affected = offlineEventService.markProcessed(filter);
+            return ResponseEntity.ok(bulkResponse(affected, "离线事件批量处理成功"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(errorResponse(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(errorResponse("离线事件批量处理失败: " + e.getMessage()));
+        }
+    }
+    
+    // 按条件批量删除，条件同上，至少需要一个
+    @DeleteMapping("/bulk")
+    public ResponseEntity<Map<String, Object>> deleteEvents(
+            @RequestParam(required = false) String deviceId,
+            @RequestParam(required = false) String eventType,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime,
+            @RequestParam(required = false) Long maxId) {
+        OfflineEventFilter filter = new OfflineEventFilter(deviceId, eventType, startTime, endTime, maxId);
+        try {
+            long affected = offlineEventService.deleteEvents(filter);
+            return ResponseEntity.ok(bulkResponse(affected, "离线事件批量删除成功"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(errorResponse(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(errorResponse("离线事件批量删除失败: " + e.getMessage()));
+        }
+    }
+    
+    private Map<String, Object> bulkResponse(long affected, String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("affected", affected);
+        response.put("message", message);
+        response.put("timestamp", System.currentTimeMillis());
+        return response;
+    }
+    
+    // 设备的每日汇总（按日期、事件类型），默认最近30天，最多查询366天
+    @GetMapping("/rollups/device/{deviceId}")
+    public ResponseEntity<Map<String, Object>> getDeviceRollups(
+            @PathVariable String deviceId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate) {
+        LocalDate end = endDate != null ? endDate : LocalDate.now();
+        LocalDate start = startDate != null ? startDate : end.minusDays(29);
+        if (start.isAfter(end) || start.plusDays(366).isBefore(end)) {
+            return ResponseEntity.badRequest().body(errorResponse("日期范围无效（startDate 不晚于 endDate，且不超过366天）"));
+        }
+        List<OfflineEventDailyRollup> rollups = rollupRepository
+                .findByDeviceIdAndRollupDateBetweenOrderByRollupDateAscEventTypeAsc(deviceId, start, end);
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("rollups", rollups);
+        response.put("count", rollups.size());
+        response.put("startDate", start);
+        response.put("endDate", end);
+        response.put("message", "获取设备每日汇总成功");
+        return ResponseEntity.ok(response);
+    }
+    
+    // 保留期任务统计
+    @GetMapping("/retention")
+    public ResponseEntity<Map<String, Object>> getRetentionStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("stats", offlineEventRetentionService.getStats());
+        response.put("timestamp", System.currentTimeMillis());
+        return ResponseEntity.ok(response);
+    }
+    
+    // 立即执行一轮保留期任务（汇总、补齐过期时间、清理）
+    @PostMapping("/retention/run")
+    public ResponseEntity<Map<String, Object>> runRetention() {
+        try {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("result", offlineEventRetentionService.runOnce());
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(errorResponse("保留期任务执行失败: " + e.getMessage()));
+        }
+    }
+    
+    // 流式导出离线事件（format=ndjson/csv），条件同批量接口，均为空时导出全部设备；
+    // 直接写入响应输出流，不经过 Map 包装，也不在内存中缓存结果
+    @GetMapping("/export")
+    public void exportEvents(
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(required = false) String deviceId,
+            @RequestParam(required = false) String eventType,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startTime,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endTime,
+            @RequestParam(defaultValue = "true") boolean includeData,
+            HttpServletResponse response) throws IOException {
+        OfflineEventFilter filter = new OfflineEventFilter(deviceId, eventType, startTime, endTime, null);
+        try {
+            OfflineEventExportService.Format exportFormat = OfflineEventExportService.Format.parse(format);
+            String fileName = "offline-events-" + (deviceId == null || deviceId.isEmpty() ? "all" : deviceId)
+                    + "-" + System.currentTimeMillis() + "." + exportFormat.getExtension();
+            response.setContentType(exportFormat.getContentType());
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                    .filename(fileName, StandardCharsets.UTF_8).build().toString());
+            offlineEventExportService.export(filter, exportFormat, includeData, response.getOutputStream());
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // 校验失败和导出数已满都发生在写出数据之前，改为返回JSON错误
+            if (response.isCommitted()) {
+                throw e;
+            }
+            response.reset();
+            response.setStatus(400);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            objectMapper.writeValue(response.getOutputStream(), errorResponse(e.getMessage()));
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+package com.ycyu.backend.dto;
+
+import java.time.LocalDate;
+
+// 某个药盒（或全部药盒合计）一天的服药依从性：提醒次数、服药次数和服药率
+public class AdherenceDayDTO {
+    private LocalDate date;
+    private long reminders;
+    private long taken;
+    // 截至当天的滑动窗口服药率，没有提醒时为空
+    private Double rollingRate;
+
+    public AdherenceDayDTO() {
+    }
+
+    public AdherenceDayDTO(LocalDate date, long reminders, long taken) {
+        this.date = date;
+        this.reminders = reminders;
+        this.taken = taken;
+    }
+
+    // 服药次数可能多于提醒次数（手动服药确认），服药率不超过1
+    public static Double rate(long reminders, long taken) {
+        return reminders == 0 ? null : Math.min(1.0, (double) taken / reminders);
+    }
+
+    public Double getRate() {
+        return rate(reminders, taken);
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public void setDate(LocalDate date) {
+        this.date = date;
+    }
+
+    public long getReminders() {
+        return reminders;
+    }
+
+    public void setReminders(long reminders) {
+        this.reminders = reminders;
+    }
+
+    public long getTaken() {
+        return taken;
+    }
+
+    public void setTaken(long taken) {
+        this.taken = taken;
+    }
+
+    public Double getRollingRate() {
+        return rollingRate;
+    }
+
+    public void setRollingRate(Double rollingRate) {
+        this.rollingRate = rollingRate;
+    }
+}
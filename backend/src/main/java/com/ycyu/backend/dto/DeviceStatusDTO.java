@@ -12,6 +12,21 @@ public class DeviceStatusDTO {
     private long lastEventTime;
     private String deviceType;
     private String firmwareVersion;
+    // 以下字段来自设备 STATUS / DEVICE_INFO 上报
+    private boolean wifiConnected;
+    private boolean mqttConnected;
+    private boolean timeSynced;
+    private boolean emergencyMode;
+    private int remindLevel;
+    private boolean arduinoReady;
+    private int activeMedicines;
+    private String deviceTime;
+    private long deviceUptimeMs;
+    private String macAddress;
+    private String ipAddress;
+    private int maxMedicines;
+    // 与设备协商的消息编码：json / msgpack
+    private String wireEncoding = "json";
     
     public DeviceStatusDTO() {
     }
@@ -117,4 +132,108 @@ public class DeviceStatusDTO {
     public void setFirmwareVersion(String firmwareVersion) {
         this.firmwareVersion = firmwareVersion;
     }
-}
\ No newline at end of file
+    
+    public boolean isWifiConnected() {
+        return wifiConnected;
+    }
+    
+    public void setWifiConnected(boolean wifiConnected) {
+        this.wifiConnected = wifiConnected;
+    }
+    
+    public boolean isMqttConnected() {
+        return mqttConnected;
+    }
+    
+    public void setMqttConnected(boolean mqttConnected) {
+        this.mqttConnected = mqttConnected;
+    }
+    
+    public boolean isTimeSynced() {
+        return timeSynced;
+    }
+    
+    public void setTimeSynced(boolean timeSynced) {
+        this.timeSynced = timeSynced;
+    }
+    
+    public boolean isEmergencyMode() {
+        return emergencyMode;
+    }
+    
+    public void setEmergencyMode(boolean emergencyMode) {
+        this.emergencyMode = emergencyMode;
+    }
+    
+    public int getRemindLevel() {
+        return remindLevel;
+    }
+    
+    public void setRemindLevel(int remindLevel) {
+        this.remindLevel = remindLevel;
+    }
+    
+    public boolean isArduinoReady() {
+        return arduinoReady;
+    }
+    
+    public void setArduinoReady(boolean arduinoReady) {
+        this.arduinoReady = arduinoReady;
+    }
+    
+    public int getActiveMedicines() {
+        return activeMedicines;
+    }
+    
+    public void setActiveMedicines(int activeMedicines) {
+        this.activeMedicines = activeMedicines;
+    }
+    
+    public String getDeviceTime() {
+        return deviceTime;
+    }
+    
+    public void setDeviceTime(String deviceTime) {
+        this.deviceTime = deviceTime;
+    }
+    
+    public long getDeviceUptimeMs() {
+        return deviceUptimeMs;
+    }
+    
+    public void setDeviceUptimeMs(long deviceUptimeMs) {
+        this.deviceUptimeMs = deviceUptimeMs;
+    }
+    
+    public String getMacAddress() {
+        return macAddress;
+    }
+    
+    public void setMacAddress(String macAddress) {
+        this.macAddress = macAddress;
+    }
+    
+    public String getIpAddress() {
+        return ipAddress;
+    }
+    
+    public void setIpAddress(String ipAddress) {
+        this.ipAddress = ipAddress;
+    }
+    
+    public int getMaxMedicines() {
+        return maxMedicines;
+    }
+    
+    public void setMaxMedicines(int maxMedicines) {
+        this.maxMedicines = maxMedicines;
+    }
+    
+    public String getWireEncoding() {
+        return wireEncoding;
+    }
+    
+    public void setWireEncoding(String wireEncoding) {
+        this.wireEncoding = wireEncoding;
+    }
+}
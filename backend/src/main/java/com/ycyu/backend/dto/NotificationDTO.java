@@ -12,6 +12,8 @@ public class NotificationDTO {
     private boolean read;
     private String eventType;
     private String eventData;
+    // 所在通知流内的单调递增序号，用于增量轮询
+    private long sequence;
     
     public NotificationDTO() {
         this.id = UUID.randomUUID().toString();
@@ -102,6 +104,14 @@ public class NotificationDTO {
     public void setEventData(String eventData) {
         this.eventData = eventData;
     }
+    
+    public long getSequence() {
+        return sequence;
+    }
+    
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
 
     @Override
     public String toString() {
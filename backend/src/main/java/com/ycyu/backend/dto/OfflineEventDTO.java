@@ -0,0 +1,84 @@
+package com.ycyu.backend.dto;
+
+import java.time.LocalDateTime;
+
+// 离线事件列表项：不含 eventData（TEXT），需要时由查询按本页ID单独加载
+public class OfflineEventDTO {
+    private Long id;
+    private String deviceId;
+    private LocalDateTime eventTime;
+    private String eventType;
+    private String description;
+    private boolean processed;
+    private String eventData;
+
+    public OfflineEventDTO() {
+    }
+
+    // JPQL构造表达式使用
+    public OfflineEventDTO(Long id, String deviceId, LocalDateTime eventTime, String eventType,
+                           String description, boolean processed) {
+        this.id = id;
+        this.deviceId = deviceId;
+        this.eventTime = eventTime;
+        this.eventType = eventType;
+        this.description = description;
+        this.processed = processed;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public LocalDateTime getEventTime() {
+        return eventTime;
+    }
+
+    public void setEventTime(LocalDateTime eventTime) {
+        this.eventTime = eventTime;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public void setEventType(String eventType) {
+        this.eventType = eventType;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public boolean isProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(boolean processed) {
+        this.processed = processed;
+    }
+
+    public String getEventData() {
+        return eventData;
+    }
+
+    public void setEventData(String eventData) {
+        this.eventData = eventData;
+    }
+}
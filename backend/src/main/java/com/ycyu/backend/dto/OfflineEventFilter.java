@@ -0,0 +1,83 @@
+package com.ycyu.backend.dto;
+
+import java.time.LocalDateTime;
+
+// 离线事件批量操作的筛选条件，各条件可组合，为空的条件不参与筛选
+public class OfflineEventFilter {
+    private String deviceId;
+    private String eventType;
+    private LocalDateTime startTime;
+    private LocalDateTime endTime;
+    // 只处理ID不大于该值的事件
+    private Long maxId;
+
+    public OfflineEventFilter() {
+    }
+
+    public OfflineEventFilter(String deviceId, String eventType, LocalDateTime startTime, LocalDateTime endTime, Long maxId) {
+        this.deviceId = deviceId;
+        this.eventType = eventType;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.maxId = maxId;
+    }
+
+    public static OfflineEventFilter forDevice(String deviceId) {
+        return new OfflineEventFilter(deviceId, null, null, null, null);
+    }
+
+    // 没有任何条件（会作用于全表）
+    public boolean isEmpty() {
+        return isBlank(deviceId) && isBlank(eventType) && startTime == null && endTime == null && maxId == null;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public void setEventType(String eventType) {
+        this.eventType = eventType;
+    }
+
+    public LocalDateTime getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(LocalDateTime startTime) {
+        this.startTime = startTime;
+    }
+
+    public LocalDateTime getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(LocalDateTime endTime) {
+        this.endTime = endTime;
+    }
+
+    public Long getMaxId() {
+        return maxId;
+    }
+
+    public void setMaxId(Long maxId) {
+        this.maxId = maxId;
+    }
+
+    @Override
+    public String toString() {
+        return "deviceId=" + deviceId + ", eventType=" + eventType + ", startTime=" + startTime
+                + ", endTime=" + endTime + ", maxId=" + maxId;
+    }
+}
@@ -0,0 +1,37 @@
+package com.ycyu.backend.dto;
+
+import java.util.List;
+
+// 离线事件游标分页结果；nextCursor 为空表示没有更多数据
+public class OfflineEventPage {
+    private List<OfflineEventDTO> events;
+    private String nextCursor;
+
+    public OfflineEventPage() {
+    }
+
+    public OfflineEventPage(List<OfflineEventDTO> events, String nextCursor) {
+        this.events = events;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<OfflineEventDTO> getEvents() {
+        return events;
+    }
+
+    public void setEvents(List<OfflineEventDTO> events) {
+        this.events = events;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public boolean isHasMore() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,82 @@
+package com.ycyu.backend.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// 服药依从性每日计数：每个设备（药盒）每天的提醒次数和服药次数，由依从性服务增量累加，
+// 可从原始离线事件重建。deviceId 为 "*" 的行是当天全部药盒的合计
+@Entity
+@Table(name = "medication_adherence_daily", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_medication_adherence", columnNames = {"deviceId", "statDate"})
+}, indexes = {
+    @Index(name = "idx_medication_adherence_date", columnList = "statDate")
+})
+public class MedicationAdherenceDaily {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String deviceId;
+
+    @Column(nullable = false)
+    private LocalDate statDate;
+
+    @Column(nullable = false)
+    private long reminders;
+
+    @Column(nullable = false)
+    private long taken;
+
+    private LocalDateTime updatedAt;
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public LocalDate getStatDate() {
+        return statDate;
+    }
+
+    public void setStatDate(LocalDate statDate) {
+        this.statDate = statDate;
+    }
+
+    public long getReminders() {
+        return reminders;
+    }
+
+    public void setReminders(long reminders) {
+        this.reminders = reminders;
+    }
+
+    public long getTaken() {
+        return taken;
+    }
+
+    public void setTaken(long taken) {
+        this.taken = taken;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -4,10 +4,21 @@ import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "offline_events")
+// 列表查询按 (eventTime, id) 游标分页：按设备查询走 (deviceId, eventTime)，未处理队列走 (processed, eventTime)；
+// 保留期清理按 expiresAt 查找过期数据
+@Table(name = "offline_events", indexes = {
+    @Index(name = "idx_offline_events_device_time", columnList = "deviceId, eventTime, id"),
+    @Index(name = "idx_offline_events_processed_time", columnList = "processed, eventTime, id"),
+    @Index(name = "idx_offline_events_expires", columnList = "expiresAt")
+})
 public class OfflineEvent {
+    // 每次从序列取出的ID块大小。池化优化器把序列值当作块的上界，分配 next_val-块大小+1 … next_val
+    public static final int ID_ALLOCATION_SIZE = 100;
+    
+    // 使用池化序列分配ID，使Hibernate能够批量插入（IDENTITY会禁用JDBC批处理）
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "offline_event_seq")
+    @SequenceGenerator(name = "offline_event_seq", sequenceName = "offline_events_seq", allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
     
     @Column(nullable = false)
@@ -28,6 +39,9 @@ public class OfflineEvent {
     @Column(length = 200)
     private String description;
     
+    // 过期时间：写入时按事件类型的保留期计算，MySQL分区表按此列分区（旧数据由保留期任务补齐）
+    private LocalDateTime expiresAt;
+    
     // Getters and Setters
     public Long getId() {
         return id;
@@ -84,4 +98,12 @@ public class OfflineEvent {
     public void setDescription(String description) {
         this.description = description;
     }
+    
+    public LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
+    
+    public void setExpiresAt(LocalDateTime expiresAt) {
+        this.expiresAt = expiresAt;
+    }
 }
\ No newline at end of file
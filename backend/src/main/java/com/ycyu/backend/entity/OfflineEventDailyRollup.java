@@ -0,0 +1,91 @@
+package com.ycyu.backend.entity;
+
+import jakarta.persistence.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// 离线事件按设备、日期、事件类型的每日汇总，原始事件过期删除后仍保留
+@Entity
+@Table(name = "offline_event_daily_rollups", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_offline_event_rollup", columnNames = {"deviceId", "rollupDate", "eventType"})
+}, indexes = {
+    @Index(name = "idx_offline_event_rollup_date", columnList = "rollupDate")
+})
+public class OfflineEventDailyRollup {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String deviceId;
+
+    @Column(nullable = false)
+    private LocalDate rollupDate;
+
+    @Column(length = 50, nullable = false)
+    private String eventType;
+
+    @Column(nullable = false)
+    private long eventCount;
+
+    private LocalDateTime firstEventTime;
+
+    private LocalDateTime lastEventTime;
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public LocalDate getRollupDate() {
+        return rollupDate;
+    }
+
+    public void setRollupDate(LocalDate rollupDate) {
+        this.rollupDate = rollupDate;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public void setEventType(String eventType) {
+        this.eventType = eventType;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public void setEventCount(long eventCount) {
+        this.eventCount = eventCount;
+    }
+
+    public LocalDateTime getFirstEventTime() {
+        return firstEventTime;
+    }
+
+    public void setFirstEventTime(LocalDateTime firstEventTime) {
+        this.firstEventTime = firstEventTime;
+    }
+
+    public LocalDateTime getLastEventTime() {
+        return lastEventTime;
+    }
+
+    public void setLastEventTime(LocalDateTime lastEventTime) {
+        this.lastEventTime = lastEventTime;
+    }
+}
@@ -0,0 +1,15 @@
+package com.ycyu.backend.repository;
+
+import com.ycyu.backend.entity.MedicationAdherenceDaily;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface MedicationAdherenceRepository extends JpaRepository<MedicationAdherenceDaily, Long>, MedicationAdherenceRepositoryCustom {
+    // 查询设备（或合计行 "*"）在日期范围内的每日计数，每天最多一行
+    List<MedicationAdherenceDaily> findByDeviceIdAndStatDateBetweenOrderByStatDateAsc(
+            String deviceId, LocalDate startDate, LocalDate endDate);
+}
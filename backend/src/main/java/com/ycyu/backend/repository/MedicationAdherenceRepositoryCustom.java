@@ -0,0 +1,15 @@
+package com.ycyu.backend.repository;
+
+import com.ycyu.backend.entity.MedicationAdherenceDaily;
+
+import java.time.LocalDate;
+import java.util.List;
+
+// 依从性计数的集合式写入：增量累加和按天从原始事件重建
+public interface MedicationAdherenceRepositoryCustom {
+    // 把每个元素的 reminders/taken 作为增量累加到 (deviceId, statDate) 行上，行不存在时插入
+    void addCounts(List<MedicationAdherenceDaily> deltas);
+
+    // 从 offline_events 重新计算指定日期的设备计数和合计行（先删后插，可重复执行），返回设备行数
+    int rebuildDay(LocalDate day, String allDevicesId);
+}
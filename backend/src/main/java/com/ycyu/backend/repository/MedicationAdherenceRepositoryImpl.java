@@ -0,0 +1,62 @@
+package com.ycyu.backend.repository;
+
+import com.ycyu.backend.entity.MedicationAdherenceDaily;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+// MedicationAdherenceRepositoryCustom 的实现：检查点一批 upsert 累加，不先读后写；重建直接在库内按天聚合
+public class MedicationAdherenceRepositoryImpl implements MedicationAdherenceRepositoryCustom {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    @Transactional
+    public void addCounts(List<MedicationAdherenceDaily> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO medication_adherence_daily (device_id, stat_date, reminders, taken, updated_at) "
+                        + "VALUES (?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE "
+                        + "reminders = reminders + VALUES(reminders), taken = taken + VALUES(taken), updated_at = VALUES(updated_at)",
+                deltas, deltas.size(), (statement, delta) -> {
+                    statement.setString(1, delta.getDeviceId());
+                    statement.setDate(2, Date.valueOf(delta.getStatDate()));
+                    statement.setLong(3, delta.getReminders());
+                    statement.setLong(4, delta.getTaken());
+                    statement.setObject(5, now);
+                });
+    }
+
+    @Override
+    @Transactional
+    public int rebuildDay(LocalDate day, String allDevicesId) {
+        jdbcTemplate.update("DELETE FROM medication_adherence_daily WHERE stat_date = ?", day);
+        // processed IN (FALSE, TRUE) 让时间范围条件走 (processed, event_time) 索引
+        int rows = jdbcTemplate.update(
+                "INSERT INTO medication_adherence_daily (device_id, stat_date, reminders, taken, updated_at) "
+                        + "SELECT device_id, CAST(? AS DATE), "
+                        + "SUM(CASE WHEN event_type = 'MEDICATION_REMINDER' THEN 1 ELSE 0 END), "
+                        + "SUM(CASE WHEN event_type = 'MEDICINE_TAKEN' THEN 1 ELSE 0 END), CURRENT_TIMESTAMP "
+                        + "FROM offline_events WHERE processed IN (FALSE, TRUE) AND event_time >= ? AND event_time < ? "
+                        + "AND event_type IN ('MEDICATION_REMINDER', 'MEDICINE_TAKEN') "
+                        + "GROUP BY device_id",
+                day, day.atStartOfDay(), day.plusDays(1).atStartOfDay());
+        if (rows > 0) {
+            jdbcTemplate.update(
+                    "INSERT INTO medication_adherence_daily (device_id, stat_date, reminders, taken, updated_at) "
+                            + "SELECT ?, stat_date, SUM(reminders), SUM(taken), CURRENT_TIMESTAMP "
+                            + "FROM medication_adherence_daily WHERE stat_date = ? GROUP BY stat_date",
+                    allDevicesId, day);
+        }
+        return rows;
+    }
+}
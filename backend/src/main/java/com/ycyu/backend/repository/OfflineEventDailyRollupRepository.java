@@ -0,0 +1,20 @@
+package com.ycyu.backend.repository;
+
+import com.ycyu.backend.entity.OfflineEventDailyRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface OfflineEventDailyRollupRepository extends JpaRepository<OfflineEventDailyRollup, Long> {
+    // 查询设备在日期范围内的每日汇总
+    List<OfflineEventDailyRollup> findByDeviceIdAndRollupDateBetweenOrderByRollupDateAscEventTypeAsc(
+            String deviceId, LocalDate startDate, LocalDate endDate);
+
+    // 已汇总到的最后一天
+    @Query("select max(r.rollupDate) from OfflineEventDailyRollup r")
+    LocalDate findLastRollupDate();
+}
@@ -1,28 +1,90 @@
 package com.ycyu.backend.repository;
 
+import com.ycyu.backend.dto.OfflineEventDTO;
 import com.ycyu.backend.entity.OfflineEvent;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
-public interface OfflineEventRepository extends JpaRepository<OfflineEvent, Long> {
-    // 查询指定设备的离线事件
-    List<OfflineEvent> findByDeviceIdOrderByEventTimeDesc(String deviceId);
-    
-    // 查询未处理的离线事件
-    List<OfflineEvent> findByProcessedFalseOrderByEventTimeAsc();
-    
-    // 查询指定设备的未处理离线事件
-    List<OfflineEvent> findByDeviceIdAndProcessedFalseOrderByEventTimeAsc(String deviceId);
-    
-    // 查询指定时间范围内的离线事件
-    List<OfflineEvent> findByDeviceIdAndEventTimeBetweenOrderByEventTimeDesc(
-            String deviceId, LocalDateTime startTime, LocalDateTime endTime);
-    
-    // 查询指定类型的离线事件
-    List<OfflineEvent> findByDeviceIdAndEventTypeOrderByEventTimeDesc(
-            String deviceId, String eventType);
-}
\ No newline at end of file
+public interface OfflineEventRepository extends JpaRepository<OfflineEvent, Long>, OfflineEventRepositoryCustom {
+    // 列表查询按 (eventTime, id) 游标分页：首页不带游标，之后每页从上一页最后一条之后继续，
+    // 走 (deviceId, eventTime) / (processed, eventTime) 索引，翻到多深每页代价都一样。
+    // 只投影摘要字段，不读取 TEXT 类型的 eventData
+
+    String SUMMARY = "select new com.ycyu.backend.dto.OfflineEventDTO("
+            + "e.id, e.deviceId, e.eventTime, e.eventType, e.description, e.processed) from OfflineEvent e ";
+    String BEFORE_CURSOR = " and (e.eventTime < :cursorTime or (e.eventTime = :cursorTime and e.id < :cursorId))";
+    String AFTER_CURSOR = " and (e.eventTime > :cursorTime or (e.eventTime = :cursorTime and e.id > :cursorId))";
+    String NEWEST_FIRST = " order by e.eventTime desc, e.id desc";
+    String OLDEST_FIRST = " order by e.eventTime asc, e.id asc";
+
+    // 指定设备的离线事件（新的在前）
+    @Query(SUMMARY + "where e.deviceId = :deviceId" + NEWEST_FIRST)
+    List<OfflineEventDTO> findDevicePage(@Param("deviceId") String deviceId, Limit limit);
+
+    @Query(SUMMARY + "where e.deviceId = :deviceId" + BEFORE_CURSOR + NEWEST_FIRST)
+    List<OfflineEventDTO> findDevicePageBefore(@Param("deviceId") String deviceId,
+                                               @Param("cursorTime") LocalDateTime cursorTime,
+                                               @Param("cursorId") Long cursorId, Limit limit);
+
+    // 未处理的离线事件（旧的在前）
+    @Query(SUMMARY + "where e.processed = false" + OLDEST_FIRST)
+    List<OfflineEventDTO> findUnprocessedPage(Limit limit);
+
+    @Query(SUMMARY + "where e.processed = false" + AFTER_CURSOR + OLDEST_FIRST)
+    List<OfflineEventDTO> findUnprocessedPageAfter(@Param("cursorTime") LocalDateTime cursorTime,
+                                                   @Param("cursorId") Long cursorId, Limit limit);
+
+    // 指定设备的未处理离线事件（旧的在前）
+    @Query(SUMMARY + "where e.deviceId = :deviceId and e.processed = false" + OLDEST_FIRST)
+    List<OfflineEventDTO> findDeviceUnprocessedPage(@Param("deviceId") String deviceId, Limit limit);
+
+    @Query(SUMMARY + "where e.deviceId = :deviceId and e.processed = false" + AFTER_CURSOR + OLDEST_FIRST)
+    List<OfflineEventDTO> findDeviceUnprocessedPageAfter(@Param("deviceId") String deviceId,
+                                                         @Param("cursorTime") LocalDateTime cursorTime,
+                                                         @Param("cursorId") Long cursorId, Limit limit);
+
+    // 指定设备、时间范围内的离线事件（新的在前）
+    @Query(SUMMARY + "where e.deviceId = :deviceId and e.eventTime between :startTime and :endTime" + NEWEST_FIRST)
+    List<OfflineEventDTO> findDeviceTimeRangePage(@Param("deviceId") String deviceId,
+                                                  @Param("startTime") LocalDateTime startTime,
+                                                  @Param("endTime") LocalDateTime endTime, Limit limit);
+
+    @Query(SUMMARY + "where e.deviceId = :deviceId and e.eventTime between :startTime and :endTime"
+            + BEFORE_CURSOR + NEWEST_FIRST)
+    List<OfflineEventDTO> findDeviceTimeRangePageBefore(@Param("deviceId") String deviceId,
+                                                        @Param("startTime") LocalDateTime startTime,
+                                                        @Param("endTime") LocalDateTime endTime,
+                                                        @Param("cursorTime") LocalDateTime cursorTime,
+                                                        @Param("cursorId") Long cursorId, Limit limit);
+
+    // 指定设备、指定类型的离线事件（新的在前）
+    @Query(SUMMARY + "where e.deviceId = :deviceId and e.eventType = :eventType" + NEWEST_FIRST)
+    List<OfflineEventDTO> findDeviceTypePage(@Param("deviceId") String deviceId,
+                                             @Param("eventType") String eventType, Limit limit);
+
+    @Query(SUMMARY + "where e.deviceId = :deviceId and e.eventType = :eventType" + BEFORE_CURSOR + NEWEST_FIRST)
+    List<OfflineEventDTO> findDeviceTypePageBefore(@Param("deviceId") String deviceId,
+                                                   @Param("eventType") String eventType,
+                                                   @Param("cursorTime") LocalDateTime cursorTime,
+                                                   @Param("cursorId") Long cursorId, Limit limit);
+
+    // 按本页ID加载 eventData（includeData=true 时使用），返回 [id, eventData]
+    @Query("select e.id, e.eventData from OfflineEvent e where e.id in :ids")
+    List<Object[]> findEventData(@Param("ids") Collection<Long> ids);
+
+    // 最早的事件时间（首次生成每日汇总时确定起始日期）
+    @Query("select min(e.eventTime) from OfflineEvent e")
+    LocalDateTime findEarliestEventTime();
+
+    // 指定类型中最早的事件时间（重建依从性计数时确定可重建的起始日期）
+    @Query("select min(e.eventTime) from OfflineEvent e where e.eventType in :eventTypes")
+    LocalDateTime findEarliestEventTime(@Param("eventTypes") Collection<String> eventTypes);
+}
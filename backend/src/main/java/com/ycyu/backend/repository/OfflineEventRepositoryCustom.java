@@ -0,0 +1,31 @@
+package com.ycyu.backend.repository;
+
+import com.ycyu.backend.dto.OfflineEventDTO;
+import com.ycyu.backend.dto.OfflineEventFilter;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+// 离线事件的集合式批量操作，不加载实体：批量修改每次调用最多影响 limit 行，由调用方循环分块执行；导出逐行流式读取
+public interface OfflineEventRepositoryCustom {
+    // 将符合条件的未处理事件标记为已处理，返回本次影响行数
+    int markProcessedChunk(OfflineEventFilter filter, int limit);
+
+    // 删除符合条件的事件，返回本次影响行数
+    int deleteChunk(OfflineEventFilter filter, int limit);
+
+    // 以只进游标逐行读取符合条件的事件并回调，不缓存结果集，返回读取行数
+    long streamEvents(OfflineEventFilter filter, boolean includeData, int fetchSize, Consumer<OfflineEventDTO> consumer);
+
+    // 保留期清理：删除过期时间早于 cutoff 的事件，返回本次影响行数
+    int purgeExpiredChunk(LocalDateTime cutoff, int limit);
+
+    // 为没有过期时间的旧数据补齐过期时间（event_time + ttlDays）。
+    // exclude=false 时只处理 eventTypes 中的类型，exclude=true 时处理其余类型
+    int backfillExpiresAtChunk(Collection<String> eventTypes, boolean exclude, int ttlDays, int limit);
+
+    // 重新计算指定日期的每日汇总（先删后插，可重复执行），返回汇总行数
+    int rollupDay(LocalDate day);
+}
@@ -0,0 +1,159 @@
+package com.ycyu.backend.repository;
+
+import com.ycyu.backend.dto.OfflineEventDTO;
+import com.ycyu.backend.dto.OfflineEventFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+// OfflineEventRepositoryCustom 的实现：批量修改为单条 UPDATE/DELETE ... LIMIT 语句，每块独立提交以缩短持锁时间；
+// 导出使用只进、只读的流式结果集；保留期清理和每日汇总同样直接执行集合式语句
+public class OfflineEventRepositoryImpl implements OfflineEventRepositoryCustom {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public int markProcessedChunk(OfflineEventFilter filter, int limit) {
+        List<Object> args = new ArrayList<>();
+        String sql = "UPDATE offline_events SET processed = TRUE WHERE processed = FALSE" + conditions(filter, args) + " LIMIT ?";
+        args.add(limit);
+        return jdbcTemplate.update(sql, args.toArray());
+    }
+
+    @Override
+    public int deleteChunk(OfflineEventFilter filter, int limit) {
+        List<Object> args = new ArrayList<>();
+        String sql = "DELETE FROM offline_events WHERE 1 = 1" + conditions(filter, args) + " LIMIT ?";
+        args.add(limit);
+        return jdbcTemplate.update(sql, args.toArray());
+    }
+
+    @Override
+    public long streamEvents(OfflineEventFilter filter, boolean includeData, int fetchSize, Consumer<OfflineEventDTO> consumer) {
+        List<Object> args = new ArrayList<>();
+        boolean byDevice = filter.getDeviceId() != null && !filter.getDeviceId().isEmpty();
+        // 按设备导出时沿 (device_id, event_time) 索引按时间顺序读取；全量导出按主键顺序读取，避免对整表排序
+        String sql = "SELECT id, device_id, event_time, event_type, description, processed"
+                + (includeData ? ", event_data" : "")
+                + " FROM offline_events WHERE 1 = 1" + conditions(filter, args)
+                + (byDevice ? " ORDER BY event_time, id" : " ORDER BY id");
+        Long rows = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(fetchSize);
+                for (int i = 0; i < args.size(); i++) {
+                    statement.setObject(i + 1, args.get(i));
+                }
+                long count = 0;
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        consumer.accept(toEvent(resultSet, includeData));
+                        count++;
+                    }
+                } catch (RuntimeException e) {
+                    // 中途中止（如客户端断开）时取消查询，流式结果集关闭时不必再读完剩余行
+                    cancelQuietly(statement);
+                    throw e;
+                }
+                return count;
+            }
+        });
+        return rows == null ? 0 : rows;
+    }
+
+    @Override
+    public int purgeExpiredChunk(LocalDateTime cutoff, int limit) {
+        return jdbcTemplate.update("DELETE FROM offline_events WHERE expires_at < ? LIMIT ?", cutoff, limit);
+    }
+
+    @Override
+    public int backfillExpiresAtChunk(Collection<String> eventTypes, boolean exclude, int ttlDays, int limit) {
+        List<Object> args = new ArrayList<>();
+        args.add(ttlDays);
+        StringBuilder sql = new StringBuilder(
+                "UPDATE offline_events SET expires_at = TIMESTAMPADD(DAY, ?, event_time) WHERE expires_at IS NULL");
+        if (!eventTypes.isEmpty()) {
+            sql.append(exclude ? " AND event_type NOT IN (" : " AND event_type IN (")
+                    .append(String.join(", ", Collections.nCopies(eventTypes.size(), "?")))
+                    .append(')');
+            args.addAll(eventTypes);
+        } else if (!exclude) {
+            return 0;
+        }
+        sql.append(" LIMIT ?");
+        args.add(limit);
+        return jdbcTemplate.update(sql.toString(), args.toArray());
+    }
+
+    // processed IN (FALSE, TRUE) 使按时间范围的汇总查询可以走 (processed, event_time) 索引
+    @Override
+    @Transactional
+    public int rollupDay(LocalDate day) {
+        jdbcTemplate.update("DELETE FROM offline_event_daily_rollups WHERE rollup_date = ?", day);
+        return jdbcTemplate.update(
+                "INSERT INTO offline_event_daily_rollups "
+                        + "(device_id, rollup_date, event_type, event_count, first_event_time, last_event_time) "
+                        + "SELECT device_id, CAST(? AS DATE), event_type, COUNT(*), MIN(event_time), MAX(event_time) "
+                        + "FROM offline_events WHERE processed IN (FALSE, TRUE) AND event_time >= ? AND event_time < ? "
+                        + "GROUP BY device_id, event_type",
+                day, day.atStartOfDay(), day.plusDays(1).atStartOfDay());
+    }
+
+    private static OfflineEventDTO toEvent(ResultSet resultSet, boolean includeData) throws SQLException {
+        Timestamp eventTime = resultSet.getTimestamp(3);
+        OfflineEventDTO event = new OfflineEventDTO(resultSet.getLong(1), resultSet.getString(2),
+                eventTime == null ? null : eventTime.toLocalDateTime(), resultSet.getString(4),
+                resultSet.getString(5), resultSet.getBoolean(6));
+        if (includeData) {
+            event.setEventData(resultSet.getString(7));
+        }
+        return event;
+    }
+
+    private static void cancelQuietly(PreparedStatement statement) {
+        try {
+            statement.cancel();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    // 按设备筛选时走 (device_id, event_time) 索引
+    private static String conditions(OfflineEventFilter filter, List<Object> args) {
+        StringBuilder sql = new StringBuilder();
+        if (filter.getDeviceId() != null && !filter.getDeviceId().isEmpty()) {
+            sql.append(" AND device_id = ?");
+            args.add(filter.getDeviceId());
+        }
+        if (filter.getEventType() != null && !filter.getEventType().isEmpty()) {
+            sql.append(" AND event_type = ?");
+            args.add(filter.getEventType());
+        }
+        if (filter.getStartTime() != null) {
+            sql.append(" AND event_time >= ?");
+            args.add(filter.getStartTime());
+        }
+        if (filter.getEndTime() != null) {
+            sql.append(" AND event_time <= ?");
+            args.add(filter.getEndTime());
+        }
+        if (filter.getMaxId() != null) {
+            sql.append(" AND id <= ?");
+            args.add(filter.getMaxId());
+        }
+        return sql.toString();
+    }
+}
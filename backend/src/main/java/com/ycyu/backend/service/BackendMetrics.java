@@ -0,0 +1,167 @@
+package com.ycyu.backend.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.integration.context.IntegrationObjectSupport;
+import org.springframework.integration.mqtt.event.MqttConnectionFailedEvent;
+import org.springframework.integration.mqtt.event.MqttSubscribedEvent;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 运行指标：MQTT入站、离线事件落库、WebSocket推送和MQTT连接状态，通过 /actuator/prometheus 导出。
+// 只依赖MeterRegistry，可被管道、推送等底层组件直接使用；积压和在线数等读数型指标见 MetricsConfig
+@Component
+public class BackendMetrics {
+
+    // 入站消息按topic类型统计，避免按设备ID产生大量时间序列
+    public static final String TOPIC_STATUS = "status";
+    public static final String TOPIC_EVENTS = "events";
+    public static final String TOPIC_RESPONSE = "response";
+    public static final String TOPIC_OTHER = "other";
+
+    // WebSocket推送目的地类型
+    public static final String DESTINATION_NOTIFICATIONS = "notifications";
+    public static final String DESTINATION_DEVICE = "device";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, Timer> inboundTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> webSocketTimers = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> connectionStates = new ConcurrentHashMap<>();
+
+    public static String topicType(String topic) {
+        if (topic == null) {
+            return TOPIC_OTHER;
+        }
+        if (topic.endsWith("/status")) {
+            return TOPIC_STATUS;
+        }
+        if (topic.endsWith("/events")) {
+            return TOPIC_EVENTS;
+        }
+        if (topic.endsWith("/response")) {
+            return TOPIC_RESPONSE;
+        }
+        return TOPIC_OTHER;
+    }
+
+    // 包装入站消息处理器，按topic类型记录消息数和处理耗时
+    public MessageHandler timedInboundHandler(MessageHandler delegate) {
+        return message -> {
+            long start = System.nanoTime();
+            String outcome = "success";
+            try {
+                delegate.handleMessage(message);
+            } catch (RuntimeException e) {
+                outcome = "error";
+                throw e;
+            } finally {
+                inboundTimer(topicType(topicOf(message)), outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+
+    private static String topicOf(Message<?> message) {
+        return (String) message.getHeaders().get("mqtt_receivedTopic");
+    }
+
+    private Timer inboundTimer(String type, String outcome) {
+        return inboundTimers.computeIfAbsent(type + "|" + outcome, key -> Timer.builder("mqtt.inbound.messages")
+                .description("MQTT入站消息处理耗时")
+                .tag("type", type)
+                .tag("outcome", outcome)
+                .register(meterRegistry));
+    }
+
+    // 离线事件批量落库：批大小与耗时，fallback 表示整批失败后逐条写入
+    public void recordEventBatch(int batchSize, long nanos, boolean fallback) {
+        Timer.builder("offline.events.persist")
+                .description("离线事件批量写入耗时")
+                .tag("outcome", fallback ? "fallback" : "success")
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("offline.events.batch.size")
+                .description("离线事件每批写入条数")
+                .register(meterRegistry)
+                .record(batchSize);
+    }
+
+    public void recordEventWriteFailures(int count) {
+        Counter.builder("offline.events.failed")
+                .description("写入失败的离线事件数")
+                .register(meterRegistry)
+                .increment(count);
+    }
+
+    // WebSocket推送，按目的地类型记录次数和耗时
+    public void recordWebSocketSend(String destination, long nanos) {
+        webSocketTimers.computeIfAbsent(destination, key -> Timer.builder("websocket.send")
+                        .description("WebSocket推送耗时")
+                        .tag("destination", key)
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // MQTT连接状态（1已连接/0断开）、断线次数和重连次数，按客户端ID区分
+    public void onMqttConnectionState(String clientId, boolean connected, boolean reconnect) {
+        connectionState(clientId).set(connected ? 1 : 0);
+        if (!connected) {
+            Counter.builder("mqtt.connection.lost")
+                    .description("MQTT连接断开次数")
+                    .tag("client", clientId)
+                    .register(meterRegistry)
+                    .increment();
+        } else if (reconnect) {
+            Counter.builder("mqtt.connection.reconnects")
+                    .description("MQTT重连成功次数")
+                    .tag("client", clientId)
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+
+    private AtomicInteger connectionState(String clientId) {
+        return connectionStates.computeIfAbsent(clientId, id -> {
+            AtomicInteger state = new AtomicInteger();
+            Gauge.builder("mqtt.connection.state", state, AtomicInteger::get)
+                    .description("MQTT连接状态，1为已连接")
+                    .tag("client", id)
+                    .register(meterRegistry);
+            return state;
+        });
+    }
+
+    // 入站适配器每次（重新）订阅成功时发布该事件，第一次之后的都是重连
+    @EventListener
+    public void onMqttSubscribed(MqttSubscribedEvent event) {
+        String clientId = clientIdOf(event.getSource());
+        boolean reconnect = connectionStates.containsKey(clientId);
+        onMqttConnectionState(clientId, true, reconnect);
+    }
+
+    // 入站适配器连接失败或连接断开
+    @EventListener
+    public void onMqttConnectionFailed(MqttConnectionFailedEvent event) {
+        onMqttConnectionState(clientIdOf(event.getSource()), false, false);
+    }
+
+    // 入站适配器不公开clientId，使用其Bean名称区分
+    private static String clientIdOf(Object source) {
+        if (source instanceof IntegrationObjectSupport component && component.getComponentName() != null) {
+            return component.getComponentName();
+        }
+        return "unknown";
+    }
+}
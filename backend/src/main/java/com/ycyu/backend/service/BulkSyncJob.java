@@ -0,0 +1,108 @@
+package com.ycyu.backend.service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 批量配置同步任务，记录每个设备的下发进度
+public class BulkSyncJob {
+
+    public static final String PENDING = "PENDING";
+    public static final String SENT = "SENT";
+    public static final String FAILED = "FAILED";
+
+    private final String jobId = UUID.randomUUID().toString();
+    private final List<String> deviceIds;
+    private final Map<String, String> deviceStates = new ConcurrentHashMap<>();
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final AtomicInteger sentCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private final long createdAt = System.currentTimeMillis();
+    private volatile long finishedAt;
+
+    public BulkSyncJob(List<String> deviceIds) {
+        this.deviceIds = List.copyOf(deviceIds);
+        for (String deviceId : this.deviceIds) {
+            deviceStates.put(deviceId, PENDING);
+        }
+    }
+
+    // 领取下一个待下发的设备，全部领取完返回null
+    String claimNext() {
+        int index = nextIndex.getAndIncrement();
+        return index < deviceIds.size() ? deviceIds.get(index) : null;
+    }
+
+    void markSent(String deviceId) {
+        deviceStates.put(deviceId, SENT);
+        sentCount.incrementAndGet();
+    }
+
+    void markFailed(String deviceId) {
+        deviceStates.put(deviceId, FAILED);
+        failedCount.incrementAndGet();
+    }
+
+    void workerStarted() {
+        activeWorkers.incrementAndGet();
+    }
+
+    // 返回是否为最后一个结束的工作线程
+    boolean workerFinished() {
+        if (activeWorkers.decrementAndGet() == 0 && nextIndex.get() >= deviceIds.size()) {
+            finishedAt = System.currentTimeMillis();
+            return true;
+        }
+        return false;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public int getTotal() {
+        return deviceIds.size();
+    }
+
+    public int getSentCount() {
+        return sentCount.get();
+    }
+
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    public boolean isFinished() {
+        return finishedAt > 0 || deviceIds.isEmpty();
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    // 任务进度摘要，details为true时包含每个设备的状态
+    public Map<String, Object> toSummary(boolean details) {
+        Map<String, Object> summary = new HashMap<>();
+        summary.put("jobId", jobId);
+        summary.put("total", deviceIds.size());
+        summary.put("sent", sentCount.get());
+        summary.put("failed", failedCount.get());
+        summary.put("pending", deviceIds.size() - sentCount.get() - failedCount.get());
+        summary.put("finished", isFinished());
+        summary.put("createdAt", createdAt);
+        summary.put("durationMs", (isFinished() && finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - createdAt);
+        if (details) {
+            Map<String, String> states = new LinkedHashMap<>();
+            for (String deviceId : deviceIds) {
+                states.put(deviceId, deviceStates.get(deviceId));
+            }
+            summary.put("devices", states);
+        }
+        return summary;
+    }
+}
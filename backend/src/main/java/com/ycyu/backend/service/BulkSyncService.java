@@ -0,0 +1,171 @@
+package com.ycyu.backend.service;
+
+import com.ycyu.backend.dto.MedicineDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+// 批量配置同步：药品列表只序列化一次，按有限并发下发到多个设备
+@Service
+public class BulkSyncService {
+
+    @Autowired
+    private MqttService mqttService;
+
+    @Autowired
+    private MedicineService medicineService;
+
+    @Autowired
+    private DeviceEventService deviceEventService;
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Autowired
+    private ConfigSyncService configSyncService;
+
+    // 同时下发的最大并发数
+    @Value("${sync.bulk.concurrency:8}")
+    private int concurrency;
+
+    // 保留的历史任务数
+    @Value("${sync.bulk.retained-jobs:50}")
+    private int retainedJobs;
+
+    // 虚拟线程模式下每个发布任务使用独立的虚拟线程，并发数仍由concurrency限制
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private ExecutorService publishers;
+    private final Map<String, BulkSyncJob> jobs = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> jobOrder = new ConcurrentLinkedQueue<>();
+
+    @PostConstruct
+    public void init() {
+        if (virtualThreads) {
+            publishers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("bulk-sync-v", 1).factory());
+            return;
+        }
+        AtomicInteger counter = new AtomicInteger();
+        publishers = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread thread = new Thread(r, "bulk-sync-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        publishers.shutdown();
+    }
+
+    // 解析目标设备：显式列表、全部在线设备、或按通配符（*）匹配已知设备
+    public List<String> resolveTargets(Collection<String> deviceIds, boolean allOnline, String pattern) {
+        LinkedHashSet<String> targets = new LinkedHashSet<>();
+        if (deviceIds != null) {
+            targets.addAll(deviceIds);
+        }
+        if (allOnline) {
+            targets.addAll(mqttService.getOnlineDeviceIds());
+        }
+        if (pattern != null && !pattern.isEmpty()) {
+            Pattern regex = globToRegex(pattern);
+            for (String deviceId : mqttService.getKnownDeviceIds()) {
+                if (regex.matcher(deviceId).matches()) {
+                    targets.add(deviceId);
+                }
+            }
+        }
+        return new ArrayList<>(targets);
+    }
+
+    private Pattern globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (String part : glob.split("\\*", -1)) {
+            if (regex.length() > 0) {
+                regex.append(".*");
+            }
+            regex.append(Pattern.quote(part));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    // 启动批量同步任务，立即返回任务句柄
+    public BulkSyncJob startSync(List<String> deviceIds) {
+        MedicineService.ScheduleSnapshot schedule = medicineService.getActiveSchedule();
+        List<MedicineDTO> medicines = schedule.getMedicines();
+        String medicinesJson = mqttService.serializeMedicines(medicines);
+        long timestamp = System.currentTimeMillis();
+
+        BulkSyncJob job = new BulkSyncJob(deviceIds);
+        registerJob(job);
+        System.out.println("📦 批量同步任务已创建: " + job.getJobId() + ", 设备数=" + deviceIds.size()
+                + ", 药品数=" + medicines.size());
+
+        int workers = Math.min(concurrency, deviceIds.size());
+        for (int i = 0; i < workers; i++) {
+            job.workerStarted();
+        }
+        for (int i = 0; i < workers; i++) {
+            publishers.execute(() -> runWorker(job, schedule, medicinesJson, timestamp));
+        }
+        return job;
+    }
+
+    private void runWorker(BulkSyncJob job, MedicineService.ScheduleSnapshot schedule, String medicinesJson,
+                           long timestamp) {
+        try {
+            String deviceId;
+            while ((deviceId = job.claimNext()) != null) {
+                try {
+                    ConfigSyncService.ConfigMessage message = configSyncService.buildConfigMessage(
+                            deviceId, schedule, medicinesJson, timestamp);
+                    mqttService.publishConfig(deviceId, message.getMessage(), schedule.getVersion());
+                    job.markSent(deviceId);
+                    // 同步成功以设备上报的版本号为准
+                    configSyncService.onSyncSent(deviceId, schedule.getVersion(), message.getPatchBase(), false);
+                } catch (Exception e) {
+                    job.markFailed(deviceId);
+                    deviceEventService.recordConfigSync(deviceId, false);
+                }
+            }
+        } finally {
+            if (job.workerFinished()) {
+                System.out.println("📦 批量同步任务完成: " + job.getJobId() + ", 成功=" + job.getSentCount()
+                        + ", 失败=" + job.getFailedCount());
+                notificationService.sendBulkSyncNotification(job.getJobId(), job.getTotal(),
+                        job.getSentCount(), job.getFailedCount());
+            }
+        }
+    }
+
+    private void registerJob(BulkSyncJob job) {
+        jobs.put(job.getJobId(), job);
+        jobOrder.add(job.getJobId());
+        // 只保留最近的任务记录
+        while (jobOrder.size() > retainedJobs) {
+            String oldest = jobOrder.poll();
+            if (oldest != null) {
+                jobs.remove(oldest);
+            }
+        }
+    }
+
+    public BulkSyncJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+}
@@ -0,0 +1,53 @@
+package com.ycyu.backend.service;
+
+import com.ycyu.backend.dto.MedicineDTO;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// 药品配置差异计算：按设备药品槽位（列表下标）比较两个版本，只输出变化的字段
+public final class ConfigDiff {
+
+    private ConfigDiff() {
+    }
+
+    // 计算从base到target的槽位变更；target中不存在的槽位输出clear标记
+    public static List<Map<String, Object>> diffSlots(List<MedicineDTO> base, List<MedicineDTO> target) {
+        List<Map<String, Object>> slots = new ArrayList<>();
+        int size = Math.max(base.size(), target.size());
+        for (int i = 0; i < size; i++) {
+            MedicineDTO before = i < base.size() ? base.get(i) : null;
+            MedicineDTO after = i < target.size() ? target.get(i) : null;
+
+            Map<String, Object> slot = new LinkedHashMap<>();
+            slot.put("slot", i);
+            if (after == null) {
+                slot.put("clear", true);
+                slots.add(slot);
+                continue;
+            }
+
+            // 新增槽位时所有字段都要下发
+            putIfChanged(slot, "name", before == null ? null : before.getName(), after.getName(), before == null);
+            putIfChanged(slot, "dosage", before == null ? null : before.getDosage(), after.getDosage(), before == null);
+            putIfChanged(slot, "hour", before == null ? null : before.getHour(), after.getHour(), before == null);
+            putIfChanged(slot, "minute", before == null ? null : before.getMinute(), after.getMinute(), before == null);
+            putIfChanged(slot, "boxNum", before == null ? null : before.getBoxNum(), after.getBoxNum(), before == null);
+            putIfChanged(slot, "enabled", before == null ? null : before.getEnabled(), after.getEnabled(), before == null);
+
+            if (slot.size() > 1) {
+                slots.add(slot);
+            }
+        }
+        return slots;
+    }
+
+    private static void putIfChanged(Map<String, Object> slot, String field, Object before, Object after, boolean force) {
+        if (force || !Objects.equals(before, after)) {
+            slot.put(field, after);
+        }
+    }
+}
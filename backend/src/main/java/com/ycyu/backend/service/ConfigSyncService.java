@@ -0,0 +1,453 @@
+package com.ycyu.backend.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 配置同步确认与重试：以设备上报的配置版本号作为同步确认，版本落后的设备按指数退避重新同步；
+// 设备已确认的版本仍在缓存中时只下发变化的槽位（增量补丁），否则下发完整配置
+@Service
+public class ConfigSyncService {
+
+    @Autowired
+    private MqttService mqttService;
+
+    @Autowired
+    private MedicineService medicineService;
+
+    @Autowired
+    private DeviceEventService deviceEventService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // 首次重试延迟（毫秒），之后按2的幂增长
+    @Value("${sync.retry.base-delay-ms:5000}")
+    private long baseDelayMs;
+
+    // 最大重试延迟（毫秒）
+    @Value("${sync.retry.max-delay-ms:300000}")
+    private long maxDelayMs;
+
+    // 最大重试次数，超过后判定同步失败
+    @Value("${sync.retry.max-attempts:6}")
+    private int maxAttempts;
+
+    // 下发后等待设备确认的超时时间（毫秒）
+    @Value("${sync.retry.ack-timeout-ms:60000}")
+    private long ackTimeoutMs;
+
+    // 是否启用增量同步
+    @Value("${sync.delta.enabled:true}")
+    private boolean deltaEnabled;
+
+    // 保留的历史配置版本数，设备已确认的版本不在其中时只能全量同步
+    @Value("${sync.delta.retained-versions:16}")
+    private int retainedVersions;
+
+    // 配置消息：patchBase为增量补丁的基准版本，全量同步时为null
+    public static final class ConfigMessage {
+        private final String message;
+        private final String patchBase;
+
+        ConfigMessage(String message, String patchBase) {
+            this.message = message;
+            this.patchBase = patchBase;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public String getPatchBase() {
+            return patchBase;
+        }
+
+        public boolean isPatch() {
+            return patchBase != null;
+        }
+    }
+
+    // 单个设备的同步状态
+    private static class SyncState {
+        String pendingVersion;
+        String patchBase;
+        long sentAt;
+        int attempts;
+        boolean notify;
+        ScheduledFuture<?> retryTask;
+        ScheduledFuture<?> timeoutTask;
+    }
+
+    private final Map<String, SyncState> states = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    // 每个设备最近一次上报（已确认生效）的配置版本
+    private final Map<String, String> ackedVersions = new ConcurrentHashMap<>();
+    // 重试次数已用尽的设备及当时的目标版本：目标版本不变且设备未重新上线时，版本落后的状态上报不再开始新一轮重试
+    private final Map<String, String> exhaustedVersions = new ConcurrentHashMap<>();
+    // 最近下发过的配置版本，用作增量补丁的基准
+    private final Map<String, MedicineService.ScheduleSnapshot> recentSchedules =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, MedicineService.ScheduleSnapshot> eldest) {
+                    return size() > retainedVersions;
+                }
+            };
+    // 同一对基准/目标版本的补丁内容只计算一次（批量同步时共享）
+    private final Map<String, String> patchCache = new ConcurrentHashMap<>();
+
+    // 统计信息
+    private final AtomicLong ackCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong latencyTotalMs = new AtomicLong();
+    private final AtomicLong latencyMaxMs = new AtomicLong();
+    private final AtomicLong deltaCount = new AtomicLong();
+    private final AtomicLong fullCount = new AtomicLong();
+    private final AtomicLong fallbackCount = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newScheduledThreadPool(2, r -> {
+            Thread thread = new Thread(r, "config-sync-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    // 生成下发给设备的配置消息：能增量时返回补丁，否则返回完整配置
+    // fullMedicinesJson为已序列化的完整药品列表，批量同步时由调用方共享
+    public ConfigMessage buildConfigMessage(String deviceId, MedicineService.ScheduleSnapshot schedule,
+                                            String fullMedicinesJson, long timestamp) {
+        String fullMessage = mqttService.buildSyncMessage(deviceId, fullMedicinesJson, schedule.getVersion(), timestamp);
+        rememberSchedule(schedule);
+
+        String baseVersion = ackedVersions.get(deviceId);
+        MedicineService.ScheduleSnapshot base = baseVersion == null ? null : findSchedule(baseVersion);
+        if (!deltaEnabled || base == null || baseVersion.equals(schedule.getVersion())) {
+            fullCount.incrementAndGet();
+            return new ConfigMessage(fullMessage, null);
+        }
+
+        String patchMessage = buildPatchMessage(deviceId, base, schedule);
+        // 变化较多时补丁可能比完整配置还大，此时直接全量同步
+        if (patchMessage.length() >= fullMessage.length()) {
+            fullCount.incrementAndGet();
+            return new ConfigMessage(fullMessage, null);
+        }
+        deltaCount.incrementAndGet();
+        bytesSaved.addAndGet(fullMessage.length() - patchMessage.length());
+        return new ConfigMessage(patchMessage, baseVersion);
+    }
+
+    private String buildPatchMessage(String deviceId, MedicineService.ScheduleSnapshot base,
+                                     MedicineService.ScheduleSnapshot target) {
+        try {
+            String key = base.getVersion() + "->" + target.getVersion();
+            String slotsJson = patchCache.get(key);
+            if (slotsJson == null) {
+                List<Map<String, Object>> slots = ConfigDiff.diffSlots(base.getMedicines(), target.getMedicines());
+                slotsJson = objectMapper.writeValueAsString(slots);
+                if (patchCache.size() >= retainedVersions * 4) {
+                    patchCache.clear();
+                }
+                patchCache.put(key, slotsJson);
+            }
+            return "{\"type\":\"PATCH_MEDICINES\",\"deviceId\":" + objectMapper.writeValueAsString(deviceId)
+                    + ",\"baseVersion\":" + objectMapper.writeValueAsString(base.getVersion())
+                    + ",\"configVersion\":" + objectMapper.writeValueAsString(target.getVersion())
+                    + ",\"count\":" + target.getMedicines().size()
+                    + ",\"slots\":" + slotsJson + "}";
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("JSON序列化失败", e);
+        }
+    }
+
+    private void rememberSchedule(MedicineService.ScheduleSnapshot schedule) {
+        synchronized (recentSchedules) {
+            recentSchedules.putIfAbsent(schedule.getVersion(), schedule);
+        }
+    }
+
+    private MedicineService.ScheduleSnapshot findSchedule(String version) {
+        synchronized (recentSchedules) {
+            return recentSchedules.get(version);
+        }
+    }
+
+    // 配置已下发，开始等待设备确认；notify为true时确认后推送同步成功通知
+    public void onSyncSent(String deviceId, String version, boolean notify) {
+        onSyncSent(deviceId, version, null, notify);
+    }
+
+    // patchBase不为null表示下发的是基于该版本的增量补丁
+    public void onSyncSent(String deviceId, String version, String patchBase, boolean notify) {
+        // 新的下发（手动/批量同步或重试）重新开始计算重试
+        exhaustedVersions.remove(deviceId);
+        SyncState state = states.computeIfAbsent(deviceId, id -> new SyncState());
+        synchronized (state) {
+            state.pendingVersion = version;
+            state.patchBase = patchBase;
+            state.sentAt = System.currentTimeMillis();
+            state.notify |= notify;
+            cancel(state.timeoutTask);
+            state.timeoutTask = scheduler.schedule(() -> onAckTimeout(deviceId, version),
+                    ackTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // 设备上报当前配置版本（STATUS消息），与最新版本比较
+    public void onReportedVersion(String deviceId, String reportedVersion) {
+        mqttService.updateReportedConfigVersion(deviceId, reportedVersion);
+        ackedVersions.put(deviceId, reportedVersion);
+        String currentVersion = medicineService.getActiveScheduleVersion();
+
+        if (currentVersion.equals(reportedVersion)) {
+            exhaustedVersions.remove(deviceId);
+            SyncState state = states.remove(deviceId);
+            if (state != null) {
+                onAcknowledged(deviceId, state);
+            }
+            return;
+        }
+
+        // 该版本的重试已用尽，等配置变更或设备重新上线后再同步，避免每次状态上报都重复失败通知
+        if (currentVersion.equals(exhaustedVersions.get(deviceId)) && !states.containsKey(deviceId)) {
+            return;
+        }
+
+        // 版本落后：已在等待确认或已排队重试的设备不重复处理
+        SyncState state = states.computeIfAbsent(deviceId, id -> new SyncState());
+        boolean exhausted = false;
+        synchronized (state) {
+            // 设备既未应用补丁也不在补丁基准版本上，说明补丁被拒绝（版本不匹配），立即改为全量同步
+            if (state.patchBase != null && !reportedVersion.equals(state.patchBase)
+                    && !reportedVersion.equals(state.pendingVersion)) {
+                fallbackToFull(deviceId, state);
+                return;
+            }
+            if (state.pendingVersion == null && state.retryTask == null) {
+                exhausted = scheduleRetry(deviceId, state, currentVersion);
+            }
+        }
+        if (exhausted) {
+            onRetriesExhausted(deviceId);
+        }
+    }
+
+    // 设备在response主题上的同步结果：版本不匹配立即全量同步，解析失败按退避重试，不必等到确认超时
+    public void onSyncResponse(String deviceId, String responseType) {
+        SyncState state = states.get(deviceId);
+        if (state == null) {
+            return;
+        }
+        // 当前版本在加锁前读取：缓存未命中时会查询数据库并等待连接许可，不能在state锁内执行
+        String activeVersion = medicineService.getActiveScheduleVersion();
+        boolean exhausted = false;
+        synchronized (state) {
+            if (state.pendingVersion == null) {
+                return;
+            }
+            if ("SYNC_VERSION_MISMATCH".equals(responseType)) {
+                fallbackToFull(deviceId, state);
+            } else if ("SYNC_ERROR".equals(responseType)) {
+                cancel(state.timeoutTask);
+                state.timeoutTask = null;
+                state.pendingVersion = null;
+                state.patchBase = null;
+                exhausted = scheduleRetry(deviceId, state, activeVersion);
+            }
+        }
+        if (exhausted) {
+            onRetriesExhausted(deviceId);
+        }
+    }
+
+    // 增量补丁被设备拒绝，立即改为全量同步，调用方需持有state锁
+    private void fallbackToFull(String deviceId, SyncState state) {
+        fallbackCount.incrementAndGet();
+        System.out.println("⚠️ 设备 " + deviceId + " 配置版本不匹配，改为全量同步");
+        cancel(state.timeoutTask);
+        state.timeoutTask = null;
+        state.pendingVersion = null;
+        state.patchBase = null;
+        state.retryTask = scheduler.schedule(() -> resync(deviceId), 0, TimeUnit.MILLISECONDS);
+    }
+
+    private void onAcknowledged(String deviceId, SyncState state) {
+        long latency;
+        boolean notify;
+        synchronized (state) {
+            cancel(state.timeoutTask);
+            cancel(state.retryTask);
+            if (state.pendingVersion == null) {
+                return;
+            }
+            latency = System.currentTimeMillis() - state.sentAt;
+            notify = state.notify;
+        }
+
+        ackCount.incrementAndGet();
+        latencyTotalMs.addAndGet(latency);
+        latencyMaxMs.accumulateAndGet(latency, Math::max);
+        System.out.println("✅ 设备 " + deviceId + " 已确认配置同步，耗时 " + latency + "ms");
+
+        if (notify) {
+            deviceEventService.handleConfigSync(deviceId, true);
+        } else {
+            deviceEventService.recordConfigSync(deviceId, true);
+        }
+    }
+
+    // 超时未收到确认，转入重试
+    private void onAckTimeout(String deviceId, String version) {
+        SyncState state = states.get(deviceId);
+        if (state == null) {
+            return;
+        }
+        String activeVersion = medicineService.getActiveScheduleVersion();
+        boolean exhausted;
+        synchronized (state) {
+            if (!version.equals(state.pendingVersion)) {
+                return;
+            }
+            timeoutCount.incrementAndGet();
+            state.pendingVersion = null;
+            state.patchBase = null;
+            state.timeoutTask = null;
+            exhausted = scheduleRetry(deviceId, state, activeVersion);
+        }
+        if (exhausted) {
+            onRetriesExhausted(deviceId);
+        }
+    }
+
+    // 按指数退避加随机抖动安排重试，调用方需持有state锁；重试次数用尽时返回true，
+    // 由调用方在释放锁之后调用 onRetriesExhausted。锁内不访问数据库（避免虚拟线程被钉住），
+    // 因此当前配置版本 activeVersion 由调用方在加锁前读取后传入
+    private boolean scheduleRetry(String deviceId, SyncState state, String activeVersion) {
+        state.attempts++;
+        if (state.attempts > maxAttempts) {
+            if (activeVersion != null) {
+                exhaustedVersions.put(deviceId, activeVersion);
+            }
+            states.remove(deviceId);
+            return true;
+        }
+        long delay = Math.min(maxDelayMs, baseDelayMs << Math.min(state.attempts - 1, 20));
+        delay += ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        state.retryTask = scheduler.schedule(() -> resync(deviceId), delay, TimeUnit.MILLISECONDS);
+        return false;
+    }
+
+    // 设备重新上线：之前用尽的重试不再阻止同步，下一次版本落后的状态上报重新开始重试
+    public void onDeviceReconnected(String deviceId) {
+        exhaustedVersions.remove(deviceId);
+    }
+
+    private void onRetriesExhausted(String deviceId) {
+        failureCount.incrementAndGet();
+        System.err.println("❌ 设备 " + deviceId + " 配置同步重试 " + maxAttempts + " 次后仍未确认");
+        deviceEventService.handleConfigSync(deviceId, false);
+    }
+
+    private void resync(String deviceId) {
+        SyncState state = states.get(deviceId);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            state.retryTask = null;
+        }
+
+        // 设备离线时放弃本轮重试，等设备重新上报状态时再判断
+        if (!mqttService.isDeviceOnline(deviceId)) {
+            states.remove(deviceId);
+            return;
+        }
+
+        // 重试一律全量下发，避免基准版本判断错误导致反复失败
+        try {
+            MedicineService.ScheduleSnapshot schedule = medicineService.getActiveSchedule();
+            rememberSchedule(schedule);
+            String message = mqttService.buildSyncMessage(deviceId,
+                    mqttService.serializeMedicines(schedule.getMedicines()),
+                    schedule.getVersion(), System.currentTimeMillis());
+            mqttService.publishConfig(deviceId, message, schedule.getVersion());
+            fullCount.incrementAndGet();
+            retryCount.incrementAndGet();
+            onSyncSent(deviceId, schedule.getVersion(), false);
+        } catch (Exception e) {
+            System.err.println("❌ 设备 " + deviceId + " 配置重试下发失败: " + e.getMessage());
+            // 下发失败可能正是数据库不可用，此时读不到版本也要继续安排重试
+            String activeVersion = null;
+            try {
+                activeVersion = medicineService.getActiveScheduleVersion();
+            } catch (Exception versionError) {
+                System.err.println("⚠️ 读取当前配置版本失败: " + versionError.getMessage());
+            }
+            boolean exhausted;
+            synchronized (state) {
+                exhausted = scheduleRetry(deviceId, state, activeVersion);
+            }
+            if (exhausted) {
+                onRetriesExhausted(deviceId);
+            }
+        }
+    }
+
+    private void cancel(ScheduledFuture<?> task) {
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    // 当前等待确认的设备数
+    public int getPendingCount() {
+        return states.size();
+    }
+
+    // 获取同步确认统计信息
+    public Map<String, Object> getStats() {
+        long acks = ackCount.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("currentVersion", medicineService.getActiveScheduleVersion());
+        stats.put("pendingDevices", states.size());
+        stats.put("exhaustedDevices", exhaustedVersions.size());
+        stats.put("acknowledged", acks);
+        stats.put("retries", retryCount.get());
+        stats.put("ackTimeouts", timeoutCount.get());
+        stats.put("failures", failureCount.get());
+        stats.put("avgLatencyMs", acks > 0 ? latencyTotalMs.get() / acks : 0);
+        stats.put("maxLatencyMs", latencyMaxMs.get());
+        stats.put("deltaSyncs", deltaCount.get());
+        stats.put("fullSyncs", fullCount.get());
+        stats.put("deltaFallbacks", fallbackCount.get());
+        stats.put("bytesSaved", bytesSaved.get());
+        return stats;
+    }
+}
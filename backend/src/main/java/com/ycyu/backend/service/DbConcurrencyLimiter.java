@@ -0,0 +1,97 @@
+package com.ycyu.backend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 数据库并发限制：许可数不超过连接池大小，虚拟线程数量再多也只会在这里排队，不会耗尽连接池；只在虚拟线程模式下启用
+@Component
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class DbConcurrencyLimiter {
+
+    public interface DbCall<T> {
+        T call() throws Throwable;
+    }
+
+    // 默认与Hikari连接池大小一致
+    @Value("${db.concurrency.max-permits:${spring.datasource.hikari.maximum-pool-size:10}}")
+    private int maxPermits;
+
+    // 等待许可的超时时间（毫秒）
+    @Value("${db.concurrency.acquire-timeout-ms:30000}")
+    private long acquireTimeoutMs;
+
+    private Semaphore permits;
+    // 同一线程内的嵌套调用只占用一个许可
+    private final ThreadLocal<int[]> depth = ThreadLocal.withInitial(() -> new int[1]);
+
+    // 统计信息
+    private final AtomicLong acquiredCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong totalWaitMs = new AtomicLong();
+    private final AtomicLong maxWaitMs = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        permits = new Semaphore(maxPermits, true);
+    }
+
+    // 在许可内执行数据库调用，等待超时抛出异常
+    public <T> T execute(DbCall<T> call) throws Throwable {
+        int[] nested = depth.get();
+        if (nested[0] > 0) {
+            nested[0]++;
+            try {
+                return call.call();
+            } finally {
+                nested[0]--;
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("等待数据库许可时被中断", e);
+        }
+        if (!acquired) {
+            rejectedCount.incrementAndGet();
+            throw new RuntimeException("数据库繁忙，等待超过 " + acquireTimeoutMs + "ms");
+        }
+        long waited = System.currentTimeMillis() - start;
+        acquiredCount.incrementAndGet();
+        totalWaitMs.addAndGet(waited);
+        maxWaitMs.accumulateAndGet(waited, Math::max);
+
+        nested[0] = 1;
+        try {
+            return call.call();
+        } finally {
+            nested[0] = 0;
+            permits.release();
+        }
+    }
+
+    // 获取限流统计信息
+    public Map<String, Object> getStats() {
+        long acquired = acquiredCount.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("maxPermits", maxPermits);
+        stats.put("inUse", maxPermits - permits.availablePermits());
+        stats.put("waiting", permits.getQueueLength());
+        stats.put("acquired", acquired);
+        stats.put("rejected", rejectedCount.get());
+        stats.put("avgWaitMs", acquired > 0 ? totalWaitMs.get() / acquired : 0);
+        stats.put("maxWaitMs", maxWaitMs.get());
+        return stats;
+    }
+}
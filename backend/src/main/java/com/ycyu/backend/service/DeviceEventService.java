@@ -18,6 +18,9 @@ public class DeviceEventService {
     @Autowired
     private ObjectMapper objectMapper;
     
+    @Autowired
+    private MedicationAdherenceService medicationAdherenceService;
+    
     // 处理设备状态变化事件
     public void handleDeviceStatusChange(String deviceId, boolean online) {
         if (online) {
@@ -25,7 +28,7 @@ public class DeviceEventService {
             notificationService.sendDeviceOnlineNotification(deviceId);
             
             // 记录设备上线事件
-            offlineEventService.recordEvent(
+            offlineEventService.submitEvent(
                 deviceId,
                 "DEVICE_ONLINE",
                 null,
@@ -36,7 +39,7 @@ public class DeviceEventService {
             notificationService.sendDeviceOfflineNotification(deviceId);
             
             // 记录设备离线事件
-            offlineEventService.recordEvent(
+            offlineEventService.submitEvent(
                 deviceId,
                 "DEVICE_OFFLINE",
                 null,
@@ -50,7 +53,17 @@ public class DeviceEventService {
         notificationService.sendConfigSyncNotification(deviceId, success);
         
         // 记录配置同步事件
-        offlineEventService.recordEvent(
+        offlineEventService.submitEvent(
+            deviceId,
+            "CONFIG_SYNC",
+            "{\"success\": " + success + "}",
+            "设备配置同步" + (success ? "成功" : "失败")
+        );
+    }
+    
+    // 只记录配置同步事件，不逐台推送通知（批量同步使用）
+    public void recordConfigSync(String deviceId, boolean success) {
+        offlineEventService.submitEvent(
             deviceId,
             "CONFIG_SYNC",
             "{\"success\": " + success + "}",
@@ -62,13 +75,13 @@ public class DeviceEventService {
     public void handleMedicationReminder(String deviceId, String medicineName, String time) {
         notificationService.sendMedicationReminder(deviceId, medicineName, time);
         
-        // 记录服药提醒事件
-        offlineEventService.recordEvent(
+        // 记录服药提醒事件并累加服药依从性计数（两者一起完成，重建计数时不会重复计入）
+        medicationAdherenceService.recordReminder(deviceId, () -> offlineEventService.submitEvent(
             deviceId,
             "MEDICATION_REMINDER",
             "{\"medicineName\": \"" + medicineName + "\", \"time\": \"" + time + "\"}",
             "服药提醒: " + medicineName
-        );
+        ));
     }
     
     // 处理药品服用事件
@@ -83,16 +96,16 @@ public class DeviceEventService {
         );
         notificationService.sendDeviceNotification(deviceId, notification);
         
-        // 记录药品服用事件
-        offlineEventService.recordEvent(
+        // 记录药品服用事件并累加服药依从性计数
+        medicationAdherenceService.recordTaken(deviceId, () -> offlineEventService.submitEvent(
             deviceId,
             "MEDICINE_TAKEN",
             "{\"medicineName\": \"" + medicineName + "\"}",
             "药品已服用: " + medicineName
-        );
+        ));
     }
     
-    // 处理设备警告事件
+    // 处理设备警告事件（含紧急报警）：先推送通知，再提交写缓冲异步持久化
     public void handleDeviceWarning(String deviceId, String warningType, String message) {
         NotificationDTO notification = new NotificationDTO(
             "设备警告",
@@ -105,7 +118,7 @@ public class DeviceEventService {
         notificationService.sendDeviceNotification(deviceId, notification);
         
         // 记录设备警告事件
-        offlineEventService.recordEvent(
+        offlineEventService.submitEvent(
             deviceId,
             "DEVICE_WARNING",
             "{\"warningType\": \"" + warningType + "\"}",
@@ -126,7 +139,7 @@ public class DeviceEventService {
         notificationService.sendDeviceNotification(deviceId, notification);
         
         // 记录设备错误事件
-        offlineEventService.recordEvent(
+        offlineEventService.submitEvent(
             deviceId,
             "DEVICE_ERROR",
             "{\"errorType\": \"" + errorType + "\"}",
@@ -0,0 +1,206 @@
+package com.ycyu.backend.service;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 设备心跳跟踪器：基于哈希时间轮，每个tick只检查到期槽位中的设备，O(1)完成离线判定
+public class DeviceLivenessTracker {
+
+    // 设备在线状态变化回调，每次状态变化只触发一次；回调在释放设备锁之后执行，
+    // 同一设备的回调按状态变化顺序串行，快速往返（上线后立即离线）的中间状态会被合并掉
+    public interface Listener {
+        void onLivenessChange(String deviceId, boolean online);
+    }
+
+    private static class Entry {
+        // 保护槽位、到期时间和在线状态，持有时间很短，不在锁内执行回调
+        final ReentrantLock lock = new ReentrantLock();
+        // 串行执行同一设备的状态变化回调；回调会访问数据库和推送通知，用ReentrantLock避免钉住虚拟线程
+        final ReentrantLock dispatchLock = new ReentrantLock();
+        final String deviceId;
+        long deadline;
+        int slot = -1;
+        volatile boolean online;
+        // 状态变化次数，由lock保护，用来识别已被后续变化取代的回调
+        long transitions;
+        // 最近一次通知给回调的状态，由dispatchLock保护
+        boolean reported;
+
+        Entry(String deviceId) {
+            this.deviceId = deviceId;
+        }
+    }
+
+    private final long timeoutMs;
+    private final long tickMs;
+    private final int mask;
+    private final Set<Entry>[] wheel;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger onlineCount = new AtomicInteger();
+    private final Listener listener;
+    private final ScheduledExecutorService ticker;
+    // 离线回调在单独的线程上执行，回调变慢不会拖慢时间轮推进
+    private final ExecutorService dispatcher;
+    private long lastTick;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public DeviceLivenessTracker(long timeoutMs, long tickMs, Listener listener) {
+        if (tickMs <= 0 || timeoutMs < tickMs) {
+            throw new IllegalArgumentException("tickMs必须大于0且不大于timeoutMs");
+        }
+        this.timeoutMs = timeoutMs;
+        this.tickMs = tickMs;
+        this.listener = listener;
+
+        // 时间轮跨度必须覆盖超时时间，保证槽位中的设备在一圈之内到期
+        int size = Integer.highestOneBit((int) (timeoutMs / tickMs) + 1) << 1;
+        this.mask = size - 1;
+        this.wheel = new Set[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = ConcurrentHashMap.newKeySet();
+        }
+        this.lastTick = System.currentTimeMillis() / tickMs;
+
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "device-liveness");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatcher = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "device-liveness-dispatch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tickSafely, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    // 记录设备心跳，返回设备是否由离线变为在线
+    public boolean heartbeat(String deviceId, long now) {
+        Entry entry = entries.computeIfAbsent(deviceId, Entry::new);
+        long transition;
+        entry.lock.lock();
+        try {
+            entry.deadline = now + timeoutMs;
+            // 放入到期时间之后的下一个槽位，保证处理该槽位时已真正超时
+            int newSlot = (int) ((entry.deadline / tickMs + 1) & mask);
+            if (newSlot != entry.slot) {
+                if (entry.slot >= 0) {
+                    wheel[entry.slot].remove(entry);
+                }
+                wheel[newSlot].add(entry);
+                entry.slot = newSlot;
+            }
+            if (entry.online) {
+                return false;
+            }
+            entry.online = true;
+            onlineCount.incrementAndGet();
+            transition = ++entry.transitions;
+        } finally {
+            entry.lock.unlock();
+        }
+        // 上线回调在心跳线程上执行
+        dispatch(entry, transition);
+        return true;
+    }
+
+    // 通知一次状态变化：已被后续变化取代的直接丢弃，由最新的那次通知当前状态；
+    // 当前状态与上次通知的相同（中间变化互相抵消）时也不再通知，保证回调看到的状态严格交替
+    private void dispatch(Entry entry, long transition) {
+        entry.dispatchLock.lock();
+        try {
+            boolean online;
+            entry.lock.lock();
+            try {
+                if (entry.transitions != transition) {
+                    return;
+                }
+                online = entry.online;
+            } finally {
+                entry.lock.unlock();
+            }
+            if (online == entry.reported) {
+                return;
+            }
+            entry.reported = online;
+            listener.onLivenessChange(entry.deviceId, online);
+        } finally {
+            entry.dispatchLock.unlock();
+        }
+    }
+
+    private void dispatchSafely(Entry entry, long transition) {
+        try {
+            dispatch(entry, transition);
+        } catch (Exception e) {
+            System.err.println("设备 " + entry.deviceId + " 离线回调出错: " + e.getMessage());
+        }
+    }
+
+    public boolean isOnline(String deviceId) {
+        Entry entry = entries.get(deviceId);
+        return entry != null && entry.online;
+    }
+
+    public int getOnlineCount() {
+        return onlineCount.get();
+    }
+
+    public int getTrackedCount() {
+        return entries.size();
+    }
+
+    private void tickSafely() {
+        try {
+            tick(System.currentTimeMillis());
+        } catch (Exception e) {
+            System.err.println("设备心跳检查出错: " + e.getMessage());
+        }
+    }
+
+    // 推进时间轮，处理从上次tick到现在经过的所有槽位
+    private void tick(long now) {
+        long currentTick = now / tickMs;
+        // 停顿超过一圈时，每个槽位只需处理一次
+        long from = Math.max(lastTick + 1, currentTick - mask);
+        for (long t = from; t <= currentTick; t++) {
+            expireSlot((int) (t & mask), now);
+        }
+        lastTick = currentTick;
+    }
+
+    private void expireSlot(int slot, long now) {
+        for (Entry entry : wheel[slot]) {
+            long transition;
+            entry.lock.lock();
+            try {
+                // 心跳可能已把设备移到其他槽位，或刷新了到期时间
+                if (entry.slot != slot || entry.deadline > now) {
+                    continue;
+                }
+                wheel[slot].remove(entry);
+                entry.slot = -1;
+                if (!entry.online) {
+                    continue;
+                }
+                entry.online = false;
+                onlineCount.decrementAndGet();
+                transition = ++entry.transitions;
+            } finally {
+                entry.lock.unlock();
+            }
+            dispatcher.execute(() -> dispatchSafely(entry, transition));
+        }
+    }
+
+    public void shutdown() {
+        ticker.shutdownNow();
+        dispatcher.shutdownNow();
+    }
+}
@@ -0,0 +1,325 @@
+package com.ycyu.backend.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 设备消息解码器：用Jackson流式解析器直接从byte[]解析 STATUS / DEVICE_INFO / 事件消息，
+// 不经过String和JsonNode树，解析结果写入每个线程复用的 DeviceMessage。
+// 支持JSON和MessagePack两种编码，按首字节自动识别（JSON对象以'{'开头，MessagePack映射为0x80-0x8f/0xde/0xdf）
+@Component
+public class DeviceMessageCodec {
+
+    // 解码后的设备消息；同一线程下次解码时会被覆盖，只能在当前消息处理期间使用
+    public static final class DeviceMessage {
+        public static final int WIFI_CONNECTED = 1;
+        public static final int MQTT_CONNECTED = 1 << 1;
+        public static final int TIME_SYNCED = 1 << 2;
+        public static final int EMERGENCY_MODE = 1 << 3;
+        public static final int REMIND_LEVEL = 1 << 4;
+        public static final int ARDUINO_READY = 1 << 5;
+        public static final int ACTIVE_MEDICINES = 1 << 6;
+        public static final int OFFLINE_MODE = 1 << 7;
+        public static final int TIMESTAMP = 1 << 8;
+        public static final int MAX_MEDICINES = 1 << 9;
+        public static final int MSGPACK = 1 << 10;
+
+        public static final String ENCODING_JSON = "json";
+        public static final String ENCODING_MSGPACK = "msgpack";
+
+        // 已出现的数值/布尔字段（按位记录，避免装箱）
+        private int present;
+        private String type;
+        private String deviceId;
+        private String message;
+        private String currentTime;
+        private String configVersion;
+        private String macAddress;
+        private String ipAddress;
+        private String firmwareVersion;
+        private boolean wifiConnected;
+        private boolean mqttConnected;
+        private boolean timeSynced;
+        private boolean emergencyMode;
+        private boolean arduinoReady;
+        private boolean offlineMode;
+        // DEVICE_INFO 中声明支持MessagePack
+        private boolean msgpack;
+        // 本条消息使用的编码
+        private String encoding;
+        private int remindLevel;
+        private int activeMedicines;
+        private int maxMedicines;
+        private long timestamp;
+
+        void reset() {
+            present = 0;
+            msgpack = false;
+            encoding = ENCODING_JSON;
+            type = null;
+            deviceId = null;
+            message = null;
+            currentTime = null;
+            configVersion = null;
+            macAddress = null;
+            ipAddress = null;
+            firmwareVersion = null;
+        }
+
+        public boolean has(int field) {
+            return (present & field) != 0;
+        }
+
+        public String getType() {
+            return type != null ? type : "";
+        }
+
+        public String getDeviceId() {
+            return deviceId;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public String getCurrentTime() {
+            return currentTime;
+        }
+
+        public String getConfigVersion() {
+            return configVersion;
+        }
+
+        public String getMacAddress() {
+            return macAddress;
+        }
+
+        public String getIpAddress() {
+            return ipAddress;
+        }
+
+        public String getFirmwareVersion() {
+            return firmwareVersion;
+        }
+
+        public boolean isWifiConnected() {
+            return wifiConnected;
+        }
+
+        public boolean isMqttConnected() {
+            return mqttConnected;
+        }
+
+        public boolean isTimeSynced() {
+            return timeSynced;
+        }
+
+        public boolean isEmergencyMode() {
+            return emergencyMode;
+        }
+
+        public boolean isArduinoReady() {
+            return arduinoReady;
+        }
+
+        public boolean isOfflineMode() {
+            return offlineMode;
+        }
+
+        public int getRemindLevel() {
+            return remindLevel;
+        }
+
+        public int getActiveMedicines() {
+            return activeMedicines;
+        }
+
+        public int getMaxMedicines() {
+            return maxMedicines;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public boolean isMsgpack() {
+            return msgpack;
+        }
+
+        public String getEncoding() {
+            return encoding;
+        }
+    }
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private JsonFactory jsonFactory;
+    private final MessagePackFactory msgpackFactory = new MessagePackFactory();
+    private final ThreadLocal<DeviceMessage> messages = ThreadLocal.withInitial(DeviceMessage::new);
+
+    // 解析耗时统计
+    private final AtomicLong decodedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    // 按编码分别统计消息数、字节数和解析耗时，用于对比两种格式
+    private final AtomicLong[] formatCount = {new AtomicLong(), new AtomicLong()};
+    private final AtomicLong[] formatBytes = {new AtomicLong(), new AtomicLong()};
+    private final AtomicLong[] formatNanos = {new AtomicLong(), new AtomicLong()};
+
+    @PostConstruct
+    public void init() {
+        jsonFactory = objectMapper.getFactory();
+    }
+
+    // 解码消息，失败（非JSON或格式错误）时返回null
+    public DeviceMessage decode(byte[] payload) {
+        long start = System.nanoTime();
+        DeviceMessage target = messages.get();
+        target.reset();
+        boolean binary = isMsgPack(payload);
+        if (binary) {
+            target.encoding = DeviceMessage.ENCODING_MSGPACK;
+        }
+        try (JsonParser parser = binary ? msgpackFactory.createParser(payload) : jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                failedCount.incrementAndGet();
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                // 字段名由解析器规范化复用，不会为每条消息分配新字符串
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                readField(parser, field, token, target);
+            }
+            decodedCount.incrementAndGet();
+            return target;
+        } catch (IOException e) {
+            failedCount.incrementAndGet();
+            return null;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            totalNanos.addAndGet(elapsed);
+            maxNanos.accumulateAndGet(elapsed, Math::max);
+            int format = binary ? 1 : 0;
+            formatCount[format].incrementAndGet();
+            formatBytes[format].addAndGet(payload.length);
+            formatNanos[format].addAndGet(elapsed);
+        }
+    }
+
+    private static boolean isMsgPack(byte[] payload) {
+        if (payload.length == 0) {
+            return false;
+        }
+        int first = payload[0] & 0xff;
+        return (first >= 0x80 && first <= 0x8f) || first == 0xde || first == 0xdf;
+    }
+
+    // 将已拼装好的JSON消息转为MessagePack（字段顺序与类型保持不变），供已协商二进制编码的设备使用
+    public byte[] toMsgPack(String json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length());
+        try (JsonParser parser = jsonFactory.createParser(json);
+             JsonGenerator generator = msgpackFactory.createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        } catch (IOException e) {
+            throw new RuntimeException("MessagePack编码失败", e);
+        }
+        return out.toByteArray();
+    }
+
+    // 按设备协商的编码生成消息负载
+    public byte[] encode(String json, String encoding) {
+        return DeviceMessage.ENCODING_MSGPACK.equals(encoding)
+                ? toMsgPack(json) : json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void readField(JsonParser parser, String field, JsonToken token, DeviceMessage target) throws IOException {
+        switch (field) {
+            case "type" -> target.type = text(parser, token);
+            case "deviceId" -> target.deviceId = text(parser, token);
+            case "message" -> target.message = text(parser, token);
+            case "currentTime" -> target.currentTime = text(parser, token);
+            case "configVersion" -> target.configVersion = text(parser, token);
+            case "macAddress" -> target.macAddress = text(parser, token);
+            case "ipAddress" -> target.ipAddress = text(parser, token);
+            case "firmwareVersion" -> target.firmwareVersion = text(parser, token);
+            case "wifiConnected" -> target.wifiConnected = bool(token, target, DeviceMessage.WIFI_CONNECTED);
+            case "mqttConnected" -> target.mqttConnected = bool(token, target, DeviceMessage.MQTT_CONNECTED);
+            case "timeSynced" -> target.timeSynced = bool(token, target, DeviceMessage.TIME_SYNCED);
+            case "emergencyMode" -> target.emergencyMode = bool(token, target, DeviceMessage.EMERGENCY_MODE);
+            case "arduinoReady" -> target.arduinoReady = bool(token, target, DeviceMessage.ARDUINO_READY);
+            case "offlineMode" -> target.offlineMode = bool(token, target, DeviceMessage.OFFLINE_MODE);
+            case "msgpack" -> target.msgpack = bool(token, target, DeviceMessage.MSGPACK);
+            case "remindLevel" -> target.remindLevel = (int) number(parser, token, target, DeviceMessage.REMIND_LEVEL);
+            case "activeMedicines" -> target.activeMedicines = (int) number(parser, token, target, DeviceMessage.ACTIVE_MEDICINES);
+            case "maxMedicines" -> target.maxMedicines = (int) number(parser, token, target, DeviceMessage.MAX_MEDICINES);
+            case "timestamp" -> target.timestamp = number(parser, token, target, DeviceMessage.TIMESTAMP);
+            default -> parser.skipChildren();
+        }
+    }
+
+    private String text(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private boolean bool(JsonToken token, DeviceMessage target, int field) {
+        if (token == JsonToken.VALUE_TRUE || token == JsonToken.VALUE_FALSE) {
+            target.present |= field;
+            return token == JsonToken.VALUE_TRUE;
+        }
+        return false;
+    }
+
+    private long number(JsonParser parser, JsonToken token, DeviceMessage target, int field) throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            target.present |= field;
+            return parser.getLongValue();
+        }
+        parser.skipChildren();
+        return 0;
+    }
+
+    // 获取解析统计信息（次数、失败数、平均/最大耗时）
+    public Map<String, Object> getStats() {
+        long decoded = decodedCount.get();
+        long failed = failedCount.get();
+        long total = decoded + failed;
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("decoded", decoded);
+        stats.put("failed", failed);
+        stats.put("avgNanos", total > 0 ? totalNanos.get() / total : 0);
+        stats.put("maxNanos", maxNanos.get());
+        stats.put(DeviceMessage.ENCODING_JSON, formatStats(0));
+        stats.put(DeviceMessage.ENCODING_MSGPACK, formatStats(1));
+        return stats;
+    }
+
+    private Map<String, Object> formatStats(int format) {
+        long count = formatCount[format].get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("messages", count);
+        stats.put("avgBytes", count > 0 ? formatBytes[format].get() / count : 0);
+        stats.put("avgNanos", count > 0 ? formatNanos[format].get() / count : 0);
+        return stats;
+    }
+}
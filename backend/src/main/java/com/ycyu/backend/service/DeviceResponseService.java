@@ -0,0 +1,293 @@
+package com.ycyu.backend.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.ycyu.backend.dto.DeviceResponseDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 设备响应处理：按设备维护在途请求表，将 medicinebox/{id}/response 上的响应与命令/配置同步关联，
+// 统计往返延迟，并让调用方通过 CompletableFuture 等待结果
+@Service
+public class DeviceResponseService {
+
+    public static final String COMMAND = "COMMAND";
+    public static final String SYNC = "SYNC";
+
+    @Autowired
+    private ConfigSyncService configSyncService;
+
+    // 等待设备响应的超时时间（毫秒）
+    @Value("${mqtt.response.timeout-ms:10000}")
+    private long responseTimeoutMs;
+
+    // 每个设备最多保留的在途请求数，超出时最旧的请求按失败处理
+    @Value("${mqtt.response.max-inflight-per-device:32}")
+    private int maxInflightPerDevice;
+
+    // 在途请求
+    public static final class PendingRequest {
+        private final String requestId;
+        private final String deviceId;
+        private final String type;
+        private final String name;
+        private final long sentAt = System.currentTimeMillis();
+        private final CompletableFuture<DeviceResponseDTO> future = new CompletableFuture<>();
+        private volatile ScheduledFuture<?> timeoutTask;
+
+        PendingRequest(String requestId, String deviceId, String type, String name) {
+            this.requestId = requestId;
+            this.deviceId = deviceId;
+            this.type = type;
+            this.name = name;
+        }
+
+        public String getRequestId() {
+            return requestId;
+        }
+
+        public CompletableFuture<DeviceResponseDTO> getFuture() {
+            return future;
+        }
+    }
+
+    // 每个设备的在途请求，按发送顺序排列（设备按顺序处理消息，无requestId时按先进先出匹配）
+    private final Map<String, Deque<PendingRequest>> inflight = new ConcurrentHashMap<>();
+    // 最近一次 GET_CONFIG 读回的设备配置
+    private final Map<String, JsonNode> lastConfigs = new ConcurrentHashMap<>();
+    // 往返延迟：按请求类型以及 COMMAND:命令名 分别统计
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final AtomicLong requestCounter = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+
+    // 统计信息
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong unmatchedCount = new AtomicLong();
+    private final AtomicLong unsolicitedCount = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "device-response-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    // 登记一个即将发送的请求，返回带requestId的在途记录
+    public PendingRequest track(String deviceId, String type, String name) {
+        PendingRequest request = new PendingRequest(Long.toString(requestCounter.incrementAndGet(), 36),
+                deviceId, type, name);
+        Deque<PendingRequest> queue = inflight.computeIfAbsent(deviceId, id -> new ArrayDeque<>());
+        PendingRequest evicted = null;
+        synchronized (queue) {
+            if (queue.size() >= maxInflightPerDevice) {
+                evicted = queue.pollFirst();
+            }
+            queue.addLast(request);
+        }
+        if (evicted != null) {
+            evictedCount.incrementAndGet();
+            finishExceptionally(evicted, new IllegalStateException("设备 " + deviceId + " 在途请求过多"));
+        }
+        request.timeoutTask = scheduler.schedule(() -> expire(request), responseTimeoutMs, TimeUnit.MILLISECONDS);
+        return request;
+    }
+
+    // 请求发送失败时撤销在途记录
+    public void cancel(PendingRequest request, Throwable cause) {
+        if (remove(request)) {
+            finishExceptionally(request, cause);
+        }
+    }
+
+    // 处理设备在 response 主题上发布的 RESPONSE / CONFIG 消息
+    public void handleResponse(String deviceId, JsonNode node) {
+        String messageType = node.path("type").asText("");
+        boolean config = "CONFIG".equals(messageType);
+        String responseType = config ? "CONFIG" : node.path("responseType").asText("");
+
+        if (config && node.has("medicines")) {
+            lastConfigs.put(deviceId, node.get("medicines"));
+        }
+
+        String requestType = requestTypeOf(responseType);
+        if (requestType == null) {
+            // CONNECTED、ARDUINO_READY 等设备主动上报，不对应任何请求
+            unsolicitedCount.incrementAndGet();
+            return;
+        }
+
+        PendingRequest request = take(deviceId, node.path("requestId").asText(""), requestType, responseType);
+        if (request == null) {
+            unmatchedCount.incrementAndGet();
+            System.out.println("⚠️ 设备 " + deviceId + " 的响应 " + responseType + " 没有对应的在途请求");
+        } else {
+            complete(request, responseType, node.path("message").asText(null), config ? node.get("medicines") : null);
+        }
+
+        if (SYNC.equals(requestType)) {
+            configSyncService.onSyncResponse(deviceId, responseType);
+        }
+    }
+
+    private String requestTypeOf(String responseType) {
+        switch (responseType) {
+            case "SYNC_SUCCESS":
+            case "SYNC_ERROR":
+            case "SYNC_VERSION_MISMATCH":
+                return SYNC;
+            case "COMMAND_SUCCESS":
+            case "COMMAND_ERROR":
+            case "ERROR":
+            case "REBOOTING":
+            case "CONFIG":
+                return COMMAND;
+            default:
+                return null;
+        }
+    }
+
+    // 优先按requestId精确匹配；设备未回传requestId时取同类型中最早的请求
+    private PendingRequest take(String deviceId, String requestId, String requestType, String responseType) {
+        Deque<PendingRequest> queue = inflight.get(deviceId);
+        if (queue == null) {
+            return null;
+        }
+        synchronized (queue) {
+            Iterator<PendingRequest> iterator = queue.iterator();
+            while (iterator.hasNext()) {
+                PendingRequest request = iterator.next();
+                boolean matches = requestId.isEmpty()
+                        ? request.type.equals(requestType) && acceptsFifo(request, responseType)
+                        : request.requestId.equals(requestId);
+                if (matches) {
+                    iterator.remove();
+                    return request;
+                }
+            }
+        }
+        return null;
+    }
+
+    // GET_CONFIG 的结果是 CONFIG 消息，其他命令不会收到 CONFIG
+    private boolean acceptsFifo(PendingRequest request, String responseType) {
+        return "GET_CONFIG".equals(request.name) == "CONFIG".equals(responseType);
+    }
+
+    private void complete(PendingRequest request, String responseType, String message, JsonNode config) {
+        cancelTimeout(request);
+        long latency = System.currentTimeMillis() - request.sentAt;
+        histogram(request.type).record(latency);
+        if (COMMAND.equals(request.type)) {
+            histogram(COMMAND + ":" + request.name).record(latency);
+        }
+        completedCount.incrementAndGet();
+
+        DeviceResponseDTO response = new DeviceResponseDTO();
+        response.setDeviceId(request.deviceId);
+        response.setRequestId(request.requestId);
+        response.setRequestType(request.type);
+        response.setRequestName(request.name);
+        response.setResponseType(responseType);
+        response.setMessage(message);
+        response.setSuccess(responseType.endsWith("SUCCESS") || "CONFIG".equals(responseType)
+                || "REBOOTING".equals(responseType));
+        response.setLatencyMs(latency);
+        response.setConfig(config);
+        request.future.complete(response);
+    }
+
+    private void expire(PendingRequest request) {
+        if (remove(request)) {
+            timeoutCount.incrementAndGet();
+            request.future.completeExceptionally(new TimeoutException(
+                    "设备 " + request.deviceId + " 未在 " + responseTimeoutMs + "ms 内响应 " + request.name));
+        }
+    }
+
+    private boolean remove(PendingRequest request) {
+        Deque<PendingRequest> queue = inflight.get(request.deviceId);
+        if (queue == null) {
+            return false;
+        }
+        synchronized (queue) {
+            return queue.remove(request);
+        }
+    }
+
+    private void finishExceptionally(PendingRequest request, Throwable cause) {
+        cancelTimeout(request);
+        request.future.completeExceptionally(cause);
+    }
+
+    private void cancelTimeout(PendingRequest request) {
+        ScheduledFuture<?> task = request.timeoutTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    private LatencyHistogram histogram(String key) {
+        return histograms.computeIfAbsent(key, k -> new LatencyHistogram());
+    }
+
+    // 最近一次读回的设备配置，没有时返回null
+    public JsonNode getLastConfig(String deviceId) {
+        return lastConfigs.get(deviceId);
+    }
+
+    public int getInflightCount(String deviceId) {
+        Deque<PendingRequest> queue = inflight.get(deviceId);
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    // 获取响应处理统计信息（在途数、超时数、延迟直方图）
+    public Map<String, Object> getStats() {
+        int inflightTotal = 0;
+        for (String deviceId : inflight.keySet()) {
+            inflightTotal += getInflightCount(deviceId);
+        }
+        Map<String, Object> latency = new TreeMap<>();
+        histograms.forEach((key, histogram) -> latency.put(key, histogram.snapshot()));
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("inflight", inflightTotal);
+        stats.put("completed", completedCount.get());
+        stats.put("timeouts", timeoutCount.get());
+        stats.put("evicted", evictedCount.get());
+        stats.put("unmatched", unmatchedCount.get());
+        stats.put("unsolicited", unsolicitedCount.get());
+        stats.put("latency", latency);
+        return stats;
+    }
+}
@@ -0,0 +1,218 @@
+package com.ycyu.backend.service;
+
+import io.moquette.broker.RoutingResults;
+import io.moquette.broker.Server;
+import io.moquette.broker.config.IConfig;
+import io.moquette.broker.config.MemoryConfig;
+import io.moquette.interception.AbstractInterceptHandler;
+import io.moquette.interception.InterceptHandler;
+import io.moquette.interception.messages.InterceptPublishMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.mqtt.MqttMessageBuilders;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.integration.mqtt.support.MqttHeaders;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 内嵌 Moquette Broker：单节点/边缘部署时不再依赖外部mosquitto，设备照常通过TCP连接。
+// in-jvm 模式下后端不建立MQTT客户端连接：设备上报经拦截器直接送入入站管道，
+// 下发通过 internalPublish 直接投递，没有回环TCP，也不需要再做一次MQTT编解码。
+// 关闭 in-jvm 时后端仍按 mqtt.broker-url 走TCP连接，可作为集成测试和压测的本地Broker
+@Component
+@ConditionalOnProperty(name = "mqtt.embedded.enabled", havingValue = "true")
+public class EmbeddedMqttBroker implements SmartLifecycle {
+
+    private static final String INTERNAL_CLIENT_ID = "backend-server-embedded";
+
+    @Autowired
+    @Qualifier("mqttInboundChannel")
+    private MessageChannel mqttInboundChannel;
+
+    @Value("${mqtt.embedded.host:0.0.0.0}")
+    private String host;
+
+    @Value("${mqtt.embedded.port:1883}")
+    private int port;
+
+    @Value("${mqtt.embedded.in-jvm:true}")
+    private boolean inJvm;
+
+    // 持久化会话、订阅和QoS1待投递消息，重启后设备离线期间的下发不丢失
+    @Value("${mqtt.embedded.persistence.enabled:true}")
+    private boolean persistenceEnabled;
+
+    @Value("${mqtt.embedded.persistence.data-path:data/moquette}")
+    private String dataPath;
+
+    // 单条消息最大字节数（Moquette默认8092，全量配置同步可能超过）
+    @Value("${mqtt.embedded.max-message-bytes:65536}")
+    private int maxMessageBytes;
+
+    private final Server server = new Server();
+    private volatile boolean running;
+
+    // 统计信息
+    private final AtomicLong inboundCount = new AtomicLong();
+    private final AtomicLong inboundFailedCount = new AtomicLong();
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong publishFailedCount = new AtomicLong();
+    // 下发从调用到路由进各订阅会话队列的延迟
+    private final LatencyHistogram publishLatency = new LatencyHistogram();
+
+    // 设备上报的 status / events / response 经拦截器送入入站管道
+    private final InterceptHandler inboundInterceptor = new AbstractInterceptHandler() {
+        @Override
+        public String getID() {
+            return "backend-inbound";
+        }
+
+        // 只关心PUBLISH，连接/订阅等事件不必派发给拦截线程
+        @Override
+        public Class<?>[] getInterceptedMessageTypes() {
+            return new Class<?>[]{InterceptPublishMessage.class};
+        }
+
+        @Override
+        public void onPublish(InterceptPublishMessage msg) {
+            ByteBuf buffer = msg.getPayload();
+            try {
+                String topic = msg.getTopicName();
+                if (!isInboundTopic(topic)) {
+                    return;
+                }
+                byte[] payload = new byte[buffer.readableBytes()];
+                buffer.getBytes(buffer.readerIndex(), payload);
+                mqttInboundChannel.send(MessageBuilder.withPayload(payload)
+                        .setHeader(MqttHeaders.RECEIVED_TOPIC, topic)
+                        .setHeader(MqttHeaders.RECEIVED_QOS, 1)
+                        .build());
+                inboundCount.incrementAndGet();
+            } catch (Exception e) {
+                inboundFailedCount.incrementAndGet();
+                System.err.println("内嵌Broker转发设备消息失败: " + e.getMessage());
+            } finally {
+                // 拦截器收到的是负载的引用副本，需要自行释放
+                buffer.release();
+            }
+        }
+
+        @Override
+        public void onSessionLoopError(Throwable error) {
+            System.err.println("内嵌Broker会话处理出错: " + error.getMessage());
+        }
+    };
+
+    private static boolean isInboundTopic(String topic) {
+        return topic.startsWith("medicinebox/")
+                && (topic.endsWith("/status") || topic.endsWith("/events") || topic.endsWith("/response"));
+    }
+
+    @Override
+    public void start() {
+        Properties properties = new Properties();
+        properties.setProperty(IConfig.HOST_PROPERTY_NAME, host);
+        properties.setProperty(IConfig.PORT_PROPERTY_NAME, Integer.toString(port));
+        properties.setProperty(IConfig.ALLOW_ANONYMOUS_PROPERTY_NAME, "true");
+        properties.setProperty(IConfig.PERSISTENCE_ENABLED_PROPERTY_NAME, Boolean.toString(persistenceEnabled));
+        properties.setProperty(IConfig.DATA_PATH_PROPERTY_NAME, new File(dataPath).getAbsolutePath() + File.separator);
+        properties.setProperty(IConfig.NETTY_MAX_BYTES_PROPERTY_NAME, Integer.toString(maxMessageBytes));
+        properties.setProperty(IConfig.ENABLE_TELEMETRY_NAME, "false");
+        if (persistenceEnabled) {
+            new File(dataPath).mkdirs();
+        }
+
+        List<InterceptHandler> interceptors = inJvm
+                ? List.of(inboundInterceptor) : Collections.emptyList();
+        try {
+            server.startServer(new MemoryConfig(properties), interceptors);
+        } catch (IOException e) {
+            throw new RuntimeException("内嵌MQTT Broker启动失败", e);
+        }
+        running = true;
+        System.out.println("🛰️ 内嵌MQTT Broker已启动: " + host + ":" + port
+                + ", 接入方式=" + (inJvm ? "JVM内直连" : "TCP客户端")
+                + ", 持久化=" + (persistenceEnabled ? dataPath : "关闭"));
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        server.stopServer();
+        System.out.println("🛰️ 内嵌MQTT Broker已停止");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // 在入站管道等消费端订阅之后、MQTT客户端适配器连接之前启动
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE / 2 - 1;
+    }
+
+    // 直接投递到订阅了该topic的设备会话，负载由Broker负责释放
+    public void publish(String topic, int qos, boolean retained, byte[] payload) {
+        long start = System.currentTimeMillis();
+        MqttPublishMessage message = MqttMessageBuilders.publish()
+                .topicName(topic)
+                .qos(MqttQoS.valueOf(qos))
+                .retained(retained)
+                .payload(Unpooled.wrappedBuffer(payload))
+                .build();
+        RoutingResults results;
+        try {
+            results = server.internalPublish(message, INTERNAL_CLIENT_ID);
+        } catch (RuntimeException e) {
+            publishFailedCount.incrementAndGet();
+            throw e;
+        }
+        publishedCount.incrementAndGet();
+        results.completableFuture().whenComplete((ignored, error) -> {
+            if (error != null) {
+                publishFailedCount.incrementAndGet();
+                System.err.println("❌ 内嵌Broker下发失败: " + topic + ", " + error.getMessage());
+            } else {
+                publishLatency.record(System.currentTimeMillis() - start);
+            }
+        });
+    }
+
+    public boolean isInJvm() {
+        return inJvm;
+    }
+
+    // 获取内嵌Broker统计信息
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("running", running);
+        stats.put("port", port);
+        stats.put("inJvm", inJvm);
+        stats.put("persistence", persistenceEnabled);
+        stats.put("connectedClients", running ? server.listConnectedClients().size() : 0);
+        stats.put("inbound", inboundCount.get());
+        stats.put("inboundFailed", inboundFailedCount.get());
+        stats.put("published", publishedCount.get());
+        stats.put("publishFailed", publishFailedCount.get());
+        stats.put("publishLatency", publishLatency.snapshot());
+        return stats;
+    }
+}
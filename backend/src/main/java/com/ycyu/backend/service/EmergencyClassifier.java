@@ -0,0 +1,56 @@
+package com.ycyu.backend.service;
+
+import org.springframework.messaging.Message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Predicate;
+
+// 紧急事件快速识别：只看topic和负载的前若干字节，不做完整解析。
+// 设备事件消息的 type 字段位于 deviceId 之后，JSON与MessagePack中字符串都是原始UTF-8字节，
+// 所以在开头一段内查找 "EMERGENCY" 即可同时命中 EMERGENCY / EMERGENCY_CANCEL 以及旧版纯文本格式
+public class EmergencyClassifier implements Predicate<Message<?>> {
+
+    private static final byte[] MARKER = "EMERGENCY".getBytes(StandardCharsets.US_ASCII);
+    private static final String EVENTS_SUFFIX = "/events";
+
+    // 只扫描负载开头的字节数，足够覆盖 {"deviceId":"...","type":"EMERGENCY"
+    private final int scanLimit;
+
+    public EmergencyClassifier(int scanLimit) {
+        this.scanLimit = scanLimit;
+    }
+
+    @Override
+    public boolean test(Message<?> message) {
+        String topic = (String) message.getHeaders().get("mqtt_receivedTopic");
+        if (topic == null || !topic.endsWith(EVENTS_SUFFIX)) {
+            return false;
+        }
+        Object payload = message.getPayload();
+        if (payload instanceof byte[]) {
+            return contains((byte[]) payload);
+        }
+        if (payload instanceof String) {
+            String text = (String) payload;
+            return text.substring(0, Math.min(text.length(), scanLimit)).contains("EMERGENCY");
+        }
+        return false;
+    }
+
+    private boolean contains(byte[] payload) {
+        int end = Math.min(payload.length, scanLimit) - MARKER.length;
+        for (int i = 0; i <= end; i++) {
+            if (payload[i] != MARKER[0]) {
+                continue;
+            }
+            int j = 1;
+            while (j < MARKER.length && payload[i + j] == MARKER[j]) {
+                j++;
+            }
+            if (j == MARKER.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,181 @@
+package com.ycyu.backend.service;
+
+import com.ycyu.backend.dto.NotificationDTO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// 紧急报警延迟压测：在大量心跳消息积压的情况下穿插紧急事件，分别在关闭/开启优先通道时
+// 测量紧急事件从进入入站管道到 NotificationService 完成WebSocket推送的p99延迟。
+// 消息经过真实的 mqttMessageHandler() 处理，虚拟设备会出现在设备列表、通知和离线事件中，
+// 因此只在压测环境启用（benchmark.enabled=true）
+@Component
+@ConditionalOnProperty(name = "benchmark.enabled", havingValue = "true")
+public class EmergencyLatencyBenchmark {
+
+    private static final String SENT_AT_HEADER = "benchmark_sentAt";
+    private static final String DEVICE_PREFIX = "bench-";
+
+    // 参数上限：限制队列容量和虚拟设备数，最坏情况下也能在10分钟内跑完
+    public static final int MAX_HEARTBEATS = 50_000;
+    public static final int MAX_EMERGENCIES = 1_000;
+    public static final int MAX_DEVICES = 1_000;
+    public static final long MAX_BLOCKING_MS = 20;
+
+    @Autowired
+    @Qualifier("mqttMessageHandler")
+    private MessageHandler mqttMessageHandler;
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Value("${mqtt.inbound.workers:4}")
+    private int workers;
+
+    @Value("${mqtt.inbound.priority.scan-bytes:128}")
+    private int scanBytes;
+
+    // 同一时间只允许一次压测
+    private final Semaphore running = new Semaphore(1);
+
+    public Map<String, Object> run(int heartbeats, int emergencies, int devices, long blockingMs) {
+        if (heartbeats < 1 || heartbeats > MAX_HEARTBEATS || emergencies < 1 || emergencies > MAX_EMERGENCIES
+                || devices < 1 || devices > MAX_DEVICES || blockingMs < 0 || blockingMs > MAX_BLOCKING_MS) {
+            throw new IllegalArgumentException("参数超出范围: heartbeats 1~" + MAX_HEARTBEATS + ", emergencies 1~"
+                    + MAX_EMERGENCIES + ", devices 1~" + MAX_DEVICES + ", blockingMs 0~" + MAX_BLOCKING_MS);
+        }
+        if (!running.tryAcquire()) {
+            throw new IllegalStateException("已有压测正在运行");
+        }
+        try {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("heartbeats", heartbeats);
+            result.put("emergencies", emergencies);
+            result.put("devices", devices);
+            result.put("blockingMs", blockingMs);
+            result.put("workers", workers);
+            result.put("withoutPriority", runOnce(false, heartbeats, emergencies, devices, blockingMs));
+            result.put("withPriority", runOnce(true, heartbeats, emergencies, devices, blockingMs));
+            return result;
+        } finally {
+            running.release();
+        }
+    }
+
+    private Map<String, Object> runOnce(boolean priority, int heartbeats, int emergencies, int devices,
+                                        long blockingMs) {
+        LatencyHistogram emergencyLatency = new LatencyHistogram();
+        LatencyHistogram heartbeatLatency = new LatencyHistogram();
+        int total = heartbeats + emergencies;
+        CountDownLatch done = new CountDownLatch(total);
+        CountDownLatch pushed = new CountDownLatch(emergencies);
+
+        // 每个设备尚未推送的紧急事件发出时间，按发出顺序排队
+        Map<String, Queue<Long>> pending = new ConcurrentHashMap<>();
+        Consumer<NotificationDTO> listener = notification -> {
+            String deviceId = notification.getDeviceId();
+            if (deviceId == null || !deviceId.startsWith(DEVICE_PREFIX) || !isEmergency(notification)) {
+                return;
+            }
+            Queue<Long> sent = pending.get(deviceId);
+            Long sentAt = sent != null ? sent.poll() : null;
+            if (sentAt != null) {
+                emergencyLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentAt));
+                pushed.countDown();
+            }
+        };
+
+        // 真实处理器之外，心跳额外阻塞 blockingMs 模拟慢速的状态处理，制造积压
+        MessageHandler handler = message -> {
+            long sentAt = (Long) message.getHeaders().get(SENT_AT_HEADER);
+            String topic = (String) message.getHeaders().get("mqtt_receivedTopic");
+            try {
+                mqttMessageHandler.handleMessage(message);
+                if (topic.endsWith("/status")) {
+                    sleep(blockingMs);
+                    heartbeatLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentAt));
+                }
+            } finally {
+                done.countDown();
+            }
+        };
+
+        MqttInboundPipeline pipeline = new MqttInboundPipeline(handler, workers, total,
+                MqttInboundPipeline.OverflowPolicy.BLOCK, 1000, false,
+                priority ? new EmergencyClassifier(scanBytes) : null);
+        notificationService.addNotificationListener(listener);
+        // 紧急事件均匀穿插在心跳流中
+        int interval = Math.max(1, total / emergencies);
+        int sentEmergencies = 0;
+        long start = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < total; i++) {
+                String deviceId = DEVICE_PREFIX + (i % devices);
+                boolean emergency = sentEmergencies < emergencies
+                        && (i % interval == interval - 1 || total - i <= emergencies - sentEmergencies);
+                String topic = "medicinebox/" + deviceId + (emergency ? "/events" : "/status");
+                String payload = emergency
+                        ? "{\"deviceId\":\"" + deviceId + "\",\"type\":\"EMERGENCY\",\"message\":\"长按报警\"}"
+                        : "{\"deviceId\":\"" + deviceId + "\",\"type\":\"STATUS\",\"wifiConnected\":true}";
+                long sentAt = System.nanoTime();
+                if (emergency) {
+                    sentEmergencies++;
+                    pending.computeIfAbsent(deviceId, k -> new ConcurrentLinkedQueue<>()).add(sentAt);
+                }
+                Message<byte[]> message = MessageBuilder.withPayload(payload.getBytes(StandardCharsets.UTF_8))
+                        .setHeader("mqtt_receivedTopic", topic)
+                        .setHeader(SENT_AT_HEADER, sentAt)
+                        .build();
+                pipeline.handleMessage(message);
+            }
+            if (!done.await(10, TimeUnit.MINUTES) || !pushed.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("压测未在规定时间内完成");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("压测被中断", e);
+        } finally {
+            notificationService.removeNotificationListener(listener);
+            pipeline.destroy();
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("elapsedMs", System.currentTimeMillis() - start);
+        stats.put("emergencyToDashboard", emergencyLatency.snapshot());
+        stats.put("heartbeat", heartbeatLatency.snapshot());
+        return stats;
+    }
+
+    // 紧急报警通知（DEVICE_WARNING，warningType 为 EMERGENCY）
+    private static boolean isEmergency(NotificationDTO notification) {
+        String data = notification.getEventData();
+        return "DEVICE_WARNING".equals(notification.getEventType()) && data != null && data.contains("\"EMERGENCY\"");
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.ycyu.backend.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// 入站处理线程模式对比：用相同的合成负载分别驱动平台线程管道和虚拟线程管道，
+// 每条消息模拟一次受连接池限制的阻塞数据库调用，比较吞吐量与p99延迟。
+// 只在压测环境启用（benchmark.enabled=true）
+@Component
+@ConditionalOnProperty(name = "benchmark.enabled", havingValue = "true")
+public class ExecutionModeBenchmark {
+
+    private static final String SENT_AT_HEADER = "benchmark_sentAt";
+
+    // 参数上限：最坏情况下（平台线程、全部阻塞）也能在10分钟内跑完
+    public static final int MAX_MESSAGES = 50_000;
+    public static final int MAX_DEVICES = 10_000;
+    public static final long MAX_BLOCKING_MS = 100;
+
+    @Value("${mqtt.inbound.workers:4}")
+    private int platformWorkers;
+
+    @Value("${mqtt.inbound.virtual-workers:256}")
+    private int virtualWorkers;
+
+    // 模拟的连接池大小，与数据库并发限制保持一致
+    @Value("${db.concurrency.max-permits:${spring.datasource.hikari.maximum-pool-size:10}}")
+    private int dbPermits;
+
+    // 同一时间只允许一次压测，避免两次压测互相干扰
+    private final Semaphore running = new Semaphore(1);
+
+    public Map<String, Object> run(int messages, int devices, long blockingMs) {
+        if (messages < 1 || messages > MAX_MESSAGES || devices < 1 || devices > MAX_DEVICES
+                || blockingMs < 0 || blockingMs > MAX_BLOCKING_MS) {
+            throw new IllegalArgumentException("参数超出范围: messages 1~" + MAX_MESSAGES + ", devices 1~" + MAX_DEVICES
+                    + ", blockingMs 0~" + MAX_BLOCKING_MS);
+        }
+        if (!running.tryAcquire()) {
+            throw new IllegalStateException("已有压测正在运行");
+        }
+        try {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("messages", messages);
+            result.put("devices", devices);
+            result.put("blockingMs", blockingMs);
+            result.put("dbPermits", dbPermits);
+            result.put("platform", runMode(false, platformWorkers, messages, devices, blockingMs));
+            result.put("virtual", runMode(true, virtualWorkers, messages, devices, blockingMs));
+            return result;
+        } finally {
+            running.release();
+        }
+    }
+
+    private Map<String, Object> runMode(boolean virtualThreads, int workers, int messages, int devices,
+                                        long blockingMs) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Semaphore connections = new Semaphore(dbPermits, true);
+        CountDownLatch done = new CountDownLatch(messages);
+
+        MessageHandler handler = message -> {
+            try {
+                connections.acquire();
+                try {
+                    if (blockingMs > 0) {
+                        Thread.sleep(blockingMs);
+                    }
+                } finally {
+                    connections.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                long sentAt = (Long) message.getHeaders().get(SENT_AT_HEADER);
+                histogram.record(System.currentTimeMillis() - sentAt);
+                done.countDown();
+            }
+        };
+
+        // 队列容量足够容纳全部消息，压测测的是处理能力而不是溢出策略
+        MqttInboundPipeline pipeline = new MqttInboundPipeline(handler, workers, messages,
+                MqttInboundPipeline.OverflowPolicy.BLOCK, 1000, virtualThreads);
+        long start = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < messages; i++) {
+                Message<String> message = MessageBuilder.withPayload("{}")
+                        .setHeader("mqtt_receivedTopic", "medicinebox/bench-" + (i % devices) + "/status")
+                        .setHeader(SENT_AT_HEADER, System.currentTimeMillis())
+                        .build();
+                pipeline.handleMessage(message);
+            }
+            if (!done.await(10, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("压测未在10分钟内完成");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("压测被中断", e);
+        } finally {
+            pipeline.destroy();
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("workers", workers);
+        stats.put("elapsedMs", elapsed);
+        stats.put("throughputPerSec", messages * 1000L / elapsed);
+        stats.put("latency", histogram.snapshot());
+        return stats;
+    }
+}
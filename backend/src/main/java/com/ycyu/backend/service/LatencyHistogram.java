@@ -0,0 +1,75 @@
+package com.ycyu.backend.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// 固定分桶的延迟直方图（毫秒），记录无锁，分位数按桶上界估算
+public class LatencyHistogram {
+
+    private static final long[] BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000};
+
+    // 最后一个桶记录超过最大上界的样本
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMs = new AtomicLong();
+    private final AtomicLong maxMs = new AtomicLong();
+
+    public void record(long latencyMs) {
+        long value = Math.max(0, latencyMs);
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        totalMs.addAndGet(value);
+        maxMs.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    // 估算分位数（0-100），返回所在桶的上界；超出最大上界时返回实际最大值
+    public long percentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(BOUNDS[i], maxMs.get());
+            }
+        }
+        return maxMs.get();
+    }
+
+    public Map<String, Object> snapshot() {
+        long total = count.get();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("count", total);
+        snapshot.put("avgMs", total > 0 ? totalMs.get() / total : 0);
+        snapshot.put("maxMs", maxMs.get());
+        snapshot.put("p50Ms", percentile(50));
+        snapshot.put("p90Ms", percentile(90));
+        snapshot.put("p99Ms", percentile(99));
+
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < BOUNDS.length; i++) {
+            histogram.put("<=" + BOUNDS[i], buckets.get(i));
+        }
+        histogram.put(">" + BOUNDS[BOUNDS.length - 1], buckets.get(BOUNDS.length));
+        snapshot.put("buckets", histogram);
+        return snapshot;
+    }
+
+    private static int bucketOf(long value) {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            if (value <= BOUNDS[i]) {
+                return i;
+            }
+        }
+        return BOUNDS.length;
+    }
+}
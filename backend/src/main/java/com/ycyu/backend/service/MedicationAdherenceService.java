@@ -0,0 +1,436 @@
+package com.ycyu.backend.service;
+
+import com.ycyu.backend.dto.AdherenceDayDTO;
+import com.ycyu.backend.entity.MedicationAdherenceDaily;
+import com.ycyu.backend.repository.MedicationAdherenceRepository;
+import com.ycyu.backend.repository.OfflineEventRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// 服药依从性计数：提醒/服药事件发生时在内存中按 (药盒, 日期) 累加增量，定期以 upsert 累加到
+// medication_adherence_daily，查询按天读取计数表再叠加未写入的增量，耗时与天数成正比、与事件数无关。
+// 计数表可随时从原始离线事件按天重建；表为空时启动后自动重建
+@Service
+public class MedicationAdherenceService {
+
+    // 全部药盒合计行的 deviceId
+    public static final String ALL_DEVICES = "*";
+
+    private static final String REMINDER = "MEDICATION_REMINDER";
+    private static final String TAKEN = "MEDICINE_TAKEN";
+
+    @Autowired
+    private MedicationAdherenceRepository adherenceRepository;
+
+    @Autowired
+    private OfflineEventRepository offlineEventRepository;
+
+    @Autowired
+    private OfflineEventWriteBuffer offlineEventWriteBuffer;
+
+    @Value("${medication.adherence.enabled:true}")
+    private boolean enabled;
+
+    @Value("${medication.adherence.checkpoint-interval-ms:60000}")
+    private long checkpointIntervalMs;
+
+    @Value("${medication.adherence.rebuild-on-empty:true}")
+    private boolean rebuildOnEmpty;
+
+    // 单次查询/重建的最大天数
+    @Value("${medication.adherence.max-days:366}")
+    private int maxDays;
+
+    // 每个药盒尚未写入计数表的增量，合计行同样作为一个条目维护
+    private final ConcurrentHashMap<String, PendingCounts> pending = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+    // 检查点和重建互斥，持锁期间会访问数据库，使用ReentrantLock避免钉住虚拟线程
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    // 事件落库和计数累加持读锁一起完成；重建当天计数时持写锁，
+    // 保证每个事件要么已在原始事件中被重建计入，要么只在重建之后累加到内存增量
+    private final ReentrantReadWriteLock recordLock = new ReentrantReadWriteLock();
+
+    // 统计信息
+    private final AtomicLong recordedReminders = new AtomicLong();
+    private final AtomicLong recordedTaken = new AtomicLong();
+    private final AtomicLong checkpoints = new AtomicLong();
+    private final AtomicLong checkpointedRows = new AtomicLong();
+    private volatile long lastCheckpointMillis;
+    private volatile long lastCheckpointAt;
+    private volatile String lastError;
+
+    // 一个药盒的未写入增量。正常只有当天一个日期，跨零点时短暂有两个，用并行数组保存
+    private static final class PendingCounts {
+        private long[] days = new long[2];
+        private long[] reminders = new long[2];
+        private long[] taken = new long[2];
+        private int size;
+
+        synchronized void add(long day, long reminderDelta, long takenDelta) {
+            int i = indexOf(day);
+            if (i < 0) {
+                if (size == days.length) {
+                    days = Arrays.copyOf(days, size * 2);
+                    reminders = Arrays.copyOf(reminders, size * 2);
+                    taken = Arrays.copyOf(taken, size * 2);
+                }
+                i = size++;
+                days[i] = day;
+                reminders[i] = 0;
+                taken[i] = 0;
+            }
+            reminders[i] += reminderDelta;
+            taken[i] += takenDelta;
+            // 检查点扣除已写入的增量后清零的日期直接移除
+            if (reminders[i] == 0 && taken[i] == 0) {
+                size--;
+                days[i] = days[size];
+                reminders[i] = reminders[size];
+                taken[i] = taken[size];
+            }
+        }
+
+        private int indexOf(long day) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (days[i] == day) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // 复制当前增量，写入成功后再由调用方扣除，写入期间查询仍能看到这些增量
+        synchronized void snapshot(String deviceId, List<MedicationAdherenceDaily> out) {
+            for (int i = 0; i < size; i++) {
+                MedicationAdherenceDaily delta = new MedicationAdherenceDaily();
+                delta.setDeviceId(deviceId);
+                delta.setStatDate(LocalDate.ofEpochDay(days[i]));
+                delta.setReminders(reminders[i]);
+                delta.setTaken(taken[i]);
+                out.add(delta);
+            }
+        }
+
+        // 把 [startDay, startDay + 数组长度) 范围内的增量累加到结果数组
+        synchronized void addTo(long startDay, long[] reminderTotals, long[] takenTotals) {
+            for (int i = 0; i < size; i++) {
+                long offset = days[i] - startDay;
+                if (offset >= 0 && offset < reminderTotals.length) {
+                    reminderTotals[(int) offset] += reminders[i];
+                    takenTotals[(int) offset] += taken[i];
+                }
+            }
+        }
+
+        // 丢弃 [fromDay, toDay] 范围内的增量（这些日期将从原始事件重建）
+        synchronized void discard(long fromDay, long toDay) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (days[i] >= fromDay && days[i] <= toDay) {
+                    size--;
+                    days[i] = days[size];
+                    reminders[i] = reminders[size];
+                    taken[i] = taken[size];
+                }
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            System.out.println("💊 服药依从性计数未启用");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "medication-adherence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (rebuildOnEmpty) {
+            scheduler.execute(this::rebuildIfEmpty);
+        }
+        scheduler.scheduleWithFixedDelay(this::checkpointSafely, checkpointIntervalMs, checkpointIntervalMs,
+                TimeUnit.MILLISECONDS);
+        System.out.println("💊 服药依从性计数已启动: 检查点间隔=" + checkpointIntervalMs + "ms");
+    }
+
+    // 提交一次服药提醒事件（submit）并累加计数
+    public void recordReminder(String deviceId, Runnable submit) {
+        record(deviceId, 1, 0, submit);
+        if (enabled) {
+            recordedReminders.incrementAndGet();
+        }
+    }
+
+    // 提交一次服药确认事件（submit）并累加计数
+    public void recordTaken(String deviceId, Runnable submit) {
+        record(deviceId, 0, 1, submit);
+        if (enabled) {
+            recordedTaken.incrementAndGet();
+        }
+    }
+
+    private void record(String deviceId, long reminderDelta, long takenDelta, Runnable submit) {
+        if (!enabled) {
+            submit.run();
+            return;
+        }
+        recordLock.readLock().lock();
+        try {
+            submit.run();
+            long today = LocalDate.now().toEpochDay();
+            add(deviceId, today, reminderDelta, takenDelta);
+            add(ALL_DEVICES, today, reminderDelta, takenDelta);
+        } finally {
+            recordLock.readLock().unlock();
+        }
+    }
+
+    // 在映射的原子操作内累加，和检查点移除空条目互不丢失
+    private void add(String deviceId, long day, long reminderDelta, long takenDelta) {
+        pending.compute(deviceId, (id, counts) -> {
+            if (counts == null) {
+                counts = new PendingCounts();
+            }
+            counts.add(day, reminderDelta, takenDelta);
+            return counts;
+        });
+    }
+
+    private void checkpointSafely() {
+        try {
+            checkpoint();
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            System.err.println("❌ 服药依从性检查点失败: " + e.getMessage());
+        }
+    }
+
+    // 把未写入的增量累加到计数表，返回写入行数。失败时增量保留在内存中，下次重试
+    public int checkpoint() {
+        checkpointLock.lock();
+        try {
+            long start = System.currentTimeMillis();
+            List<MedicationAdherenceDaily> deltas = new ArrayList<>();
+            pending.forEach((deviceId, counts) -> counts.snapshot(deviceId, deltas));
+            if (!deltas.isEmpty()) {
+                adherenceRepository.addCounts(deltas);
+                for (MedicationAdherenceDaily delta : deltas) {
+                    add(delta.getDeviceId(), delta.getStatDate().toEpochDay(), -delta.getReminders(), -delta.getTaken());
+                }
+                // 移除已没有增量的药盒，避免长期离线的设备一直占用内存
+                for (String deviceId : pending.keySet()) {
+                    pending.computeIfPresent(deviceId, (id, counts) -> counts.size() == 0 ? null : counts);
+                }
+                checkpointedRows.addAndGet(deltas.size());
+            }
+            checkpoints.incrementAndGet();
+            lastCheckpointMillis = System.currentTimeMillis() - start;
+            lastCheckpointAt = System.currentTimeMillis();
+            lastError = null;
+            return deltas.size();
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    private void rebuildIfEmpty() {
+        try {
+            if (adherenceRepository.count() > 0) {
+                return;
+            }
+            LocalDateTime earliest = offlineEventRepository.findEarliestEventTime(List.of(REMINDER, TAKEN));
+            if (earliest != null) {
+                System.out.println("💊 服药依从性计数表为空，从原始事件重建");
+                rebuild(earliest.toLocalDate(), LocalDate.now());
+            }
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            System.err.println("❌ 服药依从性计数重建失败: " + e.getMessage());
+        }
+    }
+
+    // 从原始离线事件按天重建 [startDate, endDate] 的计数。原始事件已被保留期清理的日期保留现有计数
+    public Map<String, Object> rebuild(LocalDate startDate, LocalDate endDate) {
+        if (startDate.isAfter(endDate)) {
+            throw new IllegalArgumentException("startDate 不能晚于 endDate");
+        }
+        LocalDate today = LocalDate.now();
+        LocalDate end = endDate.isAfter(today) ? today : endDate;
+        checkpointLock.lock();
+        try {
+            long start = System.currentTimeMillis();
+            LocalDateTime earliest = offlineEventRepository.findEarliestEventTime(List.of(REMINDER, TAKEN));
+            LocalDate from = earliest == null || startDate.isAfter(earliest.toLocalDate())
+                    ? startDate : earliest.toLocalDate();
+            int days = 0;
+            int rows = 0;
+            if (earliest != null && !from.isAfter(end)) {
+                // 今天之前的日期不会再有新计数：先把写缓冲中的事件落库，丢弃对应的内存增量后逐天重建
+                LocalDate lastPastDay = end.isBefore(today) ? end : today.minusDays(1);
+                if (!from.isAfter(lastPastDay)) {
+                    offlineEventWriteBuffer.flush();
+                    discardPending(from, lastPastDay);
+                    for (LocalDate day = from; !day.isAfter(lastPastDay); day = day.plusDays(1)) {
+                        rows += adherenceRepository.rebuildDay(day, ALL_DEVICES);
+                        days++;
+                    }
+                }
+                // 今天仍在累加，重建期间暂停落库和计数，避免同一事件既被重建计入又留在内存增量中
+                if (end.equals(today)) {
+                    recordLock.writeLock().lock();
+                    try {
+                        offlineEventWriteBuffer.flush();
+                        discardPending(today, today);
+                        rows += adherenceRepository.rebuildDay(today, ALL_DEVICES);
+                        days++;
+                    } finally {
+                        recordLock.writeLock().unlock();
+                    }
+                }
+            }
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("startDate", days > 0 ? from : null);
+            result.put("endDate", days > 0 ? end : null);
+            result.put("days", days);
+            result.put("rows", rows);
+            result.put("elapsedMs", System.currentTimeMillis() - start);
+            System.out.println("💊 服药依从性计数重建完成: " + days + "天, " + rows + "行, 耗时"
+                    + result.get("elapsedMs") + "ms");
+            return result;
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    private void discardPending(LocalDate from, LocalDate to) {
+        for (PendingCounts counts : pending.values()) {
+            counts.discard(from.toEpochDay(), to.toEpochDay());
+        }
+    }
+
+    // 药盒（或 ALL_DEVICES 合计）在日期范围内的每日依从性，没有事件的日期计为0；
+    // rollingDays 大于0时计算截至每天的滑动窗口服药率
+    public List<AdherenceDayDTO> getDailyAdherence(String deviceId, LocalDate startDate, LocalDate endDate, int rollingDays) {
+        if (startDate.isAfter(endDate) || startDate.plusDays(maxDays).isBefore(endDate)) {
+            throw new IllegalArgumentException("日期范围无效（startDate 不晚于 endDate，且不超过" + maxDays + "天）");
+        }
+        if (rollingDays < 0 || rollingDays > maxDays) {
+            throw new IllegalArgumentException("滑动窗口天数应在 0 到 " + maxDays + " 之间");
+        }
+        // 滑动窗口需要起始日期之前的数据
+        LocalDate from = rollingDays > 1 ? startDate.minusDays(rollingDays - 1) : startDate;
+        int length = (int) (endDate.toEpochDay() - from.toEpochDay()) + 1;
+        long[] reminders = new long[length];
+        long[] taken = new long[length];
+        for (MedicationAdherenceDaily row : adherenceRepository
+                .findByDeviceIdAndStatDateBetweenOrderByStatDateAsc(deviceId, from, endDate)) {
+            int offset = (int) (row.getStatDate().toEpochDay() - from.toEpochDay());
+            reminders[offset] += row.getReminders();
+            taken[offset] += row.getTaken();
+        }
+        PendingCounts counts = pending.get(deviceId);
+        if (counts != null) {
+            counts.addTo(from.toEpochDay(), reminders, taken);
+        }
+
+        List<AdherenceDayDTO> days = new ArrayList<>();
+        long windowReminders = 0;
+        long windowTaken = 0;
+        int first = (int) (startDate.toEpochDay() - from.toEpochDay());
+        for (int i = 0; i < length; i++) {
+            windowReminders += reminders[i];
+            windowTaken += taken[i];
+            if (rollingDays > 0 && i >= rollingDays) {
+                windowReminders -= reminders[i - rollingDays];
+                windowTaken -= taken[i - rollingDays];
+            }
+            if (i >= first) {
+                AdherenceDayDTO day = new AdherenceDayDTO(from.plusDays(i), reminders[i], taken[i]);
+                if (rollingDays > 0) {
+                    day.setRollingRate(AdherenceDayDTO.rate(windowReminders, windowTaken));
+                }
+                days.add(day);
+            }
+        }
+        return days;
+    }
+
+    // 汇总每日依从性为区间合计
+    public Map<String, Object> summarize(List<AdherenceDayDTO> days) {
+        long reminders = 0;
+        long taken = 0;
+        for (AdherenceDayDTO day : days) {
+            reminders += day.getReminders();
+            taken += day.getTaken();
+        }
+        Map<String, Object> summary = new HashMap<>();
+        summary.put("reminders", reminders);
+        summary.put("taken", taken);
+        summary.put("rate", AdherenceDayDTO.rate(reminders, taken));
+        return summary;
+    }
+
+    // 未写入计数表的 (药盒, 日期) 增量数，含合计行
+    public int getPendingCount() {
+        int count = 0;
+        for (PendingCounts counts : pending.values()) {
+            count += counts.size();
+        }
+        return count;
+    }
+
+    // 获取依从性计数统计信息
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("checkpointIntervalMs", checkpointIntervalMs);
+        stats.put("recordedReminders", recordedReminders.get());
+        stats.put("recordedTaken", recordedTaken.get());
+        stats.put("pendingEntries", getPendingCount());
+        stats.put("checkpoints", checkpoints.get());
+        stats.put("checkpointedRows", checkpointedRows.get());
+        stats.put("lastCheckpointMillis", lastCheckpointMillis);
+        stats.put("lastCheckpointAt", lastCheckpointAt);
+        stats.put("lastError", lastError);
+        return stats;
+    }
+
+    // 关闭时写入剩余增量
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        try {
+            checkpoint();
+        } catch (Exception e) {
+            System.err.println("❌ 服药依从性最终检查点失败: " + e.getMessage());
+        }
+    }
+}
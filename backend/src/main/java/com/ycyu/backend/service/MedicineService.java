@@ -5,7 +5,16 @@ import com.ycyu.backend.entity.Medicine;
 import com.ycyu.backend.repository.MedicineRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 @Service
@@ -14,16 +23,126 @@ public class MedicineService {
     @Autowired
     private MedicineRepository medicineRepository;
 
+    // 启用药品计划快照：不可变、已按时间排序，附带按内容计算的配置版本号
+    public static final class ScheduleSnapshot {
+        private final List<MedicineDTO> medicines;
+        private final String version;
+
+        ScheduleSnapshot(List<MedicineDTO> medicines, String version) {
+            this.medicines = medicines;
+            this.version = version;
+        }
+
+        public List<MedicineDTO> getMedicines() {
+            return medicines;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+    }
+
+    // 启用药品计划的缓存快照，写操作后失效
+    private final AtomicReference<ScheduleSnapshot> activeSchedule = new AtomicReference<>();
+    // 每次写操作递增，用于丢弃基于旧数据构建的快照
+    private final AtomicLong scheduleGeneration = new AtomicLong();
+    // 使用ReentrantLock而非synchronized，虚拟线程在查询数据库时不会钉住载体线程
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+
+    // 缓存统计
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong cacheRebuilds = new AtomicLong();
+
     public List<MedicineDTO> getAllMedicines() {
         return medicineRepository.findAll().stream()
                 .map(this::convertToDTO)
                 .collect(Collectors.toList());
     }
 
+    // 获取启用的药品计划（读缓存，未命中时从数据库重建）
     public List<MedicineDTO> getActiveMedicines() {
-        return medicineRepository.findByEnabledTrueOrderByHourAscMinuteAsc().stream()
-                .map(this::convertToDTO)
-                .collect(Collectors.toList());
+        return getActiveSchedule().getMedicines();
+    }
+
+    // 当前药品计划的配置版本号
+    public String getActiveScheduleVersion() {
+        return getActiveSchedule().getVersion();
+    }
+
+    // 获取启用药品计划快照（药品列表与版本号保持一致）
+    public ScheduleSnapshot getActiveSchedule() {
+        ScheduleSnapshot snapshot = activeSchedule.get();
+        if (snapshot != null) {
+            cacheHits.incrementAndGet();
+            return snapshot;
+        }
+        cacheMisses.incrementAndGet();
+        return rebuildActiveSchedule();
+    }
+
+    // 重建缓存快照，同一时间只有一个线程访问数据库
+    private ScheduleSnapshot rebuildActiveSchedule() {
+        rebuildLock.lock();
+        try {
+            ScheduleSnapshot snapshot = activeSchedule.get();
+            if (snapshot != null) {
+                return snapshot;
+            }
+            long generation = scheduleGeneration.get();
+            List<MedicineDTO> medicines = List.copyOf(medicineRepository.findByEnabledTrueOrderByHourAscMinuteAsc().stream()
+                    .map(this::convertToDTO)
+                    .collect(Collectors.toList()));
+            ScheduleSnapshot rebuilt = new ScheduleSnapshot(medicines, computeVersion(medicines));
+            cacheRebuilds.incrementAndGet();
+            // 构建期间发生了写操作，则不缓存本次结果
+            if (generation == scheduleGeneration.get()) {
+                activeSchedule.compareAndSet(null, rebuilt);
+            }
+            return rebuilt;
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    // 按设备实际使用的字段计算内容哈希，内容不变则版本号不变
+    private String computeVersion(List<MedicineDTO> medicines) {
+        StringBuilder canonical = new StringBuilder();
+        for (MedicineDTO med : medicines) {
+            canonical.append(med.getName()).append('|')
+                    .append(med.getDosage()).append('|')
+                    .append(med.getHour()).append('|')
+                    .append(med.getMinute()).append('|')
+                    .append(med.getBoxNum()).append('|')
+                    .append(med.getEnabled()).append('\n');
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+
+    // 药品数据变更后使缓存失效
+    private void invalidateActiveSchedule() {
+        scheduleGeneration.incrementAndGet();
+        activeSchedule.set(null);
+    }
+
+    // 获取缓存统计信息
+    public Map<String, Object> getScheduleCacheStats() {
+        ScheduleSnapshot snapshot = activeSchedule.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("cached", snapshot != null);
+        stats.put("size", snapshot != null ? snapshot.getMedicines().size() : 0);
+        stats.put("version", snapshot != null ? snapshot.getVersion() : null);
+        stats.put("generation", scheduleGeneration.get());
+        stats.put("hits", cacheHits.get());
+        stats.put("misses", cacheMisses.get());
+        stats.put("rebuilds", cacheRebuilds.get());
+        return stats;
     }
 
     public MedicineDTO getMedicineById(Integer id) {
@@ -35,6 +154,7 @@ public class MedicineService {
     public MedicineDTO createMedicine(MedicineDTO dto) {
         Medicine medicine = convertToEntity(dto);
         Medicine saved = medicineRepository.save(medicine);
+        invalidateActiveSchedule();
         return convertToDTO(saved);
     }
 
@@ -51,11 +171,13 @@ public class MedicineService {
         existing.setEnabled(dto.getEnabled());
 
         Medicine updated = medicineRepository.save(existing);
+        invalidateActiveSchedule();
         return convertToDTO(updated);
     }
 
     public void deleteMedicine(Integer id) {
         medicineRepository.deleteById(id);
+        invalidateActiveSchedule();
     }
 
     public void toggleMedicineStatus(Integer id) {
@@ -63,6 +185,7 @@ public class MedicineService {
                 .orElseThrow(() -> new RuntimeException("药品不存在"));
         medicine.setEnabled(!medicine.getEnabled());
         medicineRepository.save(medicine);
+        invalidateActiveSchedule();
     }
 
     private MedicineDTO convertToDTO(Medicine medicine) {
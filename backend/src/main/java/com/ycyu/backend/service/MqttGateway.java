@@ -9,4 +9,5 @@ public interface MqttGateway {
     void sendToMqtt(String data);
     void sendToMqtt(@Header(MqttHeaders.TOPIC) String topic, String data);
     void sendToMqtt(@Header(MqttHeaders.TOPIC) String topic, @Header(MqttHeaders.QOS) int qos, String data);
+    void sendToMqtt(@Header(MqttHeaders.TOPIC) String topic, @Header(MqttHeaders.QOS) int qos, byte[] data);
 }
\ No newline at end of file
@@ -0,0 +1,283 @@
+package com.ycyu.backend.service;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessagingException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+// MQTT入站分级处理管道：按设备ID分区的有界队列，同一设备内保持顺序，不同设备并行处理。
+// 虚拟线程模式下每个分区由一个虚拟线程消费，可以开更多分区，阻塞的数据库/推送操作不占用平台线程。
+// 配置了优先级判定时，命中的消息（紧急报警）进入独立的保留通道，不在普通分区后面排队
+public class MqttInboundPipeline implements MessageHandler, DisposableBean {
+
+    // 队列满时的处理策略
+    public enum OverflowPolicy {
+        BLOCK,          // 阻塞接收线程（向Broker施加背压），超时后丢弃
+        DROP_NEWEST,    // 丢弃新到达的消息
+        DROP_OLDEST     // 丢弃队列中最旧的消息
+        // 不提供在接收线程上直接处理的策略：该设备更早的消息仍在分区队列中，直接处理会打乱同一设备的消息顺序
+    }
+
+    private static final String TOPIC_PREFIX = "medicinebox/";
+
+    // 队列中的消息连同接收时间，用于统计排队+处理延迟（消息头不可变，不为此复制消息）
+    private static final class Received {
+        final Message<?> message;
+        final long receivedAt = System.currentTimeMillis();
+
+        Received(Message<?> message) {
+            this.message = message;
+        }
+    }
+
+    private final MessageHandler delegate;
+    private final OverflowPolicy overflowPolicy;
+    private final long offerTimeoutMs;
+    private final boolean virtualThreads;
+    private final List<BlockingQueue<Received>> partitions = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final Predicate<Message<?>> priorityClassifier;
+    private final BlockingQueue<Received> priorityQueue;
+    private volatile boolean running = true;
+
+    // 统计信息
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong callerRunsCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+    private final AtomicLong priorityCount = new AtomicLong();
+    // 从接收到处理完成的延迟，优先通道与普通分区分开统计
+    private final LatencyHistogram priorityLatency = new LatencyHistogram();
+    private final LatencyHistogram normalLatency = new LatencyHistogram();
+
+    public MqttInboundPipeline(MessageHandler delegate, int workerCount, int queueCapacity,
+                               OverflowPolicy overflowPolicy, long offerTimeoutMs) {
+        this(delegate, workerCount, queueCapacity, overflowPolicy, offerTimeoutMs, false, null);
+    }
+
+    public MqttInboundPipeline(MessageHandler delegate, int workerCount, int queueCapacity,
+                               OverflowPolicy overflowPolicy, long offerTimeoutMs, boolean virtualThreads) {
+        this(delegate, workerCount, queueCapacity, overflowPolicy, offerTimeoutMs, virtualThreads, null);
+    }
+
+    // priorityClassifier 为null时不启用优先通道
+    public MqttInboundPipeline(MessageHandler delegate, int workerCount, int queueCapacity,
+                               OverflowPolicy overflowPolicy, long offerTimeoutMs, boolean virtualThreads,
+                               Predicate<Message<?>> priorityClassifier) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount必须大于0");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity必须大于0");
+        }
+        this.delegate = delegate;
+        this.overflowPolicy = overflowPolicy;
+        this.offerTimeoutMs = offerTimeoutMs;
+        this.virtualThreads = virtualThreads;
+        this.priorityClassifier = priorityClassifier;
+
+        // 优先通道使用一个平台线程，保证紧急消息之间（报警与取消）的顺序，且不受虚拟线程调度影响
+        if (priorityClassifier != null) {
+            priorityQueue = new LinkedBlockingQueue<>(queueCapacity);
+            Thread priorityWorker = new Thread(() -> runWorker(priorityQueue, priorityLatency), "mqtt-inbound-priority");
+            priorityWorker.setDaemon(true);
+            priorityWorker.setPriority(Thread.MAX_PRIORITY);
+            workers.add(priorityWorker);
+            priorityWorker.start();
+        } else {
+            priorityQueue = null;
+        }
+
+        for (int i = 0; i < workerCount; i++) {
+            // 虚拟线程模式分区数多，改用按需分配的链表队列，避免预分配大量数组
+            BlockingQueue<Received> queue = virtualThreads
+                    ? new LinkedBlockingQueue<>(queueCapacity)
+                    : new ArrayBlockingQueue<>(queueCapacity);
+            partitions.add(queue);
+            Thread worker = virtualThreads
+                    ? Thread.ofVirtual().name("mqtt-inbound-v" + i).unstarted(() -> runWorker(queue, normalLatency))
+                    : new Thread(() -> runWorker(queue, normalLatency), "mqtt-inbound-" + i);
+            if (!virtualThreads) {
+                worker.setDaemon(true);
+            }
+            workers.add(worker);
+            worker.start();
+        }
+        System.out.println("📥 MQTT入站管道已启动: 分区数=" + workerCount + ", 队列容量=" + queueCapacity
+                + ", 溢出策略=" + overflowPolicy + ", 线程模式=" + (virtualThreads ? "虚拟线程" : "平台线程")
+                + ", 优先通道=" + (priorityClassifier != null ? "启用" : "关闭"));
+    }
+
+    // 由MQTT接收线程调用，只做分区与入队
+    @Override
+    public void handleMessage(Message<?> message) throws MessagingException {
+        submittedCount.incrementAndGet();
+        Received received = new Received(message);
+
+        // 紧急消息不受溢出策略影响：保留通道满时直接在接收线程上处理，绝不丢弃
+        if (priorityClassifier != null && priorityClassifier.test(message)) {
+            priorityCount.incrementAndGet();
+            if (!priorityQueue.offer(received)) {
+                callerRunsCount.incrementAndGet();
+                process(received, priorityLatency);
+            }
+            return;
+        }
+
+        BlockingQueue<Received> queue = partitions.get(partitionOf(message));
+
+        if (queue.offer(received)) {
+            recordDepth(queue);
+            return;
+        }
+
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    if (queue.offer(received, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                        recordDepth(queue);
+                    } else {
+                        droppedCount.incrementAndGet();
+                        System.err.println("⚠️ MQTT入站队列已满，等待超时，消息被丢弃");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    droppedCount.incrementAndGet();
+                }
+                break;
+
+            case DROP_OLDEST:
+                // 循环直到成功入队，避免与工作线程竞争时丢失新消息
+                while (!queue.offer(received)) {
+                    if (queue.poll() != null) {
+                        droppedCount.incrementAndGet();
+                    }
+                }
+                recordDepth(queue);
+                break;
+
+            case DROP_NEWEST:
+            default:
+                droppedCount.incrementAndGet();
+        }
+    }
+
+    // 根据topic中的设备ID计算分区，保证同一设备的消息进入同一队列
+    private int partitionOf(Message<?> message) {
+        String topic = (String) message.getHeaders().get("mqtt_receivedTopic");
+        String key = extractDeviceId(topic);
+        int hash = key != null ? key.hashCode() : 0;
+        return (hash & 0x7fffffff) % partitions.size();
+    }
+
+    // 从 medicinebox/{deviceId}/xxx 中提取设备ID
+    public static String extractDeviceId(String topic) {
+        if (topic == null || !topic.startsWith(TOPIC_PREFIX)) {
+            return null;
+        }
+        int end = topic.indexOf('/', TOPIC_PREFIX.length());
+        return end < 0 ? null : topic.substring(TOPIC_PREFIX.length(), end);
+    }
+
+    private void runWorker(BlockingQueue<Received> queue, LatencyHistogram latency) {
+        while (running || !queue.isEmpty()) {
+            try {
+                Received received = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (received != null) {
+                    process(received, latency);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void process(Received received, LatencyHistogram latency) {
+        try {
+            delegate.handleMessage(received.message);
+            processedCount.incrementAndGet();
+        } catch (Exception e) {
+            failedCount.incrementAndGet();
+            System.err.println("处理MQTT入站消息时出错: " + e.getMessage());
+        } finally {
+            latency.record(System.currentTimeMillis() - received.receivedAt);
+        }
+    }
+
+    private void recordDepth(BlockingQueue<Received> queue) {
+        long depth = queue.size();
+        maxQueueDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    // 当前所有分区的积压消息总数
+    public int getQueueDepth() {
+        int total = 0;
+        for (BlockingQueue<Received> queue : partitions) {
+            total += queue.size();
+        }
+        if (priorityQueue != null) {
+            total += priorityQueue.size();
+        }
+        return total;
+    }
+
+    // 获取管道统计信息
+    public Map<String, Object> getStats() {
+        List<Integer> depths = new ArrayList<>();
+        for (BlockingQueue<Received> queue : partitions) {
+            depths.add(queue.size());
+        }
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("workers", partitions.size());
+        stats.put("virtualThreads", virtualThreads);
+        stats.put("overflowPolicy", overflowPolicy.name());
+        stats.put("queueDepth", getQueueDepth());
+        stats.put("partitionDepths", depths);
+        stats.put("maxQueueDepth", maxQueueDepth.get());
+        stats.put("submitted", submittedCount.get());
+        stats.put("processed", processedCount.get());
+        stats.put("dropped", droppedCount.get());
+        stats.put("callerRuns", callerRunsCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("priorityEnabled", priorityClassifier != null);
+        stats.put("priority", priorityCount.get());
+        stats.put("priorityQueueDepth", priorityQueue != null ? priorityQueue.size() : 0);
+        stats.put("priorityLatency", priorityLatency.snapshot());
+        stats.put("normalLatency", normalLatency.snapshot());
+        return stats;
+    }
+
+    // 关闭时先停止接收，再等待队列中剩余消息处理完成
+    @Override
+    public void destroy() {
+        running = false;
+        for (Thread worker : workers) {
+            try {
+                worker.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        System.out.println("📥 MQTT入站管道已关闭，剩余未处理消息: " + getQueueDepth());
+    }
+}
@@ -0,0 +1,352 @@
+package com.ycyu.backend.service;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.integration.mqtt.core.MqttPahoClientFactory;
+import org.springframework.integration.mqtt.support.MqttHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHandlingException;
+import org.springframework.messaging.MessagingException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// MQTT出站发布池：多个客户端连接并行发布，每个连接有独立的有界队列和在途窗口。
+// 按topic中的设备ID选择连接，同一设备的消息始终走同一连接，保持下发顺序；
+// 窗口占满时在本地排队而不是让Paho报"too many publishes in progress"
+public class MqttPublisherPool implements MessageHandler, DisposableBean {
+
+    // 连接建立/断开时回调，reconnect 表示是否为自动重连
+    public interface ConnectionListener {
+        void onConnectionState(String clientId, boolean connected, boolean reconnect);
+    }
+
+    // 待发布的消息
+    private static final class Publish {
+        final String topic;
+        final byte[] payload;
+        final int qos;
+        final boolean retained;
+        final long submittedAt = System.currentTimeMillis();
+
+        Publish(String topic, byte[] payload, int qos, boolean retained) {
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.retained = retained;
+        }
+    }
+
+    // 一个客户端连接及其发布队列
+    private final class Lane {
+        final String clientId;
+        final BlockingQueue<Publish> queue;
+        final Semaphore window;
+        final Thread dispatcher;
+        volatile IMqttAsyncClient client;
+
+        Lane(int index, int queueCapacity) {
+            this.clientId = clientIdPrefix + "-" + index;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.window = new Semaphore(maxInflight);
+            this.dispatcher = new Thread(this::run, "mqtt-outbound-" + index);
+            this.dispatcher.setDaemon(true);
+        }
+
+        private void run() {
+            while (running || !queue.isEmpty()) {
+                Publish publish;
+                try {
+                    publish = queue.poll(500, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (publish != null) {
+                    dispatch(publish);
+                }
+            }
+        }
+
+        // 等待连接和在途窗口，超过发布超时仍无法发出则记为失败
+        private void dispatch(Publish publish) {
+            long deadline = publish.submittedAt + publishTimeoutMs;
+            try {
+                if (!awaitConnected(deadline)) {
+                    fail(publish, "连接不可用");
+                    return;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (!window.tryAcquire(Math.max(0, remaining), TimeUnit.MILLISECONDS)) {
+                    fail(publish, "在途窗口已满");
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(publish, "发布线程被中断");
+                return;
+            }
+
+            try {
+                client.publish(publish.topic, publish.payload, publish.qos, publish.retained, null,
+                        new IMqttActionListener() {
+                            @Override
+                            public void onSuccess(IMqttToken token) {
+                                window.release();
+                                deliveredCount.incrementAndGet();
+                                latency.record(System.currentTimeMillis() - publish.submittedAt);
+                            }
+
+                            @Override
+                            public void onFailure(IMqttToken token, Throwable exception) {
+                                window.release();
+                                fail(publish, exception.getMessage());
+                            }
+                        });
+                publishedCount.incrementAndGet();
+            } catch (MqttException e) {
+                window.release();
+                fail(publish, e.getMessage());
+            }
+        }
+
+        // 首次连接或自动重连尚未成功时由发布线程主动连接
+        private boolean awaitConnected(long deadline) throws InterruptedException {
+            while (true) {
+                if (client != null && client.isConnected()) {
+                    return true;
+                }
+                try {
+                    if (client == null) {
+                        IMqttAsyncClient created = clientFactory.getAsyncClientInstance(null, clientId);
+                        created.setCallback(connectionCallback());
+                        client = created;
+                    }
+                    client.connect(clientFactory.getConnectionOptions()).waitForCompletion(connectTimeoutMs);
+                    System.out.println("📤 MQTT出站连接已建立: " + clientId);
+                    return true;
+                } catch (MqttException e) {
+                    // 自动重连进行中或Broker不可用，稍后再试
+                    if (e.getReasonCode() == MqttException.REASON_CODE_CLIENT_CONNECTED) {
+                        return true;
+                    }
+                }
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+                Thread.sleep(Math.min(1000, Math.max(1, deadline - System.currentTimeMillis())));
+            }
+        }
+
+        // 出站连接不订阅任何topic，回调只用于跟踪连接状态
+        private MqttCallbackExtended connectionCallback() {
+            return new MqttCallbackExtended() {
+                @Override
+                public void connectComplete(boolean reconnect, String serverURI) {
+                    if (reconnect) {
+                        reconnectCount.incrementAndGet();
+                    }
+                    notifyConnectionState(clientId, true, reconnect);
+                }
+
+                @Override
+                public void connectionLost(Throwable cause) {
+                    connectionLostCount.incrementAndGet();
+                    System.err.println("⚠️ MQTT出站连接断开: " + clientId + ", " + (cause != null ? cause.getMessage() : ""));
+                    notifyConnectionState(clientId, false, false);
+                }
+
+                @Override
+                public void messageArrived(String topic, MqttMessage message) {
+                }
+
+                @Override
+                public void deliveryComplete(IMqttDeliveryToken token) {
+                }
+            };
+        }
+
+        private void close() {
+            if (client == null) {
+                return;
+            }
+            try {
+                if (client.isConnected()) {
+                    client.disconnect().waitForCompletion(connectTimeoutMs);
+                }
+                client.close();
+            } catch (MqttException e) {
+                System.err.println("关闭MQTT出站连接失败: " + clientId + ", " + e.getMessage());
+            }
+        }
+    }
+
+    private final MqttPahoClientFactory clientFactory;
+    private final String clientIdPrefix;
+    private final int maxInflight;
+    private final long offerTimeoutMs;
+    private final long publishTimeoutMs;
+    private final long connectTimeoutMs;
+    private final int defaultQos;
+    private final List<Lane> lanes = new ArrayList<>();
+    private volatile boolean running = true;
+    private volatile ConnectionListener connectionListener;
+
+    // 统计信息
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong connectionLostCount = new AtomicLong();
+    private final AtomicLong reconnectCount = new AtomicLong();
+    // 从提交到Broker确认（QoS1为PUBACK）的延迟
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public MqttPublisherPool(MqttPahoClientFactory clientFactory, String clientIdPrefix, int connections,
+                             int maxInflight, int queueCapacity, long offerTimeoutMs, long publishTimeoutMs,
+                             int defaultQos) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("connections必须大于0");
+        }
+        if (maxInflight < 1) {
+            throw new IllegalArgumentException("maxInflight必须大于0");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity必须大于0");
+        }
+        this.clientFactory = clientFactory;
+        this.clientIdPrefix = clientIdPrefix;
+        this.maxInflight = maxInflight;
+        this.offerTimeoutMs = offerTimeoutMs;
+        this.publishTimeoutMs = publishTimeoutMs;
+        this.connectTimeoutMs = Math.max(1000, clientFactory.getConnectionOptions().getConnectionTimeout() * 1000L);
+        this.defaultQos = defaultQos;
+
+        for (int i = 0; i < connections; i++) {
+            Lane lane = new Lane(i, queueCapacity);
+            lanes.add(lane);
+            lane.dispatcher.start();
+        }
+        System.out.println("📤 MQTT出站发布池已启动: 连接数=" + connections + ", 在途窗口=" + maxInflight
+                + ", 队列容量=" + queueCapacity);
+    }
+
+    // 由 MqttGateway 的调用线程执行，只做选路与入队；队列满时最多等待offerTimeoutMs，超时抛出异常
+    @Override
+    public void handleMessage(Message<?> message) throws MessagingException {
+        String topic = message.getHeaders().get(MqttHeaders.TOPIC, String.class);
+        if (topic == null) {
+            throw new MessageHandlingException(message, "MQTT出站消息缺少topic");
+        }
+        Integer qos = message.getHeaders().get(MqttHeaders.QOS, Integer.class);
+        Boolean retained = message.getHeaders().get(MqttHeaders.RETAINED, Boolean.class);
+        Object payload = message.getPayload();
+        byte[] bytes = payload instanceof byte[]
+                ? (byte[]) payload : payload.toString().getBytes(StandardCharsets.UTF_8);
+
+        submittedCount.incrementAndGet();
+        Publish publish = new Publish(topic, bytes, qos != null ? qos : defaultQos,
+                retained != null && retained);
+        Lane lane = lanes.get(laneOf(topic));
+        try {
+            if (lane.queue.offer(publish, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        rejectedCount.incrementAndGet();
+        throw new MessageHandlingException(message, "MQTT出站队列已满: " + lane.clientId);
+    }
+
+    // 设备相关topic按设备ID选择连接，广播等其他topic按完整topic选择
+    private int laneOf(String topic) {
+        String deviceId = MqttInboundPipeline.extractDeviceId(topic);
+        String key = deviceId != null ? deviceId : topic;
+        return (key.hashCode() & 0x7fffffff) % lanes.size();
+    }
+
+    public void setConnectionListener(ConnectionListener connectionListener) {
+        this.connectionListener = connectionListener;
+    }
+
+    private void notifyConnectionState(String clientId, boolean connected, boolean reconnect) {
+        ConnectionListener listener = connectionListener;
+        if (listener != null) {
+            listener.onConnectionState(clientId, connected, reconnect);
+        }
+    }
+
+    private void fail(Publish publish, String reason) {
+        failedCount.incrementAndGet();
+        System.err.println("❌ MQTT消息发布失败: " + publish.topic + ", " + reason);
+    }
+
+    // 获取发布池统计信息
+    public Map<String, Object> getStats() {
+        List<Map<String, Object>> connections = new ArrayList<>();
+        int queued = 0;
+        int inflight = 0;
+        for (Lane lane : lanes) {
+            int laneInflight = maxInflight - lane.window.availablePermits();
+            queued += lane.queue.size();
+            inflight += laneInflight;
+
+            Map<String, Object> connection = new HashMap<>();
+            connection.put("clientId", lane.clientId);
+            connection.put("connected", lane.client != null && lane.client.isConnected());
+            connection.put("queueDepth", lane.queue.size());
+            connection.put("inflight", laneInflight);
+            connections.add(connection);
+        }
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("connections", connections);
+        stats.put("maxInflight", maxInflight);
+        stats.put("queueDepth", queued);
+        stats.put("inflight", inflight);
+        stats.put("submitted", submittedCount.get());
+        stats.put("rejected", rejectedCount.get());
+        stats.put("published", publishedCount.get());
+        stats.put("delivered", deliveredCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("connectionLost", connectionLostCount.get());
+        stats.put("reconnects", reconnectCount.get());
+        stats.put("latency", latency.snapshot());
+        return stats;
+    }
+
+    // 停止接收后等待队列发完再断开连接
+    @Override
+    public void destroy() {
+        running = false;
+        for (Lane lane : lanes) {
+            try {
+                lane.dispatcher.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Lane lane : lanes) {
+            lane.close();
+        }
+        System.out.println("📤 MQTT出站发布池已关闭");
+    }
+}
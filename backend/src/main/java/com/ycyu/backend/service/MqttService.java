@@ -2,13 +2,18 @@ package com.ycyu.backend.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ycyu.backend.dto.DeviceResponseDTO;
 import com.ycyu.backend.dto.DeviceStatusDTO;
 import com.ycyu.backend.dto.MedicineDTO;
 import com.ycyu.backend.service.DeviceEventService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Service
@@ -23,62 +28,188 @@ public class MqttService {
     @Autowired
     private DeviceEventService deviceEventService;
 
+    @Autowired
+    private ConfigSyncService configSyncService;
+
+    @Autowired
+    private DeviceResponseService deviceResponseService;
+
+    @Autowired
+    private DeviceMessageCodec deviceMessageCodec;
+
+    // 设备声明支持时是否启用MessagePack二进制编码
+    @Value("${mqtt.binary.enabled:true}")
+    private boolean binaryEncodingEnabled;
+
+    @Value("${device.liveness.timeout-ms:60000}")
+    private long livenessTimeoutMs;
+
+    @Value("${device.liveness.tick-ms:1000}")
+    private long livenessTickMs;
+
     // 存储设备状态
     private final Map<String, DeviceStatusDTO> deviceStatusMap = new ConcurrentHashMap<>();
 
-    // 获取设备状态列表
-    public List<DeviceStatusDTO> getDeviceStatusList() {
-        List<DeviceStatusDTO> devices = new ArrayList<>();
-        long now = System.currentTimeMillis();
+    // 设备心跳跟踪（时间轮），负责在线/离线状态切换
+    private DeviceLivenessTracker livenessTracker;
 
-        // 检查所有设备的在线状态
-        for (DeviceStatusDTO device : deviceStatusMap.values()) {
-            boolean wasOnline = device.isOnline();
-            // 更新设备在线状态（超过60秒无心跳则标记为离线）
-            boolean isOnline = now - device.getLastActiveTime() <= 60000;
-            device.setOnline(isOnline);
-            devices.add(device);
-            
-            // 如果设备状态发生变化，触发状态变化事件
-            if (wasOnline != isOnline) {
-                deviceEventService.handleDeviceStatusChange(device.getDeviceId(), isOnline);
-            }
+    @PostConstruct
+    public void initLivenessTracker() {
+        livenessTracker = new DeviceLivenessTracker(livenessTimeoutMs, livenessTickMs, this::onLivenessChange);
+    }
+
+    @PreDestroy
+    public void shutdownLivenessTracker() {
+        livenessTracker.shutdown();
+    }
+
+    // 心跳跟踪器回调：每次在线状态变化只触发一次
+    private void onLivenessChange(String deviceId, boolean online) {
+        DeviceStatusDTO device = deviceStatusMap.get(deviceId);
+        if (device != null) {
+            device.setOnline(online);
+        }
+        System.out.println("📱 设备" + (online ? "上线" : "离线") + ": " + deviceId);
+        deviceEventService.handleDeviceStatusChange(deviceId, online);
+        if (online) {
+            configSyncService.onDeviceReconnected(deviceId);
         }
+    }
+
+    // 获取设备状态列表（只读，在线状态由心跳跟踪器维护）
+    public List<DeviceStatusDTO> getDeviceStatusList() {
+        return new ArrayList<>(deviceStatusMap.values());
+    }
 
-        return devices;
+    // 当前在线设备数
+    public int getOnlineDeviceCount() {
+        return livenessTracker.getOnlineCount();
+    }
+
+    // 心跳跟踪器中已知的设备数（在线+离线）
+    public int getTrackedDeviceCount() {
+        return livenessTracker.getTrackedCount();
+    }
+
+    // 设备是否在线
+    public boolean isDeviceOnline(String deviceId) {
+        return livenessTracker.isOnline(deviceId);
     }
 
     // 更新设备在线状态
     public void updateDeviceStatus(String deviceId) {
         long now = System.currentTimeMillis();
-        DeviceStatusDTO device = deviceStatusMap.get(deviceId);
-        boolean wasOnline = device != null && device.isOnline();
-        
-        if (device == null) {
+        DeviceStatusDTO device = deviceStatusMap.computeIfAbsent(deviceId, id -> {
             // 新设备，创建状态记录
-            device = new DeviceStatusDTO();
-            device.setDeviceId(deviceId);
-            device.setStatusMessage("设备已连接");
-            device.setOfflineModeEnabled(true); // 默认启用离线模式
-            device.setLastSyncTime(now);
-            device.setLocalConfigVersion("1.0");
-            device.setOfflineEventsCount(0);
-            device.setLastEventTime(now);
-            device.setDeviceType("medicinebox");
-            device.setFirmwareVersion("V8.3");
-        }
+            DeviceStatusDTO created = new DeviceStatusDTO();
+            created.setDeviceId(id);
+            created.setStatusMessage("设备已连接");
+            created.setOfflineModeEnabled(true); // 默认启用离线模式
+            created.setLastSyncTime(now);
+            created.setLocalConfigVersion(null); // 设备上报后更新
+            created.setOfflineEventsCount(0);
+            created.setLastEventTime(now);
+            created.setDeviceType("medicinebox");
+            created.setFirmwareVersion("V8.3");
+            return created;
+        });
         
         device.setLastActiveTime(now);
-        device.setOnline(true);
-        deviceStatusMap.put(deviceId, device);
-        System.out.println("📱 设备在线: " + deviceId);
         
-        // 如果设备之前是离线状态，现在上线了，触发状态变化事件
-        if (!wasOnline) {
-            deviceEventService.handleDeviceStatusChange(deviceId, true);
-        }
+        // 刷新心跳，设备由离线变为在线时由跟踪器触发状态变化事件
+        livenessTracker.heartbeat(deviceId, now);
     }
     
+    // 将解码后的 STATUS / DEVICE_INFO 字段写入设备状态，调用前需已通过 updateDeviceStatus 登记设备
+    public void applyDeviceMessage(String deviceId, DeviceMessageCodec.DeviceMessage message) {
+        DeviceStatusDTO device = deviceStatusMap.get(deviceId);
+        if (device == null) {
+            return;
+        }
+
+        if ("DEVICE_INFO".equals(message.getType())) {
+            if (message.getMacAddress() != null) {
+                device.setMacAddress(message.getMacAddress());
+            }
+            if (message.getIpAddress() != null) {
+                device.setIpAddress(message.getIpAddress());
+            }
+            if (message.getFirmwareVersion() != null) {
+                device.setFirmwareVersion(message.getFirmwareVersion());
+            }
+            if (message.has(DeviceMessageCodec.DeviceMessage.MAX_MEDICINES)) {
+                device.setMaxMedicines(message.getMaxMedicines());
+            }
+            negotiateEncoding(device, message.isMsgpack());
+            return;
+        }
+
+        if (message.has(DeviceMessageCodec.DeviceMessage.WIFI_CONNECTED)) {
+            device.setWifiConnected(message.isWifiConnected());
+        }
+        if (message.has(DeviceMessageCodec.DeviceMessage.MQTT_CONNECTED)) {
+            device.setMqttConnected(message.isMqttConnected());
+        }
+        if (message.has(DeviceMessageCodec.DeviceMessage.TIME_SYNCED)) {
+            device.setTimeSynced(message.isTimeSynced());
+        }
+        if (message.has(DeviceMessageCodec.DeviceMessage.EMERGENCY_MODE)) {
+            device.setEmergencyMode(message.isEmergencyMode());
+        }
+        if (message.has(DeviceMessageCodec.DeviceMessage.REMIND_LEVEL)) {
+            device.setRemindLevel(message.getRemindLevel());
+        }
+        if (message.has(DeviceMessageCodec.DeviceMessage.ARDUINO_READY)) {
+            device.setArduinoReady(message.isArduinoReady());
+        }
+        if (message.has(DeviceMessageCodec.DeviceMessage.ACTIVE_MEDICINES)) {
+            device.setActiveMedicines(message.getActiveMedicines());
+        }
+        if (message.has(DeviceMessageCodec.DeviceMessage.OFFLINE_MODE)) {
+            device.setOfflineModeEnabled(message.isOfflineMode());
+        }
+        if (message.has(DeviceMessageCodec.DeviceMessage.TIMESTAMP)) {
+            device.setDeviceUptimeMs(message.getTimestamp());
+        }
+        if (message.getCurrentTime() != null) {
+            device.setDeviceTime(message.getCurrentTime());
+        }
+
+        if (device.isEmergencyMode()) {
+            device.setStatusMessage("紧急报警中");
+        } else if (message.has(DeviceMessageCodec.DeviceMessage.ARDUINO_READY) && !device.isArduinoReady()) {
+            device.setStatusMessage("Arduino未就绪");
+        } else {
+            device.setStatusMessage("运行正常");
+        }
+    }
+
+    // 设备上线时发送 DEVICE_INFO 并恢复为JSON编码；声明支持MessagePack时下发切换命令，设备确认后才改用二进制
+    private void negotiateEncoding(DeviceStatusDTO device, boolean supportsMsgPack) {
+        String deviceId = device.getDeviceId();
+        device.setWireEncoding(DeviceMessageCodec.DeviceMessage.ENCODING_JSON);
+        if (!supportsMsgPack || !binaryEncodingEnabled) {
+            return;
+        }
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("encoding", DeviceMessageCodec.DeviceMessage.ENCODING_MSGPACK);
+        sendCommand(deviceId, "SET_ENCODING", data).whenComplete((response, error) -> {
+            if (error == null && response.isSuccess()) {
+                device.setWireEncoding(DeviceMessageCodec.DeviceMessage.ENCODING_MSGPACK);
+                System.out.println("📦 设备 " + deviceId + " 已切换为MessagePack编码");
+            } else {
+                System.out.println("⚠️ 设备 " + deviceId + " 编码协商失败，继续使用JSON");
+            }
+        });
+    }
+
+    // 设备当前使用的消息编码
+    public String getWireEncoding(String deviceId) {
+        DeviceStatusDTO device = deviceStatusMap.get(deviceId);
+        return device != null ? device.getWireEncoding() : DeviceMessageCodec.DeviceMessage.ENCODING_JSON;
+    }
+
     // 更新设备离线模式状态
     public void updateDeviceOfflineStatus(String deviceId, boolean offlineModeEnabled) {
         long now = System.currentTimeMillis();
@@ -122,46 +253,30 @@ public class MqttService {
         if (device != null) {
             device.setLastSyncTime(now);
             deviceStatusMap.put(deviceId, device);
-            System.out.println("📱 设备同步时间更新: " + deviceId + " 时间: " + now);
         }
     }
 
-    // 同步药品配置到指定设备
-    public void syncMedicinesToDevice(String deviceId, List<MedicineDTO> medicines) {
+    // 同步药品配置到指定设备（每次同步只打印一行摘要，不输出药品明细和消息内容）
+    public void syncMedicinesToDevice(String deviceId, MedicineService.ScheduleSnapshot schedule) {
+        List<MedicineDTO> medicines = schedule.getMedicines();
+        String configVersion = schedule.getVersion();
         try {
-            System.out.println("========== 开始同步药品配置 ==========");
-            System.out.println("设备ID: " + deviceId);
-            System.out.println("药品数量: " + medicines.size());
-
-            for (int i = 0; i < medicines.size(); i++) {
-                MedicineDTO med = medicines.get(i);
-                System.out.println("药品" + (i+1) + ": " + med.getName() +
-                        ", 时间: " + med.getHour() + ":" + med.getMinute() +
-                        ", 药格: " + med.getBoxNum());
-            }
-
-            Map<String, Object> payload = new HashMap<>();
-            payload.put("type", "SYNC_MEDICINES");
-            payload.put("deviceId", deviceId);
-            payload.put("medicines", medicines);
-            payload.put("timestamp", System.currentTimeMillis());
-
-            String message = objectMapper.writeValueAsString(payload);
+            // 设备已确认的版本可用作基准时只下发变化的槽位
+            ConfigSyncService.ConfigMessage configMessage = configSyncService.buildConfigMessage(deviceId, schedule,
+                    serializeMedicines(medicines), System.currentTimeMillis());
+            String message = configMessage.getMessage();
             String topic = "medicinebox/" + deviceId + "/config";
 
-            System.out.println("发送到主题: " + topic);
-            System.out.println("消息内容: " + message);
-
-            mqttGateway.sendToMqtt(topic, 1, message);
+            sendTracked(deviceId, DeviceResponseService.SYNC, configVersion, topic, message);
             // 更新设备最后同步时间
             updateLastSyncTime(deviceId);
-            // 触发配置同步事件
-            deviceEventService.handleConfigSync(deviceId, true);
-            System.out.println("✅ 同步命令已发送");
+            // 等待设备上报新版本号确认同步成功
+            configSyncService.onSyncSent(deviceId, configVersion, configMessage.getPatchBase(), true);
+            System.out.println("✅ 设备 " + deviceId + " 配置同步已发送: 药品数=" + medicines.size()
+                    + ", 版本=" + configVersion + ", "
+                    + (configMessage.isPatch() ? "增量（基准版本 " + configMessage.getPatchBase() + "）" : "全量")
+                    + ", " + message.length() + " 字节，等待设备确认");
 
-        } catch (JsonProcessingException e) {
-            System.err.println("❌ JSON序列化失败: " + e.getMessage());
-            throw new RuntimeException("JSON序列化失败", e);
         } catch (Exception e) {
             System.err.println("❌ MQTT消息发送失败: " + e.getMessage());
             e.printStackTrace();
@@ -169,8 +284,87 @@ public class MqttService {
         }
     }
 
+    // 序列化药品列表（批量同步时只序列化一次，所有设备共享）
+    public String serializeMedicines(List<MedicineDTO> medicines) {
+        try {
+            return objectMapper.writeValueAsString(medicines);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("JSON序列化失败", e);
+        }
+    }
+
+    // 使用已序列化的药品列表拼装同步消息，与 syncMedicinesToDevice 的消息格式一致
+    public String buildSyncMessage(String deviceId, String medicinesJson, String configVersion, long timestamp) {
+        try {
+            return "{\"type\":\"SYNC_MEDICINES\",\"deviceId\":" + objectMapper.writeValueAsString(deviceId)
+                    + ",\"medicines\":" + medicinesJson
+                    + ",\"configVersion\":" + objectMapper.writeValueAsString(configVersion)
+                    + ",\"timestamp\":" + timestamp + "}";
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("JSON序列化失败", e);
+        }
+    }
+
+    // 发布配置消息到设备并更新最后同步时间（批量同步使用，不逐条打印日志）
+    public void publishConfig(String deviceId, String message, String configVersion) {
+        sendTracked(deviceId, DeviceResponseService.SYNC, configVersion, "medicinebox/" + deviceId + "/config", message);
+        DeviceStatusDTO device = deviceStatusMap.get(deviceId);
+        if (device != null) {
+            device.setLastSyncTime(System.currentTimeMillis());
+        }
+    }
+
+    // 发送并登记在途请求（按设备协商的编码），发送失败时撤销登记
+    private void sendTracked(String deviceId, String type, String name, String topic, String message) {
+        DeviceResponseService.PendingRequest request = deviceResponseService.track(deviceId, type, name);
+        String encoding = getWireEncoding(deviceId);
+        try {
+            if (DeviceMessageCodec.DeviceMessage.ENCODING_JSON.equals(encoding)) {
+                mqttGateway.sendToMqtt(topic, 1, message);
+            } else {
+                mqttGateway.sendToMqtt(topic, 1, deviceMessageCodec.encode(message, encoding));
+            }
+        } catch (RuntimeException e) {
+            deviceResponseService.cancel(request, e);
+            throw e;
+        }
+    }
+
+    // 记录设备上报的配置版本号
+    public void updateReportedConfigVersion(String deviceId, String configVersion) {
+        DeviceStatusDTO device = deviceStatusMap.get(deviceId);
+        if (device != null) {
+            device.setLocalConfigVersion(configVersion);
+        }
+    }
+
+    // 设备最近上报的配置版本号
+    public String getReportedConfigVersion(String deviceId) {
+        DeviceStatusDTO device = deviceStatusMap.get(deviceId);
+        return device != null ? device.getLocalConfigVersion() : null;
+    }
+
+    // 所有已知设备ID
+    public List<String> getKnownDeviceIds() {
+        return new ArrayList<>(deviceStatusMap.keySet());
+    }
+
+    // 当前在线的设备ID
+    public List<String> getOnlineDeviceIds() {
+        List<String> deviceIds = new ArrayList<>();
+        for (String deviceId : deviceStatusMap.keySet()) {
+            if (livenessTracker.isOnline(deviceId)) {
+                deviceIds.add(deviceId);
+            }
+        }
+        return deviceIds;
+    }
+
     // 发送命令到设备
-    public void sendCommand(String deviceId, String command, Object data) {
+    // 发送命令到设备，返回的 future 在设备响应、超时或发送失败时完成
+    public CompletableFuture<DeviceResponseDTO> sendCommand(String deviceId, String command, Object data) {
+        DeviceResponseService.PendingRequest request = deviceResponseService.track(deviceId,
+                DeviceResponseService.COMMAND, command);
         try {
             System.out.println("========== 发送命令 ==========");
             System.out.println("设备ID: " + deviceId);
@@ -178,19 +372,13 @@ public class MqttService {
             System.out.println("数据: " + objectMapper.writeValueAsString(data));
             
             // 检查设备是否在线
-            DeviceStatusDTO device = deviceStatusMap.get(deviceId);
-            long now = System.currentTimeMillis();
-            boolean isOnline = false;
-            
-            if (device != null) {
-                isOnline = now - device.getLastActiveTime() <= 60000;
-                device.setOnline(isOnline);
-            }
+            boolean isOnline = livenessTracker.isOnline(deviceId);
             
             System.out.println("设备状态: " + (isOnline ? "在线" : "离线"));
             
             Map<String, Object> payload = new HashMap<>();
             payload.put("type", "COMMAND");
+            payload.put("requestId", request.getRequestId());
             payload.put("command", command);
             payload.put("data", data);
             payload.put("timestamp", System.currentTimeMillis());
@@ -203,12 +391,15 @@ public class MqttService {
             System.out.println("消息内容: " + message);
 
             mqttGateway.sendToMqtt(topic, 1, message);
-            System.out.println("✅ 命令已发送");
+            System.out.println("✅ 命令已发送，requestId: " + request.getRequestId());
+            return request.getFuture();
 
         } catch (JsonProcessingException e) {
+            deviceResponseService.cancel(request, e);
             System.err.println("❌ JSON序列化失败: " + e.getMessage());
             throw new RuntimeException("JSON序列化失败", e);
         } catch (Exception e) {
+            deviceResponseService.cancel(request, e);
             System.err.println("❌ MQTT命令发送失败: " + e.getMessage());
             e.printStackTrace();
             throw new RuntimeException("MQTT命令发送失败", e);
@@ -0,0 +1,212 @@
+package com.ycyu.backend.service;
+
+import com.ycyu.backend.dto.NotificationDTO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// 固定容量的通知环形缓冲区：写入通过CAS领取序号，无锁发布；读取按序号校验得到一致快照
+public class NotificationRingBuffer {
+
+    private static final class Slot {
+        final long sequence;
+        // 按序号单调不减的时间戳，只用于按时间定位游标
+        final long timestamp;
+        final NotificationDTO notification;
+
+        Slot(long sequence, long timestamp, NotificationDTO notification) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.notification = notification;
+        }
+    }
+
+    // 序号与时间戳一起通过CAS领取，保证序号越大时间戳不会越小
+    private static final class Claim {
+        // 下一个待分配的序号
+        final long next;
+        // 最近领取的序号对应的时间戳
+        final long timestamp;
+
+        Claim(long next, long timestamp) {
+            this.next = next;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final int capacity;
+    private final AtomicReferenceArray<Slot> slots;
+    private final AtomicReference<Claim> claim = new AtomicReference<>(new Claim(0, Long.MIN_VALUE));
+    // 未读通知数
+    private final AtomicInteger unreadCount = new AtomicInteger();
+    // 已批量标记为已读的序号上限，避免重复扫描
+    private final AtomicLong readWatermark = new AtomicLong(-1);
+
+    public NotificationRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity必须大于0");
+        }
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    // 发布通知，超出容量时自动覆盖最旧的记录，返回被覆盖的通知（没有则为null）
+    public NotificationDTO publish(NotificationDTO notification) {
+        // 通知的时间戳在创建时生成，并发发布时可能与序号顺序不一致，领取序号时取不小于前一条的值
+        Claim current;
+        Claim claimed;
+        do {
+            current = claim.get();
+            claimed = new Claim(current.next + 1, Math.max(current.timestamp, notification.getTimestamp()));
+        } while (!claim.compareAndSet(current, claimed));
+        long sequence = current.next;
+        notification.setSequence(sequence);
+        if (!notification.isRead()) {
+            unreadCount.incrementAndGet();
+        }
+        Slot evicted = slots.getAndSet(index(sequence), new Slot(sequence, claimed.timestamp, notification));
+        if (evicted == null) {
+            return null;
+        }
+        // 被覆盖的通知不再计入未读数
+        markRead(evicted.notification);
+        return evicted.notification;
+    }
+
+    // 标记单条通知为已读，返回是否发生了状态变化
+    public boolean markRead(NotificationDTO notification) {
+        synchronized (notification) {
+            if (notification.isRead()) {
+                return false;
+            }
+            notification.setRead(true);
+        }
+        unreadCount.decrementAndGet();
+        return true;
+    }
+
+    // 将序号不超过upToSequence的通知全部标记为已读，返回本次标记的数量
+    public int markReadUpTo(long upToSequence) {
+        long end = Math.min(upToSequence, nextSequence() - 1);
+        long start = Math.max(readWatermark.get() + 1, oldestSequence());
+        int marked = 0;
+        for (long sequence = start; sequence <= end; sequence++) {
+            Slot slot = slots.get(index(sequence));
+            if (slot == null || slot.sequence < sequence) {
+                // 该序号仍在写入中，水位线停在它之前，下次再处理
+                end = sequence - 1;
+                break;
+            }
+            if (slot.sequence == sequence && markRead(slot.notification)) {
+                marked++;
+            }
+        }
+        readWatermark.accumulateAndGet(end, Math::max);
+        return marked;
+    }
+
+    public int getUnreadCount() {
+        return unreadCount.get();
+    }
+
+    // 按时间倒序返回最多limit条通知
+    public List<NotificationDTO> snapshot(int limit) {
+        long end = nextSequence();
+        long start = Math.max(0, end - Math.min(limit, capacity));
+        List<NotificationDTO> result = new ArrayList<>((int) (end - start));
+        for (long sequence = end - 1; sequence >= start; sequence--) {
+            Slot slot = slots.get(index(sequence));
+            // 序号不匹配说明该位置尚未写完或已被新记录覆盖
+            if (slot != null && slot.sequence == sequence) {
+                result.add(slot.notification);
+            }
+        }
+        return result;
+    }
+
+    public List<NotificationDTO> snapshot() {
+        return snapshot(capacity);
+    }
+
+    // 按序号升序返回cursor之后的最多limit条通知，直接按环形偏移定位，不扫描旧记录
+    public List<NotificationDTO> readAfter(long cursor, int limit) {
+        long end = nextSequence();
+        long start = Math.max(cursor + 1, Math.max(0, end - capacity));
+        long stop = Math.min(end, start + limit);
+        List<NotificationDTO> result = new ArrayList<>((int) Math.max(0, stop - start));
+        for (long sequence = start; sequence < stop; sequence++) {
+            Slot slot = slots.get(index(sequence));
+            if (slot == null || slot.sequence != sequence) {
+                // 该序号仍在写入中，停止读取以保证游标不跳过它
+                break;
+            }
+            result.add(slot.notification);
+        }
+        return result;
+    }
+
+    // 二分查找第一条时间戳晚于timestamp的通知，返回其前一个序号（作为游标）。
+    // 按领取序号时单调化的时间戳查找：时间戳晚于timestamp的通知一定在游标之后，
+    // 个别创建时间不晚于timestamp但发布较晚的通知也会包含在内，不会漏读
+    public long cursorAfterTimestamp(long timestamp) {
+        long end = nextSequence();
+        long low = Math.max(0, end - capacity);
+        long high = end;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            Slot slot = slots.get(index(mid));
+            // 未写完的位置只可能出现在最新端，视为晚于任何时间戳
+            boolean after = slot == null || slot.sequence != mid || slot.timestamp > timestamp;
+            if (after) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low - 1;
+    }
+
+    // 最新已分配的序号，没有记录时为-1
+    public long latestSequence() {
+        return nextSequence() - 1;
+    }
+
+    // 最早仍保留的序号
+    public long oldestSequence() {
+        return Math.max(0, nextSequence() - capacity);
+    }
+
+    // 在当前保留的记录中按ID查找通知
+    public NotificationDTO find(String notificationId) {
+        long end = nextSequence();
+        long start = Math.max(0, end - capacity);
+        for (long sequence = end - 1; sequence >= start; sequence--) {
+            Slot slot = slots.get(index(sequence));
+            if (slot != null && slot.sequence == sequence && slot.notification.getId().equals(notificationId)) {
+                return slot.notification;
+            }
+        }
+        return null;
+    }
+
+    // 当前保留的记录数
+    public int size() {
+        return (int) Math.min(nextSequence(), capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private long nextSequence() {
+        return claim.get().next;
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+}
@@ -2,12 +2,18 @@ package com.ycyu.backend.service;
 
 import com.ycyu.backend.dto.NotificationDTO;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 @Service
 public class NotificationService {
@@ -15,13 +21,34 @@ public class NotificationService {
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
     
-    // 存储通知历史
-    private final ConcurrentHashMap<String, List<NotificationDTO>> notificationHistory = new ConcurrentHashMap<>();
+    @Autowired
+    private BackendMetrics backendMetrics;
+    
+    // 设备通知历史的默认容量
+    @Value("${notification.history.default-capacity:100}")
+    private int defaultHistoryCapacity;
+    
+    // 按设备ID前缀（设备类别）配置的容量，最长前缀优先，"all" 表示无设备归属的通知
+    @Value("#{${notification.history.class-capacities:{:}}}")
+    private Map<String, Integer> classHistoryCapacities;
+    
+    // 存储通知历史（每个设备一个固定容量的环形缓冲区）
+    private final ConcurrentHashMap<String, NotificationRingBuffer> notificationHistory = new ConcurrentHashMap<>();
+    
+    // 通知ID索引，与环形缓冲区的覆盖保持同步，用于O(1)查找
+    private final ConcurrentHashMap<String, NotificationDTO> notificationIndex = new ConcurrentHashMap<>();
+    
+    // 长轮询等待者（按通知流分组），有新通知时被唤醒
+    private final ConcurrentHashMap<String, Set<Runnable>> pollWaiters = new ConcurrentHashMap<>();
+    
+    // 推送完成后的监听器（设备模拟器用来统计事件到前端的延迟）
+    private final List<Consumer<NotificationDTO>> listeners = new CopyOnWriteArrayList<>();
     
     // 发送通知到所有客户端
     public void sendNotification(NotificationDTO notification) {
         // 广播通知
-        messagingTemplate.convertAndSend("/topic/notifications", notification);
+        push("/topic/notifications", BackendMetrics.DESTINATION_NOTIFICATIONS, notification);
+        notifyListeners(notification);
         
         // 存储到历史记录
         saveNotificationToHistory(notification);
@@ -33,9 +60,10 @@ public class NotificationService {
     public void sendDeviceNotification(String deviceId, NotificationDTO notification) {
         notification.setDeviceId(deviceId);
         // 广播通知
-        messagingTemplate.convertAndSend("/topic/device/" + deviceId + "/notifications", notification);
+        push("/topic/device/" + deviceId + "/notifications", BackendMetrics.DESTINATION_DEVICE, notification);
         // 发送到所有客户端的设备通知主题
-        messagingTemplate.convertAndSend("/topic/notifications", notification);
+        push("/topic/notifications", BackendMetrics.DESTINATION_NOTIFICATIONS, notification);
+        notifyListeners(notification);
         
         // 存储到历史记录
         saveNotificationToHistory(notification);
@@ -99,42 +127,188 @@ public class NotificationService {
         sendDeviceNotification(deviceId, notification);
     }
     
+    // 发送批量配置同步结果通知
+    public void sendBulkSyncNotification(String jobId, int total, int sent, int failed) {
+        NotificationDTO notification = new NotificationDTO(
+            failed == 0 ? "批量配置同步完成" : "批量配置同步部分失败",
+            "共 " + total + " 台设备，成功 " + sent + " 台，失败 " + failed + " 台",
+            failed == 0 ? "success" : "warning",
+            null,
+            "BULK_CONFIG_SYNC",
+            "{\"jobId\": \"" + jobId + "\", \"total\": " + total + ", \"sent\": " + sent + ", \"failed\": " + failed + "}"
+        );
+        sendNotification(notification);
+    }
+    
+    // WebSocket推送并记录耗时（按目的地类型统计，不按设备区分）
+    private void push(String destination, String destinationType, NotificationDTO notification) {
+        long start = System.nanoTime();
+        messagingTemplate.convertAndSend(destination, notification);
+        backendMetrics.recordWebSocketSend(destinationType, System.nanoTime() - start);
+    }
+    
+    public void addNotificationListener(Consumer<NotificationDTO> listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeNotificationListener(Consumer<NotificationDTO> listener) {
+        listeners.remove(listener);
+    }
+    
+    private void notifyListeners(NotificationDTO notification) {
+        for (Consumer<NotificationDTO> listener : listeners) {
+            listener.accept(notification);
+        }
+    }
+    
     // 保存通知到历史记录
     private void saveNotificationToHistory(NotificationDTO notification) {
-        notificationHistory.computeIfAbsent(notification.getDeviceId() != null ? notification.getDeviceId() : "all", 
-            k -> new ArrayList<>()).add(0, notification);
-        
-        // 限制历史记录数量
-        List<NotificationDTO> history = notificationHistory.get(notification.getDeviceId() != null ? notification.getDeviceId() : "all");
-        if (history.size() > 100) {
-            history.subList(100, history.size()).clear();
+        String key = streamKey(notification);
+        notificationIndex.put(notification.getId(), notification);
+        NotificationDTO evicted = notificationHistory.computeIfAbsent(key, k -> new NotificationRingBuffer(resolveCapacity(k)))
+            .publish(notification);
+        if (evicted != null) {
+            notificationIndex.remove(evicted.getId(), evicted);
         }
+        signalPollWaiters(key);
+    }
+    
+    private String streamKey(NotificationDTO notification) {
+        return notification.getDeviceId() != null ? notification.getDeviceId() : "all";
     }
     
-    // 获取设备的通知历史
+    // 根据设备类别确定历史记录容量
+    private int resolveCapacity(String key) {
+        int capacity = defaultHistoryCapacity;
+        int matchedLength = -1;
+        for (Map.Entry<String, Integer> entry : classHistoryCapacities.entrySet()) {
+            String prefix = entry.getKey();
+            if (key.startsWith(prefix) && prefix.length() > matchedLength) {
+                capacity = entry.getValue();
+                matchedLength = prefix.length();
+            }
+        }
+        return capacity;
+    }
+    
+    // 获取设备的通知历史（按时间倒序）
     public List<NotificationDTO> getDeviceNotifications(String deviceId) {
-        return notificationHistory.getOrDefault(deviceId, new ArrayList<>());
+        return getDeviceNotifications(deviceId, Integer.MAX_VALUE);
+    }
+    
+    // 获取设备最近的limit条通知
+    public List<NotificationDTO> getDeviceNotifications(String deviceId, int limit) {
+        NotificationRingBuffer history = notificationHistory.get(deviceId);
+        return history != null ? history.snapshot(limit) : Collections.emptyList();
     }
     
     // 获取所有通知历史
     public List<NotificationDTO> getAllNotifications() {
-        return notificationHistory.getOrDefault("all", new ArrayList<>());
+        return getDeviceNotifications("all");
     }
     
-    // 标记通知为已读
-    public void markNotificationAsRead(String notificationId) {
-        for (List<NotificationDTO> history : notificationHistory.values()) {
-            for (NotificationDTO notification : history) {
-                if (notification.getId().equals(notificationId)) {
-                    notification.setRead(true);
-                    break;
-                }
+    // 获取最近的limit条通知
+    public List<NotificationDTO> getAllNotifications(int limit) {
+        return getDeviceNotifications("all", limit);
+    }
+    
+    // 增量轮询：返回游标之后的通知（按序号升序）
+    public List<NotificationDTO> pollNotifications(String key, long cursor, int limit) {
+        NotificationRingBuffer history = notificationHistory.get(key);
+        if (history == null) {
+            return Collections.emptyList();
+        }
+        // 游标超过当前最新序号说明通知流已被清空重建，从头读取
+        if (cursor > history.latestSequence()) {
+            cursor = -1;
+        }
+        return history.readAfter(cursor, limit);
+    }
+    
+    // 将时间戳转换为游标（兼容按lastTimestamp轮询的客户端）
+    public long cursorAfterTimestamp(String key, long timestamp) {
+        NotificationRingBuffer history = notificationHistory.get(key);
+        return history != null ? history.cursorAfterTimestamp(timestamp) : -1;
+    }
+    
+    // 通知流当前最新序号，没有通知时为-1
+    public long getLatestSequence(String key) {
+        NotificationRingBuffer history = notificationHistory.get(key);
+        return history != null ? history.latestSequence() : -1;
+    }
+    
+    // 通知流中仍保留的最早序号
+    public long getOldestSequence(String key) {
+        NotificationRingBuffer history = notificationHistory.get(key);
+        return history != null ? history.oldestSequence() : 0;
+    }
+    
+    // 注册长轮询等待者，通知流有新通知时回调一次
+    public void addPollWaiter(String key, Runnable waiter) {
+        pollWaiters.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(waiter);
+    }
+    
+    public void removePollWaiter(String key, Runnable waiter) {
+        Set<Runnable> waiters = pollWaiters.get(key);
+        if (waiters != null) {
+            waiters.remove(waiter);
+        }
+    }
+    
+    private void signalPollWaiters(String key) {
+        Set<Runnable> waiters = pollWaiters.get(key);
+        if (waiters == null || waiters.isEmpty()) {
+            return;
+        }
+        for (Runnable waiter : waiters) {
+            // 只有成功移除的线程执行回调，保证每个等待者只被唤醒一次
+            if (waiters.remove(waiter)) {
+                waiter.run();
             }
         }
     }
     
+    // 标记通知为已读，返回是否找到该通知
+    public boolean markNotificationAsRead(String notificationId) {
+        NotificationDTO notification = notificationIndex.get(notificationId);
+        if (notification == null) {
+            return false;
+        }
+        NotificationRingBuffer history = notificationHistory.get(streamKey(notification));
+        if (history != null) {
+            history.markRead(notification);
+        } else {
+            notification.setRead(true);
+        }
+        return true;
+    }
+    
+    // 将设备通知流中序号不超过upToSequence的通知全部标记为已读
+    public int markAllAsRead(String key, long upToSequence) {
+        NotificationRingBuffer history = notificationHistory.get(key);
+        return history != null ? history.markReadUpTo(upToSequence) : 0;
+    }
+    
+    // 获取通知流的未读数（由计数器维护，无需扫描）
+    public int getUnreadCount(String key) {
+        NotificationRingBuffer history = notificationHistory.get(key);
+        return history != null ? history.getUnreadCount() : 0;
+    }
+    
+    // 获取所有通知流的未读数
+    public Map<String, Integer> getUnreadCounts() {
+        Map<String, Integer> counts = new HashMap<>();
+        notificationHistory.forEach((key, history) -> counts.put(key, history.getUnreadCount()));
+        return counts;
+    }
+    
     // 清空设备的通知历史
     public void clearDeviceNotifications(String deviceId) {
-        notificationHistory.remove(deviceId);
+        NotificationRingBuffer history = notificationHistory.remove(deviceId);
+        if (history != null) {
+            for (NotificationDTO notification : history.snapshot()) {
+                notificationIndex.remove(notification.getId(), notification);
+            }
+        }
     }
 }
\ No newline at end of file
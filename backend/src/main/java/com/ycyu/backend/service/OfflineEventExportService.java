@@ -0,0 +1,188 @@
+package com.ycyu.backend.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ycyu.backend.dto.OfflineEventDTO;
+import com.ycyu.backend.dto.OfflineEventFilter;
+import com.ycyu.backend.repository.OfflineEventRepository;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+
+// 离线事件流式导出（NDJSON / CSV）：数据库逐行读取、逐行写出，内存占用与导出行数无关
+@Service
+public class OfflineEventExportService {
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv;charset=UTF-8", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public static Format parse(String value) {
+            try {
+                return Format.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("不支持的导出格式: " + value + "，可选 ndjson / csv");
+            }
+        }
+    }
+
+    private static final int WRITE_BUFFER_CHARS = 64 * 1024;
+
+    @Autowired
+    private OfflineEventRepository offlineEventRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // JDBC每次从数据库取回的行数。MySQL驱动只有在 Integer.MIN_VALUE 时才逐行流式读取，否则会把整个结果集读入内存
+    @Value("${offline-event.export.fetch-size:" + Integer.MIN_VALUE + "}")
+    private int fetchSize;
+
+    // 导出期间一直占用一个数据库连接，限制同时进行的导出数，避免占满连接池
+    @Value("${offline-event.export.max-concurrent:2}")
+    private int maxConcurrent;
+
+    private Semaphore exportPermits;
+
+    @PostConstruct
+    public void init() {
+        exportPermits = new Semaphore(maxConcurrent);
+    }
+
+    // 导出符合条件的事件到输出流，返回导出行数；条件为空时导出全部设备。
+    // 条件无效或导出数已满时在写出任何数据之前抛出异常
+    public long export(OfflineEventFilter filter, Format format, boolean includeData, OutputStream out) throws IOException {
+        if (filter.getStartTime() != null && filter.getEndTime() != null
+                && filter.getStartTime().isAfter(filter.getEndTime())) {
+            throw new IllegalArgumentException("startTime 不能晚于 endTime");
+        }
+        if (!exportPermits.tryAcquire()) {
+            throw new IllegalStateException("同时进行的导出已达上限(" + maxConcurrent + ")，请稍后重试");
+        }
+        long start = System.currentTimeMillis();
+        long rows;
+        try {
+            rows = format == Format.CSV ? exportCsv(filter, includeData, out) : exportNdjson(filter, includeData, out);
+        } catch (UncheckedIOException e) {
+            // 写出失败（通常是客户端断开），查询已被取消
+            throw e.getCause();
+        } finally {
+            exportPermits.release();
+        }
+        System.out.println("📤 导出离线事件: " + filter + ", 格式=" + format + ", 行数=" + rows
+                + ", 耗时=" + (System.currentTimeMillis() - start) + "ms");
+        return rows;
+    }
+
+    private long exportNdjson(OfflineEventFilter filter, boolean includeData, OutputStream out) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            // 不关闭响应流，由容器负责
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            long rows = offlineEventRepository.streamEvents(filter, includeData, fetchSize, event -> {
+                try {
+                    generator.writeStartObject();
+                    generator.writeNumberField("id", event.getId());
+                    generator.writeStringField("deviceId", event.getDeviceId());
+                    generator.writeStringField("eventTime", event.getEventTime() == null ? null : event.getEventTime().toString());
+                    generator.writeStringField("eventType", event.getEventType());
+                    generator.writeStringField("description", event.getDescription());
+                    generator.writeBooleanField("processed", event.isProcessed());
+                    if (includeData) {
+                        generator.writeStringField("eventData", event.getEventData());
+                    }
+                    generator.writeEndObject();
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.flush();
+            return rows;
+        }
+    }
+
+    private long exportCsv(OfflineEventFilter filter, boolean includeData, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER_CHARS);
+        // 带BOM，Excel打开时按UTF-8识别中文
+        writer.write('\uFEFF');
+        writer.write(includeData
+                ? "id,deviceId,eventTime,eventType,description,processed,eventData\r\n"
+                : "id,deviceId,eventTime,eventType,description,processed\r\n");
+        long rows = offlineEventRepository.streamEvents(filter, includeData, fetchSize, event -> {
+            try {
+                writer.write(String.valueOf(event.getId()));
+                writer.write(',');
+                writeCsvField(writer, event.getDeviceId());
+                writer.write(',');
+                writeCsvField(writer, event.getEventTime() == null ? null : event.getEventTime().toString());
+                writer.write(',');
+                writeCsvField(writer, event.getEventType());
+                writer.write(',');
+                writeCsvField(writer, event.getDescription());
+                writer.write(',');
+                writer.write(event.isProcessed() ? "true" : "false");
+                if (includeData) {
+                    writer.write(',');
+                    writeCsvField(writer, event.getEventData());
+                }
+                writer.write("\r\n");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        writer.flush();
+        return rows;
+    }
+
+    // RFC 4180：含逗号、引号或换行的字段加引号，内部引号加倍
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+}
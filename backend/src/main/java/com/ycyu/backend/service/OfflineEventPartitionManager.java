@@ -0,0 +1,133 @@
+package com.ycyu.backend.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// offline_events 按 expires_at 范围分区（MySQL，见 docker/mysql/init.sql）时的分区维护：
+// 预先创建覆盖最长保留期的分区，整块删除已全部过期的分区，不再逐行删除。
+// 表未分区（H2、未迁移的旧库）时不做任何操作，由保留期任务分块删除
+@Component
+public class OfflineEventPartitionManager {
+
+    private static final String MAX_PARTITION = "pmax";
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private volatile Boolean mySql;
+
+    // 一个分区：存放 expires_at < upperBound 的数据，upperBound 为空表示 MAXVALUE；rows 为统计信息中的估算行数
+    private record Partition(String name, LocalDate upperBound, long rows) {
+    }
+
+    // 表是否已按 expires_at 分区
+    public boolean isPartitioned() {
+        return !listPartitions().isEmpty();
+    }
+
+    // 确保分区覆盖到 horizon（不含），新分区每个跨 partitionDays 天，从 MAXVALUE 分区中拆出；返回新建数量
+    public int ensurePartitions(LocalDate horizon, int partitionDays) {
+        List<Partition> partitions = listPartitions();
+        if (partitions.isEmpty()) {
+            return 0;
+        }
+        LocalDate last = null;
+        boolean hasMax = false;
+        long maxRows = 0;
+        for (Partition partition : partitions) {
+            if (partition.upperBound() == null) {
+                hasMax = true;
+                maxRows = partition.rows();
+            } else if (last == null || partition.upperBound().isAfter(last)) {
+                last = partition.upperBound();
+            }
+        }
+        LocalDate next = last == null ? LocalDate.now().plusDays(partitionDays) : last.plusDays(partitionDays);
+        List<String> definitions = new ArrayList<>();
+        while (last == null || last.isBefore(horizon)) {
+            definitions.add("PARTITION p" + next.format(NAME_FORMAT) + " VALUES LESS THAN ('" + next + " 00:00:00')");
+            last = next;
+            next = next.plusDays(partitionDays);
+        }
+        int created = definitions.size();
+        if (created == 0) {
+            return 0;
+        }
+        // 拆分 MAXVALUE 分区会复制其中的全部数据并阻塞写入，只在它为空时在线拆分；
+        // 不为空（分区未按迁移脚本预建、或保留天数调大后超出已有分区）时需在维护窗口处理
+        if (hasMax && maxRows > 0) {
+            System.err.println("⚠️ 离线事件表 " + MAX_PARTITION + " 分区中约有 " + maxRows
+                    + " 行数据，跳过在线拆分，请在维护窗口调用 partition_offline_events 重新划分分区（见 docker/mysql/migrate-offline-events-partitioning.sql）");
+            return 0;
+        }
+        if (hasMax) {
+            definitions.add("PARTITION " + MAX_PARTITION + " VALUES LESS THAN (MAXVALUE)");
+            jdbcTemplate.execute("ALTER TABLE offline_events REORGANIZE PARTITION " + MAX_PARTITION
+                    + " INTO (" + String.join(", ", definitions) + ")");
+        } else {
+            jdbcTemplate.execute("ALTER TABLE offline_events ADD PARTITION (" + String.join(", ", definitions) + ")");
+        }
+        System.out.println("🗂️ 离线事件表新增分区: " + created + " 个，覆盖到 " + last);
+        return created;
+    }
+
+    // 删除上界不晚于 cutoff 的分区（其中数据均已过期），返回删除的分区名
+    public List<String> dropExpiredPartitions(LocalDateTime cutoff) {
+        List<String> expired = new ArrayList<>();
+        for (Partition partition : listPartitions()) {
+            if (partition.upperBound() != null && !partition.upperBound().atStartOfDay().isAfter(cutoff)) {
+                expired.add(partition.name());
+            }
+        }
+        if (!expired.isEmpty()) {
+            jdbcTemplate.execute("ALTER TABLE offline_events DROP PARTITION " + String.join(", ", expired));
+            System.out.println("🗂️ 删除过期分区: " + expired);
+        }
+        return expired;
+    }
+
+    private List<Partition> listPartitions() {
+        if (!isMySql()) {
+            return List.of();
+        }
+        List<Partition> partitions = new ArrayList<>();
+        for (Map<String, Object> row : jdbcTemplate.queryForList(
+                "SELECT PARTITION_NAME, PARTITION_DESCRIPTION, TABLE_ROWS FROM information_schema.PARTITIONS "
+                        + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'offline_events' AND PARTITION_NAME IS NOT NULL "
+                        + "ORDER BY PARTITION_ORDINAL_POSITION")) {
+            Number rows = (Number) row.get("TABLE_ROWS");
+            partitions.add(new Partition((String) row.get("PARTITION_NAME"),
+                    parseBound((String) row.get("PARTITION_DESCRIPTION")), rows == null ? 0 : rows.longValue()));
+        }
+        return partitions;
+    }
+
+    // RANGE COLUMNS 分区的描述形如 '2026-11-01 00:00:00' 或 MAXVALUE
+    private static LocalDate parseBound(String description) {
+        if (description == null || description.equalsIgnoreCase("MAXVALUE")) {
+            return null;
+        }
+        String value = description.replace("'", "").trim();
+        return LocalDate.parse(value.substring(0, 10));
+    }
+
+    // 只有MySQL支持这里使用的分区语法
+    private boolean isMySql() {
+        if (mySql == null) {
+            String product = jdbcTemplate.execute(
+                    (ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+            mySql = product != null && product.toLowerCase().contains("mysql");
+        }
+        return mySql;
+    }
+}
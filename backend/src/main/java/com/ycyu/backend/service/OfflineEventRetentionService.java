@@ -0,0 +1,275 @@
+package com.ycyu.backend.service;
+
+import com.ycyu.backend.repository.OfflineEventDailyRollupRepository;
+import com.ycyu.backend.repository.OfflineEventRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 离线事件保留期：写入时按事件类型计算过期时间，定时任务先把已结束的日期汇总到每日汇总表，
+// 再清理过期数据（分区表整块删除分区，否则分块删除）。未汇总日期的数据不会被清理
+@Service
+public class OfflineEventRetentionService {
+
+    @Autowired
+    private OfflineEventRepository offlineEventRepository;
+
+    @Autowired
+    private OfflineEventDailyRollupRepository rollupRepository;
+
+    @Autowired
+    private OfflineEventPartitionManager partitionManager;
+
+    @Value("${offline-event.retention.enabled:true}")
+    private boolean enabled;
+
+    // 按事件类型配置的保留天数，未配置的类型使用默认值
+    @Value("#{${offline-event.retention.ttl-days:{:}}}")
+    private Map<String, Integer> ttlDays;
+
+    @Value("${offline-event.retention.default-ttl-days:365}")
+    private int defaultTtlDays;
+
+    @Value("${offline-event.retention.interval-ms:3600000}")
+    private long intervalMs;
+
+    @Value("${offline-event.retention.initial-delay-ms:60000}")
+    private long initialDelayMs;
+
+    // 每条 DELETE/UPDATE 语句最多影响的行数
+    @Value("${offline-event.retention.chunk-size:1000}")
+    private int chunkSize;
+
+    // 分区表每个分区覆盖的天数
+    @Value("${offline-event.retention.partition-days:30}")
+    private int partitionDays;
+
+    @Value("${offline-event.rollup.enabled:true}")
+    private boolean rollupEnabled;
+
+    // 每次最多补算的天数，首次在大表上启用时分多次追平
+    @Value("${offline-event.rollup.max-days-per-run:31}")
+    private int rollupMaxDaysPerRun;
+
+    private ScheduledExecutorService scheduler;
+    // 持锁期间会访问数据库，使用ReentrantLock避免钉住虚拟线程
+    private final ReentrantLock runLock = new ReentrantLock();
+
+    // 已汇总到（含）的日期，早于次日零点的数据才允许清理
+    private volatile LocalDate rolledUpThrough;
+
+    // 统计信息
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong purgedEvents = new AtomicLong();
+    private final AtomicLong droppedPartitions = new AtomicLong();
+    private final AtomicLong backfilledEvents = new AtomicLong();
+    private final AtomicLong rolledUpDays = new AtomicLong();
+    private volatile long lastRunMillis;
+    private volatile long lastRunAt;
+    private volatile String lastError;
+
+    @PostConstruct
+    public void start() {
+        if (ttlDays == null) {
+            ttlDays = new HashMap<>();
+        }
+        if (!enabled) {
+            System.out.println("🧹 离线事件保留期清理未启用");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "offline-event-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::runSafely, initialDelayMs, intervalMs, TimeUnit.MILLISECONDS);
+        System.out.println("🧹 离线事件保留期清理已启动: 间隔=" + intervalMs + "ms, 保留天数=" + ttlDays
+                + ", 默认=" + defaultTtlDays + "天");
+    }
+
+    // 写入时计算过期时间
+    public LocalDateTime expiresAt(String eventType, LocalDateTime eventTime) {
+        return eventTime.plusDays(ttlDaysOf(eventType));
+    }
+
+    private int ttlDaysOf(String eventType) {
+        Integer days = eventType == null ? null : ttlDays.get(eventType);
+        return days != null ? days : defaultTtlDays;
+    }
+
+    private int maxTtlDays() {
+        int max = defaultTtlDays;
+        for (int days : ttlDays.values()) {
+            max = Math.max(max, days);
+        }
+        return max;
+    }
+
+    private void runSafely() {
+        try {
+            runOnce();
+        } catch (Exception e) {
+            lastError = e.getMessage();
+            System.err.println("❌ 离线事件保留期任务失败: " + e.getMessage());
+        }
+    }
+
+    // 执行一轮：每日汇总 -> 补齐旧数据过期时间 -> 维护分区/清理过期数据，返回本轮统计
+    public Map<String, Object> runOnce() {
+        runLock.lock();
+        try {
+            long start = System.currentTimeMillis();
+            int days = rollupEnabled ? rollup() : 0;
+            long backfilled = backfillExpiresAt();
+            LocalDateTime cutoff = purgeCutoff();
+            List<String> dropped = List.of();
+            long purged = 0;
+            if (partitionManager.isPartitioned()) {
+                partitionManager.ensurePartitions(LocalDate.now().plusDays(maxTtlDays() + partitionDays), partitionDays);
+                dropped = partitionManager.dropExpiredPartitions(cutoff);
+                droppedPartitions.addAndGet(dropped.size());
+            } else {
+                purged = purgeExpired(cutoff);
+            }
+
+            lastRunMillis = System.currentTimeMillis() - start;
+            lastRunAt = System.currentTimeMillis();
+            lastError = null;
+            runs.incrementAndGet();
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("rolledUpDays", days);
+            result.put("rolledUpThrough", rolledUpThrough);
+            result.put("backfilled", backfilled);
+            result.put("cutoff", cutoff);
+            result.put("purged", purged);
+            result.put("droppedPartitions", dropped);
+            result.put("elapsedMs", lastRunMillis);
+            if (days > 0 || backfilled > 0 || purged > 0 || !dropped.isEmpty()) {
+                System.out.println("🧹 离线事件保留期任务: 汇总" + days + "天, 补齐过期时间" + backfilled
+                        + "条, 删除" + purged + "条, 删除分区" + dropped.size() + "个, 耗时" + lastRunMillis + "ms");
+            }
+            return result;
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    // 汇总已结束的日期（到昨天为止），从上次汇总的下一天开始
+    private int rollup() {
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        if (rolledUpThrough == null) {
+            rolledUpThrough = rollupRepository.findLastRollupDate();
+        }
+        LocalDate day;
+        if (rolledUpThrough != null) {
+            day = rolledUpThrough.plusDays(1);
+        } else {
+            // 首次汇总从最早的事件开始
+            LocalDateTime earliest = offlineEventRepository.findEarliestEventTime();
+            if (earliest == null) {
+                rolledUpThrough = yesterday;
+                return 0;
+            }
+            day = earliest.toLocalDate();
+        }
+        int count = 0;
+        while (!day.isAfter(yesterday) && count < rollupMaxDaysPerRun) {
+            offlineEventRepository.rollupDay(day);
+            rolledUpThrough = day;
+            rolledUpDays.incrementAndGet();
+            count++;
+            day = day.plusDays(1);
+        }
+        return count;
+    }
+
+    // 清理截止时间：当前时间，且不晚于尚未汇总的第一天
+    private LocalDateTime purgeCutoff() {
+        LocalDateTime now = LocalDateTime.now();
+        if (!rollupEnabled || rolledUpThrough == null) {
+            return rollupEnabled ? LocalDate.now().minusDays(1).atStartOfDay() : now;
+        }
+        LocalDateTime rolledUntil = rolledUpThrough.plusDays(1).atStartOfDay();
+        return rolledUntil.isBefore(now) ? rolledUntil : now;
+    }
+
+    // 旧数据（过期时间列加入之前写入的）按当前配置补齐过期时间
+    private long backfillExpiresAt() {
+        long total = 0;
+        for (Map.Entry<String, Integer> entry : ttlDays.entrySet()) {
+            total += repeatChunks(() -> offlineEventRepository.backfillExpiresAtChunk(
+                    List.of(entry.getKey()), false, entry.getValue(), chunkSize));
+        }
+        total += repeatChunks(() -> offlineEventRepository.backfillExpiresAtChunk(
+                ttlDays.keySet(), true, defaultTtlDays, chunkSize));
+        backfilledEvents.addAndGet(total);
+        return total;
+    }
+
+    private long purgeExpired(LocalDateTime cutoff) {
+        long total = repeatChunks(() -> offlineEventRepository.purgeExpiredChunk(cutoff, chunkSize));
+        purgedEvents.addAndGet(total);
+        return total;
+    }
+
+    // 分块执行直到某一块不满，每块单独提交
+    private long repeatChunks(ChunkStatement statement) {
+        long total = 0;
+        int affected;
+        do {
+            affected = statement.execute();
+            total += affected;
+        } while (affected == chunkSize);
+        return total;
+    }
+
+    private interface ChunkStatement {
+        int execute();
+    }
+
+    public long getPurgedCount() {
+        return purgedEvents.get();
+    }
+
+    // 获取保留期任务统计信息
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("ttlDays", ttlDays);
+        stats.put("defaultTtlDays", defaultTtlDays);
+        stats.put("intervalMs", intervalMs);
+        stats.put("partitionDays", partitionDays);
+        stats.put("rollupEnabled", rollupEnabled);
+        stats.put("rolledUpThrough", rolledUpThrough);
+        stats.put("runs", runs.get());
+        stats.put("purgedEvents", purgedEvents.get());
+        stats.put("droppedPartitions", droppedPartitions.get());
+        stats.put("backfilledEvents", backfilledEvents.get());
+        stats.put("rolledUpDays", rolledUpDays.get());
+        stats.put("lastRunMillis", lastRunMillis);
+        stats.put("lastRunAt", lastRunAt);
+        stats.put("lastError", lastError);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
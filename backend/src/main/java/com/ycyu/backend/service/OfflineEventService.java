@@ -1,12 +1,23 @@
 package com.ycyu.backend.service;
 
+import com.ycyu.backend.dto.OfflineEventDTO;
+import com.ycyu.backend.dto.OfflineEventFilter;
+import com.ycyu.backend.dto.OfflineEventPage;
 import com.ycyu.backend.entity.OfflineEvent;
 import com.ycyu.backend.repository.OfflineEventRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class OfflineEventService {
@@ -17,15 +28,26 @@ public class OfflineEventService {
     @Autowired
     private MqttService mqttService;
     
-    // 记录离线事件
+    @Autowired
+    private OfflineEventWriteBuffer offlineEventWriteBuffer;
+    
+    @Autowired
+    private OfflineEventRetentionService offlineEventRetentionService;
+    
+    // 列表查询的默认/最大每页条数
+    @Value("${offline-event.query.default-page-size:50}")
+    private int defaultPageSize;
+    
+    @Value("${offline-event.query.max-page-size:500}")
+    private int maxPageSize;
+    
+    // 批量处理/删除时每条语句最多影响的行数
+    @Value("${offline-event.bulk.chunk-size:1000}")
+    private int bulkChunkSize;
+    
+    // 记录离线事件（同步写入，返回带ID的事件）
     public OfflineEvent recordEvent(String deviceId, String eventType, String eventData, String description) {
-        OfflineEvent event = new OfflineEvent();
-        event.setDeviceId(deviceId);
-        event.setEventTime(LocalDateTime.now());
-        event.setEventType(eventType);
-        event.setEventData(eventData);
-        event.setDescription(description);
-        event.setProcessed(false);
+        OfflineEvent event = buildEvent(deviceId, eventType, eventData, description);
         
         OfflineEvent savedEvent = offlineEventRepository.save(event);
         
@@ -36,19 +58,56 @@ public class OfflineEventService {
         return savedEvent;
     }
     
-    // 获取设备的离线事件列表
-    public List<OfflineEvent> getDeviceEvents(String deviceId) {
-        return offlineEventRepository.findByDeviceIdOrderByEventTimeDesc(deviceId);
+    // 提交离线事件到写缓冲，异步批量写入（设备消息处理路径使用）
+    public void submitEvent(String deviceId, String eventType, String eventData, String description) {
+        OfflineEvent event = buildEvent(deviceId, eventType, eventData, description);
+        offlineEventWriteBuffer.submit(event);
+        
+        // 更新设备状态中的离线事件计数
+        mqttService.recordOfflineEvent(deviceId);
+    }
+    
+    private OfflineEvent buildEvent(String deviceId, String eventType, String eventData, String description) {
+        OfflineEvent event = new OfflineEvent();
+        event.setDeviceId(deviceId);
+        event.setEventTime(LocalDateTime.now());
+        event.setEventType(eventType);
+        event.setExpiresAt(offlineEventRetentionService.expiresAt(eventType, event.getEventTime()));
+        event.setEventData(eventData);
+        event.setDescription(description);
+        event.setProcessed(false);
+        return event;
+    }
+    
+    // 获取设备的离线事件（新的在前，游标分页）
+    public OfflineEventPage getDeviceEvents(String deviceId, String cursor, Integer limit, boolean includeData) {
+        int pageSize = pageSize(limit);
+        Cursor after = Cursor.decode(cursor);
+        List<OfflineEventDTO> rows = after == null
+                ? offlineEventRepository.findDevicePage(deviceId, Limit.of(pageSize + 1))
+                : offlineEventRepository.findDevicePageBefore(deviceId, after.eventTime(), after.id(), Limit.of(pageSize + 1));
+        return toPage(rows, pageSize, includeData);
     }
     
-    // 获取未处理的离线事件
-    public List<OfflineEvent> getUnprocessedEvents() {
-        return offlineEventRepository.findByProcessedFalseOrderByEventTimeAsc();
+    // 获取未处理的离线事件（旧的在前，游标分页）
+    public OfflineEventPage getUnprocessedEvents(String cursor, Integer limit, boolean includeData) {
+        int pageSize = pageSize(limit);
+        Cursor after = Cursor.decode(cursor);
+        List<OfflineEventDTO> rows = after == null
+                ? offlineEventRepository.findUnprocessedPage(Limit.of(pageSize + 1))
+                : offlineEventRepository.findUnprocessedPageAfter(after.eventTime(), after.id(), Limit.of(pageSize + 1));
+        return toPage(rows, pageSize, includeData);
     }
     
-    // 获取设备的未处理离线事件
-    public List<OfflineEvent> getDeviceUnprocessedEvents(String deviceId) {
-        return offlineEventRepository.findByDeviceIdAndProcessedFalseOrderByEventTimeAsc(deviceId);
+    // 获取设备的未处理离线事件（旧的在前，游标分页）
+    public OfflineEventPage getDeviceUnprocessedEvents(String deviceId, String cursor, Integer limit, boolean includeData) {
+        int pageSize = pageSize(limit);
+        Cursor after = Cursor.decode(cursor);
+        List<OfflineEventDTO> rows = after == null
+                ? offlineEventRepository.findDeviceUnprocessedPage(deviceId, Limit.of(pageSize + 1))
+                : offlineEventRepository.findDeviceUnprocessedPageAfter(deviceId, after.eventTime(), after.id(),
+                        Limit.of(pageSize + 1));
+        return toPage(rows, pageSize, includeData);
     }
     
     // 处理离线事件
@@ -61,30 +120,140 @@ public class OfflineEventService {
         }
     }
     
-    // 批量处理设备的离线事件
-    public void processDeviceEvents(String deviceId) {
-        List<OfflineEvent> events = offlineEventRepository.findByDeviceIdAndProcessedFalseOrderByEventTimeAsc(deviceId);
-        for (OfflineEvent event : events) {
-            event.setProcessed(true);
+    // 批量处理设备的离线事件，返回处理条数
+    public long processDeviceEvents(String deviceId) {
+        return markProcessed(OfflineEventFilter.forDevice(deviceId));
+    }
+    
+    // 将符合条件的未处理事件标记为已处理：按块执行单条UPDATE，不加载实体
+    public long markProcessed(OfflineEventFilter filter) {
+        requireCondition(filter);
+        long start = System.currentTimeMillis();
+        long affected = 0;
+        int chunk;
+        do {
+            chunk = offlineEventRepository.markProcessedChunk(filter, bulkChunkSize);
+            affected += chunk;
+        } while (chunk == bulkChunkSize);
+        System.out.println("✅ 批量处理离线事件: " + filter + ", 数量=" + affected
+                + ", 耗时=" + (System.currentTimeMillis() - start) + "ms");
+        return affected;
+    }
+    
+    // 删除符合条件的事件：按块执行单条DELETE，不加载实体
+    public long deleteEvents(OfflineEventFilter filter) {
+        requireCondition(filter);
+        long start = System.currentTimeMillis();
+        long affected = 0;
+        int chunk;
+        do {
+            chunk = offlineEventRepository.deleteChunk(filter, bulkChunkSize);
+            affected += chunk;
+        } while (chunk == bulkChunkSize);
+        System.out.println("🗑️ 批量删除离线事件: " + filter + ", 数量=" + affected
+                + ", 耗时=" + (System.currentTimeMillis() - start) + "ms");
+        return affected;
+    }
+    
+    // 不允许无条件的批量修改
+    private static void requireCondition(OfflineEventFilter filter) {
+        if (filter == null || filter.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个筛选条件: deviceId / eventType / startTime / endTime / maxId");
         }
-        offlineEventRepository.saveAll(events);
-        System.out.println("✅ 批量处理设备离线事件: 设备ID=" + deviceId + ", 数量=" + events.size());
+        if (filter.getStartTime() != null && filter.getEndTime() != null
+                && filter.getStartTime().isAfter(filter.getEndTime())) {
+            throw new IllegalArgumentException("startTime 不能晚于 endTime");
+        }
+    }
+    
+    // 获取指定时间范围内的设备事件（新的在前，游标分页）
+    public OfflineEventPage getDeviceEventsByTimeRange(String deviceId, LocalDateTime startTime, LocalDateTime endTime,
+                                                       String cursor, Integer limit, boolean includeData) {
+        int pageSize = pageSize(limit);
+        Cursor after = Cursor.decode(cursor);
+        List<OfflineEventDTO> rows = after == null
+                ? offlineEventRepository.findDeviceTimeRangePage(deviceId, startTime, endTime, Limit.of(pageSize + 1))
+                : offlineEventRepository.findDeviceTimeRangePageBefore(deviceId, startTime, endTime,
+                        after.eventTime(), after.id(), Limit.of(pageSize + 1));
+        return toPage(rows, pageSize, includeData);
     }
     
-    // 获取指定时间范围内的设备事件
-    public List<OfflineEvent> getDeviceEventsByTimeRange(String deviceId, LocalDateTime startTime, LocalDateTime endTime) {
-        return offlineEventRepository.findByDeviceIdAndEventTimeBetweenOrderByEventTimeDesc(deviceId, startTime, endTime);
+    // 获取设备的指定类型事件（新的在前，游标分页）
+    public OfflineEventPage getDeviceEventsByType(String deviceId, String eventType,
+                                                  String cursor, Integer limit, boolean includeData) {
+        int pageSize = pageSize(limit);
+        Cursor after = Cursor.decode(cursor);
+        List<OfflineEventDTO> rows = after == null
+                ? offlineEventRepository.findDeviceTypePage(deviceId, eventType, Limit.of(pageSize + 1))
+                : offlineEventRepository.findDeviceTypePageBefore(deviceId, eventType, after.eventTime(), after.id(),
+                        Limit.of(pageSize + 1));
+        return toPage(rows, pageSize, includeData);
     }
     
-    // 获取设备的指定类型事件
-    public List<OfflineEvent> getDeviceEventsByType(String deviceId, String eventType) {
-        return offlineEventRepository.findByDeviceIdAndEventTypeOrderByEventTimeDesc(deviceId, eventType);
+    // 删除设备的所有事件，返回删除条数
+    public long deleteDeviceEvents(String deviceId) {
+        return deleteEvents(OfflineEventFilter.forDevice(deviceId));
+    }
+    
+    private int pageSize(Integer limit) {
+        if (limit == null) {
+            return defaultPageSize;
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit 必须大于0");
+        }
+        return Math.min(limit, maxPageSize);
     }
     
-    // 删除设备的所有事件
-    public void deleteDeviceEvents(String deviceId) {
-        List<OfflineEvent> events = offlineEventRepository.findByDeviceIdOrderByEventTimeDesc(deviceId);
-        offlineEventRepository.deleteAll(events);
-        System.out.println("🗑️ 删除设备事件: 设备ID=" + deviceId + ", 数量=" + events.size());
+    // 查询时多取一条判断是否还有下一页，下一页游标为本页最后一条的 (eventTime, id)
+    private OfflineEventPage toPage(List<OfflineEventDTO> rows, int pageSize, boolean includeData) {
+        String nextCursor = null;
+        List<OfflineEventDTO> events = rows;
+        if (rows.size() > pageSize) {
+            events = new ArrayList<>(rows.subList(0, pageSize));
+            nextCursor = Cursor.encode(events.get(pageSize - 1));
+        }
+        if (includeData && !events.isEmpty()) {
+            loadEventData(events);
+        }
+        return new OfflineEventPage(events, nextCursor);
+    }
+    
+    // 只为本页的事件加载 eventData，代价与页大小相关，与历史长度无关
+    private void loadEventData(List<OfflineEventDTO> events) {
+        List<Long> ids = new ArrayList<>(events.size());
+        for (OfflineEventDTO event : events) {
+            ids.add(event.getId());
+        }
+        Map<Long, String> data = new HashMap<>();
+        for (Object[] row : offlineEventRepository.findEventData(ids)) {
+            data.put((Long) row[0], (String) row[1]);
+        }
+        for (OfflineEventDTO event : events) {
+            event.setEventData(data.get(event.getId()));
+        }
+    }
+    
+    // 分页游标：上一页最后一条的 (eventTime, id)，对外编码为不透明字符串
+    private record Cursor(LocalDateTime eventTime, long id) {
+        
+        static String encode(OfflineEventDTO last) {
+            String raw = last.getEventTime() + "|" + last.getId();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        static Cursor decode(String cursor) {
+            if (cursor == null || cursor.isEmpty()) {
+                return null;
+            }
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.lastIndexOf('|');
+                return new Cursor(LocalDateTime.parse(raw.substring(0, separator)),
+                        Long.parseLong(raw.substring(separator + 1)));
+            } catch (IllegalArgumentException | DateTimeParseException | IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("无效的分页游标: " + cursor);
+            }
+        }
     }
 }
\ No newline at end of file
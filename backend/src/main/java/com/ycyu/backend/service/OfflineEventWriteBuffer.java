@@ -0,0 +1,189 @@
+package com.ycyu.backend.service;
+
+import com.ycyu.backend.entity.OfflineEvent;
+import com.ycyu.backend.repository.OfflineEventRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 离线事件写缓冲：收集事件后按批次（满N条或每T毫秒）批量插入数据库
+@Component
+public class OfflineEventWriteBuffer {
+
+    @Autowired
+    private OfflineEventRepository offlineEventRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private BackendMetrics backendMetrics;
+
+    @Value("${offline-event.write-buffer.batch-size:100}")
+    private int batchSize;
+
+    @Value("${offline-event.write-buffer.flush-interval-ms:500}")
+    private long flushIntervalMs;
+
+    @Value("${offline-event.write-buffer.capacity:50000}")
+    private int capacity;
+
+    private BlockingQueue<OfflineEvent> pending;
+    private ScheduledExecutorService flusher;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    // 持锁期间会写数据库，使用ReentrantLock避免钉住虚拟线程
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    // 统计信息
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong flushedEvents = new AtomicLong();
+    private final AtomicLong flushedBatches = new AtomicLong();
+    private final AtomicLong failedEvents = new AtomicLong();
+    private final AtomicLong lastBatchSize = new AtomicLong();
+    private final AtomicLong lastFlushMillis = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        pending = new LinkedBlockingQueue<>(capacity);
+        alignIdSequence();
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "offline-event-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushSafely, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        System.out.println("📝 离线事件写缓冲已启动: 批大小=" + batchSize + ", 刷新间隔=" + flushIntervalMs + "ms");
+    }
+
+    // 旧数据使用自增主键写入，切换到序列分配后需保证序列分配的第一个ID块在当前最大ID之后。
+    // 序列值是块的上界，所以要对齐到 MAX(id) + 块大小，而不是 MAX(id) + 1
+    private void alignIdSequence() {
+        try {
+            jdbcTemplate.update(
+                "UPDATE offline_events_seq SET next_val = (SELECT COALESCE(MAX(id), 0) + ? FROM offline_events) " +
+                "WHERE next_val < (SELECT COALESCE(MAX(id), 0) + ? FROM offline_events)",
+                OfflineEvent.ID_ALLOCATION_SIZE, OfflineEvent.ID_ALLOCATION_SIZE);
+        } catch (Exception e) {
+            System.err.println("⚠️ 离线事件ID序列对齐失败: " + e.getMessage());
+        }
+    }
+
+    // 提交事件到缓冲区，达到批大小时提前触发刷新
+    public void submit(OfflineEvent event) {
+        submittedCount.incrementAndGet();
+        while (!pending.offer(event)) {
+            // 缓冲区已满，由调用线程同步刷新一批，形成背压
+            flush();
+        }
+        if (pending.size() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushScheduled.set(false);
+                flushSafely();
+            });
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            System.err.println("❌ 离线事件批量写入失败: " + e.getMessage());
+        }
+    }
+
+    // 将缓冲区内的事件按批次写入数据库
+    public void flush() {
+        flushLock.lock();
+        try {
+            List<OfflineEvent> batch = new ArrayList<>(batchSize);
+            while (pending.drainTo(batch, batchSize) > 0) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void writeBatch(List<OfflineEvent> batch) {
+        long start = System.nanoTime();
+        boolean fallback = false;
+        int failed = 0;
+        try {
+            offlineEventRepository.saveAll(batch);
+            flushedEvents.addAndGet(batch.size());
+        } catch (Exception e) {
+            // 整批失败时逐条重试，避免一条坏数据拖垮整批
+            System.err.println("⚠️ 批量写入失败，改为逐条写入: " + e.getMessage());
+            fallback = true;
+            for (OfflineEvent event : batch) {
+                try {
+                    event.setId(null);
+                    offlineEventRepository.save(event);
+                    flushedEvents.incrementAndGet();
+                } catch (Exception single) {
+                    failedEvents.incrementAndGet();
+                    failed++;
+                    System.err.println("❌ 离线事件写入失败: 设备ID=" + event.getDeviceId() + ", 类型=" + event.getEventType());
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        flushedBatches.incrementAndGet();
+        lastBatchSize.set(batch.size());
+        lastFlushMillis.set(TimeUnit.NANOSECONDS.toMillis(elapsed));
+        backendMetrics.recordEventBatch(batch.size(), elapsed, fallback);
+        if (failed > 0) {
+            backendMetrics.recordEventWriteFailures(failed);
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    // 获取写缓冲统计信息
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("batchSize", batchSize);
+        stats.put("flushIntervalMs", flushIntervalMs);
+        stats.put("pending", pending.size());
+        stats.put("submitted", submittedCount.get());
+        stats.put("flushedEvents", flushedEvents.get());
+        stats.put("flushedBatches", flushedBatches.get());
+        stats.put("failedEvents", failedEvents.get());
+        stats.put("lastBatchSize", lastBatchSize.get());
+        stats.put("lastFlushMillis", lastFlushMillis.get());
+        return stats;
+    }
+
+    // 关闭时停止定时刷新并写完剩余事件
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        System.out.println("📝 离线事件写缓冲已关闭，累计写入: " + flushedEvents.get());
+    }
+}
@@ -0,0 +1,14 @@
+package com.ycyu.backend;
+
+import org.springframework.boot.SpringApplication;
+
+// 本地压测入口：以 simulator 配置文件启动后端（内存数据库 + 内嵌Broker + 设备集群模拟器）。
+// 模拟器、压测接口和H2只在测试类路径上，不会打进生产jar
+public class SimulatorApplication {
+
+    public static void main(String[] args) {
+        SpringApplication application = new SpringApplication(BackendApplication.class);
+        application.setAdditionalProfiles("simulator");
+        application.run(args);
+    }
+}
@@ -0,0 +1,110 @@
+package com.ycyu.backend.controller;
+
+import com.ycyu.backend.service.DeviceFleetSimulator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/simulator")
+@ConditionalOnProperty(name = "simulator.enabled", havingValue = "true")
+public class SimulatorController {
+
+    @Autowired
+    private DeviceFleetSimulator deviceFleetSimulator;
+
+    // 启动一次设备集群模拟
+    @PostMapping("/start")
+    public ResponseEntity<Map<String, Object>> start(
+            @RequestParam(defaultValue = "1000") int devices,
+            @RequestParam(defaultValue = "120") long durationSec) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            response.put("success", true);
+            response.put("status", deviceFleetSimulator.start(devices, durationSec * 1000));
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "启动模拟失败: " + e.getMessage());
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    // 阶梯压测：依次按每个规模运行，结果通过 /report 查看
+    @PostMapping("/ladder")
+    public ResponseEntity<Map<String, Object>> ladder(
+            @RequestParam(defaultValue = "1000,10000,50000") String levels,
+            @RequestParam(defaultValue = "120") long durationSec) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            List<Integer> deviceLevels = new ArrayList<>();
+            for (String level : levels.split(",")) {
+                deviceLevels.add(Integer.parseInt(level.trim()));
+            }
+            deviceFleetSimulator.startLadder(deviceLevels, durationSec * 1000);
+            response.put("success", true);
+            response.put("message", "阶梯压测已开始: " + deviceLevels);
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "启动阶梯压测失败: " + e.getMessage());
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    // 提前结束模拟
+    @PostMapping("/stop")
+    public ResponseEntity<Map<String, Object>> stop() {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            deviceFleetSimulator.stop();
+            response.put("success", true);
+            response.put("message", "模拟已停止");
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "停止模拟失败: " + e.getMessage());
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+
+    // 当前运行状态和历史报告
+    @GetMapping("/report")
+    public ResponseEntity<Map<String, Object>> report() {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            response.put("success", true);
+            response.put("status", deviceFleetSimulator.status());
+            response.put("reports", deviceFleetSimulator.getReports());
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "获取报告失败: " + e.getMessage());
+            response.put("timestamp", System.currentTimeMillis());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+}
@@ -0,0 +1,696 @@
+package com.ycyu.backend.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.ycyu.backend.dto.NotificationDTO;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// 设备集群模拟器：按 esp8266.ino 的主题和消息格式模拟N台药盒，用于端到端压测。
+// 少量共享MQTT连接承载全部虚拟设备（每台设备各自订阅自己的 config/command 主题），
+// 周期上报STATUS，随机产生服药提醒/服药确认/紧急报警，并像固件一样响应配置同步和命令。
+// 与后端运行在同一JVM中，通过通知监听器测量"设备发布→前端推送"的延迟
+@Component
+@ConditionalOnProperty(name = "simulator.enabled", havingValue = "true")
+public class DeviceFleetSimulator implements DisposableBean {
+
+    private static final int MAX_MEDICINES = 10;
+    private static final int SUBSCRIBE_BATCH = 500;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    @Autowired
+    private NotificationService notificationService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MqttService mqttService;
+
+    @Autowired
+    private MqttInboundPipeline mqttInboundPipeline;
+
+    @Autowired
+    private OfflineEventWriteBuffer offlineEventWriteBuffer;
+
+    // 默认连接内嵌Broker的TCP端口，也可以指向外部Broker
+    @Value("${simulator.broker-url:tcp://localhost:${mqtt.embedded.port:1883}}")
+    private String brokerUrl;
+
+    @Value("${simulator.connections:8}")
+    private int connectionCount;
+
+    @Value("${simulator.max-inflight:1000}")
+    private int maxInflight;
+
+    // 与固件一致，每30秒上报一次状态
+    @Value("${simulator.status-interval-ms:30000}")
+    private long statusIntervalMs;
+
+    @Value("${simulator.tick-ms:100}")
+    private long tickMs;
+
+    // 每台设备每小时的服药提醒次数，以及提醒后确认服药的比例
+    @Value("${simulator.reminders-per-device-hour:1}")
+    private double remindersPerHour;
+
+    @Value("${simulator.taken-ratio:0.8}")
+    private double takenRatio;
+
+    @Value("${simulator.emergencies-per-device-hour:0.05}")
+    private double emergenciesPerHour;
+
+    @Value("${simulator.emergency-cancel-delay-ms:10000}")
+    private long emergencyCancelDelayMs;
+
+    @Value("${simulator.device-prefix:sim-}")
+    private String devicePrefix;
+
+    // 保留的历史报告数
+    @Value("${simulator.retained-reports:20}")
+    private int retainedReports;
+
+    private final ObjectMapper msgpackMapper = new ObjectMapper(new MessagePackFactory());
+    private final List<Map<String, Object>> reports = Collections.synchronizedList(new ArrayList<>());
+    private volatile Run current;
+    private volatile Thread ladderThread;
+
+    // 一台虚拟设备的状态，只在所属连接的回调线程和模拟器调度线程上修改
+    private static final class SimDevice {
+        final String id;
+        final String topicStatus;
+        final String topicEvents;
+        final String topicResponse;
+        final int connection;
+        final long bootedAt = System.currentTimeMillis();
+        volatile boolean booted;
+        volatile boolean msgpack;
+        volatile boolean emergency;
+        volatile String configVersion = "";
+        volatile int activeMedicines;
+
+        SimDevice(String id, int connection) {
+            this.id = id;
+            this.topicStatus = "medicinebox/" + id + "/status";
+            this.topicEvents = "medicinebox/" + id + "/events";
+            this.topicResponse = "medicinebox/" + id + "/response";
+            this.connection = connection;
+        }
+    }
+
+    // 一次模拟运行
+    private final class Run {
+        final int deviceCount;
+        final long durationMs;
+        final Map<String, SimDevice> devices = new HashMap<>();
+        final List<List<SimDevice>> slots = new ArrayList<>();
+        final List<MqttAsyncClient> clients = new ArrayList<>();
+        final ScheduledExecutorService scheduler;
+        final long startedAt = System.currentTimeMillis();
+        int slotCursor;
+
+        final Map<String, AtomicLong> sent = new ConcurrentHashMap<>();
+        final Map<String, AtomicLong> received = new ConcurrentHashMap<>();
+        final AtomicLong publishFailed = new AtomicLong();
+        final AtomicLong decodeFailed = new AtomicLong();
+        // 设备发布事件的时间（纳秒），收到对应通知时计算端到端延迟
+        final Map<String, Long> pendingEvents = new ConcurrentHashMap<>();
+        final Map<String, LatencyHistogram> endToEnd = new ConcurrentHashMap<>();
+        final Consumer<NotificationDTO> listener = this::onNotification;
+
+        final long gcCountStart;
+        final long gcTimeMsStart;
+        final long heapStartBytes;
+        final AtomicLong heapPeakBytes = new AtomicLong();
+
+        Run(int deviceCount, long durationMs) {
+            this.deviceCount = deviceCount;
+            this.durationMs = durationMs;
+            this.scheduler = Executors.newScheduledThreadPool(2, r -> {
+                Thread thread = new Thread(r, "fleet-sim");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long[] gc = gcTotals();
+            this.gcCountStart = gc[0];
+            this.gcTimeMsStart = gc[1];
+            this.heapStartBytes = heapUsed();
+        }
+
+        private void onNotification(NotificationDTO notification) {
+            String kind = notificationKind(notification);
+            if (kind == null || notification.getDeviceId() == null) {
+                return;
+            }
+            Long sentAt = pendingEvents.remove(notification.getDeviceId() + "|" + kind);
+            if (sentAt != null) {
+                endToEnd.computeIfAbsent(kind, k -> new LatencyHistogram())
+                        .record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentAt));
+            }
+        }
+    }
+
+    // 通知对应的设备事件类型
+    private static String notificationKind(NotificationDTO notification) {
+        String eventType = notification.getEventType();
+        if ("DEVICE_WARNING".equals(eventType)) {
+            String data = notification.getEventData();
+            if (data != null && data.contains("\"EMERGENCY\"")) {
+                return "EMERGENCY";
+            }
+            return null;
+        }
+        if ("MEDICATION_REMINDER".equals(eventType)) {
+            return "MEDICINE_REMINDER";
+        }
+        if ("MEDICINE_TAKEN".equals(eventType)) {
+            return "MEDICINE_TAKEN";
+        }
+        return null;
+    }
+
+    // 启动一次模拟，运行durationMs后自动停止并生成报告
+    public synchronized Map<String, Object> start(int deviceCount, long durationMs) {
+        if (deviceCount < 1 || durationMs < 1000) {
+            throw new IllegalArgumentException("devices必须大于0，durationMs不能小于1000");
+        }
+        if (current != null) {
+            throw new IllegalStateException("已有模拟正在运行");
+        }
+        Run run = new Run(deviceCount, durationMs);
+        try {
+            connect(run);
+        } catch (Exception e) {
+            closeClients(run);
+            run.scheduler.shutdownNow();
+            throw new RuntimeException("模拟器连接Broker失败: " + e.getMessage(), e);
+        }
+        notificationService.addNotificationListener(run.listener);
+        current = run;
+
+        run.scheduler.scheduleAtFixedRate(() -> tick(run), tickMs, tickMs, TimeUnit.MILLISECONDS);
+        run.scheduler.schedule(() -> finish(run), durationMs, TimeUnit.MILLISECONDS);
+        System.out.println("🤖 设备模拟器已启动: 设备数=" + deviceCount + ", 连接数=" + run.clients.size()
+                + ", 时长=" + durationMs + "ms, Broker=" + brokerUrl);
+        return status();
+    }
+
+    // 依次按多个规模运行（如 1000,10000,50000），每档结束后再开始下一档
+    public synchronized void startLadder(List<Integer> levels, long durationMs) {
+        if (ladderThread != null && ladderThread.isAlive()) {
+            throw new IllegalStateException("已有阶梯压测正在运行");
+        }
+        if (current != null) {
+            throw new IllegalStateException("已有模拟正在运行");
+        }
+        Thread thread = new Thread(() -> {
+            for (int level : levels) {
+                try {
+                    start(level, durationMs);
+                    while (current != null) {
+                        Thread.sleep(500);
+                    }
+                    // 两档之间留出时间让后端排空队列、设备离线
+                    Thread.sleep(Math.min(statusIntervalMs, 10000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    System.err.println("❌ 阶梯压测 " + level + " 台设备失败: " + e.getMessage());
+                    return;
+                }
+            }
+        }, "fleet-sim-ladder");
+        thread.setDaemon(true);
+        ladderThread = thread;
+        thread.start();
+    }
+
+    // 提前结束当前模拟（阶梯压测也一并停止）
+    public void stop() {
+        Thread ladder = ladderThread;
+        if (ladder != null) {
+            ladder.interrupt();
+        }
+        Run run = current;
+        if (run != null) {
+            finish(run);
+        }
+    }
+
+    private void connect(Run run) throws MqttException {
+        int connections = Math.max(1, Math.min(connectionCount, run.deviceCount));
+        List<List<String>> subscriptions = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            subscriptions.add(new ArrayList<>());
+        }
+
+        // 设备按状态上报周期均匀分布到各个tick，避免所有设备同时上报
+        int slotCount = (int) Math.max(1, statusIntervalMs / tickMs);
+        for (int i = 0; i < slotCount; i++) {
+            run.slots.add(new ArrayList<>());
+        }
+        for (int i = 0; i < run.deviceCount; i++) {
+            SimDevice device = new SimDevice(devicePrefix + i, i % connections);
+            run.devices.put(device.id, device);
+            run.slots.get(i % slotCount).add(device);
+            subscriptions.get(device.connection).add("medicinebox/" + device.id + "/config");
+            subscriptions.get(device.connection).add("medicinebox/" + device.id + "/command");
+        }
+
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setAutomaticReconnect(true);
+        options.setConnectionTimeout(10);
+        options.setKeepAliveInterval(60);
+        options.setMaxInflight(maxInflight);
+
+        for (int i = 0; i < connections; i++) {
+            // 每次运行使用新的客户端ID，避免Broker复用上一轮会话中未完成的在途消息
+            String clientId = "fleet-sim-" + Long.toString(run.startedAt, 36) + "-" + i;
+            MqttAsyncClient client = new MqttAsyncClient(brokerUrl, clientId, new MemoryPersistence());
+            client.setCallback(new MqttCallback() {
+                @Override
+                public void connectionLost(Throwable cause) {
+                    System.err.println("⚠️ 模拟器连接断开: " + cause.getMessage());
+                }
+
+                @Override
+                public void messageArrived(String topic, MqttMessage message) {
+                    onMessage(run, topic, message.getPayload());
+                }
+
+                @Override
+                public void deliveryComplete(IMqttDeliveryToken token) {
+                }
+            });
+            run.clients.add(client);
+            client.connect(options).waitForCompletion(10000);
+
+            List<String> topics = subscriptions.get(i);
+            topics.add("medicinebox/broadcast");
+            for (int from = 0; from < topics.size(); from += SUBSCRIBE_BATCH) {
+                String[] batch = topics.subList(from, Math.min(topics.size(), from + SUBSCRIBE_BATCH))
+                        .toArray(new String[0]);
+                int[] qos = new int[batch.length];
+                Arrays.fill(qos, 1);
+                client.subscribe(batch, qos).waitForCompletion(30000);
+            }
+        }
+    }
+
+    // 每个tick处理一个槽位内的设备：首次上线或周期上报状态，并按概率产生事件
+    private void tick(Run run) {
+        try {
+            List<SimDevice> slot = run.slots.get(run.slotCursor);
+            run.slotCursor = (run.slotCursor + 1) % run.slots.size();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            double reminderChance = remindersPerHour * statusIntervalMs / 3_600_000.0;
+            double emergencyChance = emergenciesPerHour * statusIntervalMs / 3_600_000.0;
+
+            for (SimDevice device : slot) {
+                if (!device.booted) {
+                    boot(run, device);
+                    continue;
+                }
+                sendStatus(run, device);
+                if (random.nextDouble() < reminderChance) {
+                    sendEvent(run, device, "MEDICINE_REMINDER", "服药时间到: 模拟药品");
+                    if (random.nextDouble() < takenRatio) {
+                        run.scheduler.schedule(() -> sendEvent(run, device, "MEDICINE_TAKEN", "药品已服用"),
+                                random.nextLong(5000, 60000), TimeUnit.MILLISECONDS);
+                    }
+                }
+                if (!device.emergency && random.nextDouble() < emergencyChance) {
+                    device.emergency = true;
+                    sendEvent(run, device, "EMERGENCY", "紧急报警触发");
+                    run.scheduler.schedule(() -> {
+                        device.emergency = false;
+                        sendEvent(run, device, "EMERGENCY_CANCEL", "紧急报警已取消");
+                    }, emergencyCancelDelayMs, TimeUnit.MILLISECONDS);
+                }
+            }
+            run.heapPeakBytes.accumulateAndGet(heapUsed(), Math::max);
+        } catch (Exception e) {
+            System.err.println("模拟器tick出错: " + e.getMessage());
+        }
+    }
+
+    // 与固件 connectMQTT 一致：CONNECTED 响应、DEVICE_INFO、首次状态
+    private void boot(Run run, SimDevice device) {
+        device.booted = true;
+        sendResponse(run, device, "CONNECTED", "设备已连接", null);
+
+        ObjectNode info = objectMapper.createObjectNode();
+        info.put("deviceId", device.id);
+        info.put("type", "DEVICE_INFO");
+        info.put("macAddress", macAddress(device.id));
+        info.put("ipAddress", "10.0." + (device.id.hashCode() >>> 8 & 0xff) + "." + (device.id.hashCode() & 0xff));
+        info.put("firmwareVersion", "V8.3");
+        info.put("maxMedicines", MAX_MEDICINES);
+        info.put("msgpack", true);
+        info.put("timestamp", uptime(device));
+        publish(run, device, device.topicStatus, info, false, "DEVICE_INFO");
+
+        sendStatus(run, device);
+    }
+
+    private void sendStatus(Run run, SimDevice device) {
+        ObjectNode status = objectMapper.createObjectNode();
+        status.put("deviceId", device.id);
+        status.put("type", "STATUS");
+        status.put("wifiConnected", true);
+        status.put("mqttConnected", true);
+        status.put("timeSynced", true);
+        status.put("emergencyMode", device.emergency);
+        status.put("remindLevel", 1);
+        status.put("arduinoReady", true);
+        status.put("activeMedicines", device.activeMedicines);
+        status.put("offlineMode", true);
+        status.put("configVersion", device.configVersion);
+        status.put("timestamp", uptime(device));
+        status.put("currentTime", LocalTime.now().format(TIME_FORMAT));
+        publish(run, device, device.topicStatus, status, device.msgpack, "STATUS");
+    }
+
+    private void sendEvent(Run run, SimDevice device, String type, String message) {
+        ObjectNode event = objectMapper.createObjectNode();
+        event.put("deviceId", device.id);
+        event.put("type", type);
+        event.put("message", message);
+        event.put("timestamp", uptime(device));
+        if (!"EMERGENCY_CANCEL".equals(type)) {
+            run.pendingEvents.put(device.id + "|" + type, System.nanoTime());
+        }
+        publish(run, device, device.topicEvents, event, device.msgpack, type);
+    }
+
+    // 响应固定使用JSON（与固件 sendMqttResponse 一致）
+    private void sendResponse(Run run, SimDevice device, String responseType, String message, String requestId) {
+        ObjectNode response = objectMapper.createObjectNode();
+        response.put("deviceId", device.id);
+        response.put("type", "RESPONSE");
+        response.put("responseType", responseType);
+        response.put("message", message);
+        if (requestId != null && !requestId.isEmpty()) {
+            response.put("requestId", requestId);
+        }
+        response.put("timestamp", uptime(device));
+        publish(run, device, device.topicResponse, response, false, "RESPONSE");
+    }
+
+    private void sendConfig(Run run, SimDevice device, String requestId) {
+        ObjectNode config = objectMapper.createObjectNode();
+        config.put("deviceId", device.id);
+        config.put("type", "CONFIG");
+        if (requestId != null && !requestId.isEmpty()) {
+            config.put("requestId", requestId);
+        }
+        config.put("timestamp", uptime(device));
+        config.put("offlineMode", true);
+        ArrayNode medicines = config.putArray("medicines");
+        for (int i = 0; i < MAX_MEDICINES; i++) {
+            boolean enabled = i < device.activeMedicines;
+            ObjectNode medicine = medicines.addObject();
+            medicine.put("name", enabled ? "模拟药品" + (i + 1) : "");
+            medicine.put("dosage", enabled ? "1片" : "");
+            medicine.put("hour", enabled ? 8 + i : 0);
+            medicine.put("minute", 0);
+            medicine.put("boxNum", enabled ? i % 4 + 1 : 1);
+            medicine.put("enabled", enabled);
+            medicine.put("taken", false);
+        }
+        publish(run, device, device.topicResponse, config, false, "CONFIG");
+    }
+
+    private void publish(Run run, SimDevice device, String topic, ObjectNode node, boolean msgpack, String kind) {
+        if (current != run) {
+            return;
+        }
+        try {
+            byte[] payload = msgpack ? msgpackMapper.writeValueAsBytes(node) : objectMapper.writeValueAsBytes(node);
+            run.clients.get(device.connection).publish(topic, payload, 1, false);
+            run.sent.computeIfAbsent(kind, k -> new AtomicLong()).incrementAndGet();
+        } catch (Exception e) {
+            run.publishFailed.incrementAndGet();
+        }
+    }
+
+    // 处理下发到虚拟设备的配置同步、命令和广播，行为与固件一致
+    private void onMessage(Run run, String topic, byte[] payload) {
+        String deviceId = MqttInboundPipeline.extractDeviceId(topic);
+        SimDevice device = deviceId != null ? run.devices.get(deviceId) : null;
+        JsonNode node;
+        try {
+            node = isMsgPack(payload) ? msgpackMapper.readTree(payload) : objectMapper.readTree(payload);
+        } catch (Exception e) {
+            run.decodeFailed.incrementAndGet();
+            if (device != null && topic.endsWith("/config")) {
+                sendResponse(run, device, "SYNC_ERROR", "配置解析失败", null);
+            }
+            return;
+        }
+        String type = node.path("type").asText("");
+        run.received.computeIfAbsent(type.isEmpty() ? "UNKNOWN" : type, k -> new AtomicLong()).incrementAndGet();
+        if (device == null) {
+            return;
+        }
+
+        if (topic.endsWith("/config")) {
+            if ("PATCH_MEDICINES".equals(type)
+                    && !node.path("baseVersion").asText("").equals(device.configVersion)) {
+                sendResponse(run, device, "SYNC_VERSION_MISMATCH", "配置版本不匹配", null);
+                sendStatus(run, device);
+                return;
+            }
+            if ("SYNC_MEDICINES".equals(type)) {
+                int active = 0;
+                for (JsonNode medicine : node.path("medicines")) {
+                    if (active < MAX_MEDICINES && medicine.path("enabled").asBoolean(false)) {
+                        active++;
+                    }
+                }
+                device.activeMedicines = active;
+            } else if (!"PATCH_MEDICINES".equals(type)) {
+                return;
+            }
+            device.configVersion = node.path("configVersion").asText("");
+            sendResponse(run, device, "SYNC_SUCCESS", "药品配置已更新", null);
+            sendStatus(run, device);
+            return;
+        }
+
+        if (topic.endsWith("/command") && "COMMAND".equals(type)) {
+            String command = node.path("command").asText("");
+            String requestId = node.path("requestId").asText("");
+            switch (command) {
+                case "GET_STATUS" -> {
+                    sendStatus(run, device);
+                    sendResponse(run, device, "COMMAND_SUCCESS", "状态已上报", requestId);
+                }
+                case "GET_CONFIG" -> sendConfig(run, device, requestId);
+                case "SET_ENCODING" -> {
+                    device.msgpack = "msgpack".equals(node.path("data").path("encoding").asText("json"));
+                    sendResponse(run, device, "COMMAND_SUCCESS",
+                            device.msgpack ? "已切换为MessagePack" : "已切换为JSON", requestId);
+                }
+                case "REBOOT" -> sendResponse(run, device, "REBOOTING", "设备正在重启", requestId);
+                case "OPEN_BOX", "CLOSE_BOX", "TEST_BUZZER", "SWITCH_BOX", "SET_OFFLINE_MODE" ->
+                        sendResponse(run, device, "COMMAND_SUCCESS", "命令已执行", requestId);
+                default -> sendResponse(run, device, "ERROR", "未知命令", requestId);
+            }
+        }
+    }
+
+    private static boolean isMsgPack(byte[] payload) {
+        if (payload.length == 0) {
+            return false;
+        }
+        int first = payload[0] & 0xff;
+        return (first >= 0x80 && first <= 0x8f) || first == 0xde || first == 0xdf;
+    }
+
+    private void finish(Run run) {
+        synchronized (this) {
+            if (current != run) {
+                return;
+            }
+            current = null;
+        }
+        run.scheduler.shutdownNow();
+        notificationService.removeNotificationListener(run.listener);
+        closeClients(run);
+
+        Map<String, Object> report = report(run);
+        reports.add(report);
+        while (reports.size() > retainedReports) {
+            reports.remove(0);
+        }
+        System.out.println("🤖 设备模拟器已结束: 设备数=" + run.deviceCount + ", 报告=" + report);
+    }
+
+    private void closeClients(Run run) {
+        // 先对所有连接发起断开（不等待在途消息），再统一等待完成
+        List<IMqttToken> disconnects = new ArrayList<>();
+        for (MqttAsyncClient client : run.clients) {
+            try {
+                if (client.isConnected()) {
+                    disconnects.add(client.disconnect(0));
+                }
+            } catch (MqttException e) {
+                System.err.println("断开模拟器连接失败: " + e.getMessage());
+            }
+        }
+        for (IMqttToken token : disconnects) {
+            try {
+                token.waitForCompletion(5000);
+            } catch (MqttException ignored) {
+                // 断开超时或连接已被关闭，随后强制关闭客户端即可
+            }
+        }
+        for (MqttAsyncClient client : run.clients) {
+            try {
+                client.close(true);
+            } catch (MqttException e) {
+                System.err.println("关闭模拟器连接失败: " + e.getMessage());
+            }
+        }
+    }
+
+    // 吞吐量、端到端延迟、堆与GC，以及后端各环节的积压情况
+    private Map<String, Object> report(Run run) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - run.startedAt);
+        long totalSent = 0;
+        Map<String, Long> sent = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : run.sent.entrySet()) {
+            sent.put(entry.getKey(), entry.getValue().get());
+            totalSent += entry.getValue().get();
+        }
+        Map<String, Long> received = new TreeMap<>();
+        run.received.forEach((type, count) -> received.put(type, count.get()));
+        Map<String, Object> latency = new TreeMap<>();
+        run.endToEnd.forEach((kind, histogram) -> latency.put(kind, histogram.snapshot()));
+
+        long[] gc = gcTotals();
+        Map<String, Object> memory = new LinkedHashMap<>();
+        memory.put("heapStartMb", run.heapStartBytes >> 20);
+        memory.put("heapPeakMb", run.heapPeakBytes.get() >> 20);
+        memory.put("heapEndMb", heapUsed() >> 20);
+        memory.put("heapMaxMb", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax() >> 20);
+        memory.put("gcCount", gc[0] - run.gcCountStart);
+        memory.put("gcTimeMs", gc[1] - run.gcTimeMsStart);
+
+        Map<String, Object> pipeline = mqttInboundPipeline.getStats();
+        Map<String, Object> backend = new LinkedHashMap<>();
+        backend.put("onlineDevices", mqttService.getOnlineDeviceCount());
+        backend.put("inboundProcessed", pipeline.get("processed"));
+        backend.put("inboundDropped", pipeline.get("dropped"));
+        backend.put("inboundMaxQueueDepth", pipeline.get("maxQueueDepth"));
+        backend.put("inboundLatency", pipeline.get("normalLatency"));
+        backend.put("eventWriter", offlineEventWriteBuffer.getStats());
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("devices", run.deviceCount);
+        report.put("durationMs", elapsed);
+        report.put("publishedPerSec", totalSent * 1000 / elapsed);
+        report.put("sent", sent);
+        report.put("received", received);
+        report.put("publishFailed", run.publishFailed.get());
+        report.put("decodeFailed", run.decodeFailed.get());
+        report.put("unmatchedEvents", run.pendingEvents.size());
+        report.put("endToEndLatency", latency);
+        report.put("memory", memory);
+        report.put("backend", backend);
+        return report;
+    }
+
+    private static long[] gcTotals() {
+        long count = 0;
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, time};
+    }
+
+    private static long heapUsed() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long uptime(SimDevice device) {
+        return System.currentTimeMillis() - device.bootedAt;
+    }
+
+    private static String macAddress(String deviceId) {
+        int hash = deviceId.hashCode();
+        return String.format("5C:CF:7F:%02X:%02X:%02X", hash >>> 16 & 0xff, hash >>> 8 & 0xff, hash & 0xff);
+    }
+
+    // 当前运行状态
+    public Map<String, Object> status() {
+        Run run = current;
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", run != null);
+        status.put("ladderRunning", ladderThread != null && ladderThread.isAlive());
+        if (run != null) {
+            long sent = 0;
+            for (AtomicLong count : run.sent.values()) {
+                sent += count.get();
+            }
+            status.put("devices", run.deviceCount);
+            status.put("elapsedMs", System.currentTimeMillis() - run.startedAt);
+            status.put("durationMs", run.durationMs);
+            status.put("sent", sent);
+            status.put("publishFailed", run.publishFailed.get());
+        }
+        return status;
+    }
+
+    public List<Map<String, Object>> getReports() {
+        synchronized (reports) {
+            return new ArrayList<>(reports);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        stop();
+    }
+}
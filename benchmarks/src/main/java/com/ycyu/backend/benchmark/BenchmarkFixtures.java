@@ -0,0 +1,146 @@
+package com.ycyu.backend.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ycyu.backend.config.MqttIntegrationConfig;
+import com.ycyu.backend.dto.MedicineDTO;
+import com.ycyu.backend.service.ConfigSyncService;
+import com.ycyu.backend.service.DeviceEventService;
+import com.ycyu.backend.service.DeviceMessageCodec;
+import com.ycyu.backend.service.MedicineService;
+import com.ycyu.backend.service.MqttService;
+import com.ycyu.backend.service.NotificationService;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.ReflectionUtils;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// 不启动Spring容器，直接组装被测服务：按字段名注入依赖，数据库、推送等外部调用替换为空实现，
+// 只测量服务本身的CPU和分配开销
+final class BenchmarkFixtures {
+
+    // 与设备在同步状态下上报的版本一致，onReportedVersion 走最常见的"已确认"分支
+    static final String CONFIG_VERSION = "v-benchmark";
+
+    private BenchmarkFixtures() {
+    }
+
+    // 与Spring Boot默认配置一致的ObjectMapper
+    static ObjectMapper objectMapper() {
+        return Jackson2ObjectMapperBuilder.json().build();
+    }
+
+    static void inject(Object target, String fieldName, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), fieldName);
+        if (field == null) {
+            throw new IllegalStateException(target.getClass().getSimpleName() + " 没有字段 " + fieldName);
+        }
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+
+    // 业务代码逐条打印日志，压测时丢弃输出（字符串拼接的开销仍计入结果）
+    static PrintStream silenceStdout() {
+        PrintStream original = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return original;
+    }
+
+    static DeviceMessageCodec deviceMessageCodec(ObjectMapper objectMapper) {
+        DeviceMessageCodec codec = new DeviceMessageCodec();
+        inject(codec, "objectMapper", objectMapper);
+        codec.init();
+        return codec;
+    }
+
+    static MqttService mqttService(ObjectMapper objectMapper, DeviceMessageCodec codec) {
+        MqttService mqttService = new MqttService();
+        inject(mqttService, "objectMapper", objectMapper);
+        inject(mqttService, "deviceMessageCodec", codec);
+        inject(mqttService, "deviceEventService", new NoOpDeviceEventService());
+        inject(mqttService, "binaryEncodingEnabled", false);
+        inject(mqttService, "livenessTimeoutMs", 60000L);
+        inject(mqttService, "livenessTickMs", 1000L);
+        mqttService.initLivenessTracker();
+        return mqttService;
+    }
+
+    static ConfigSyncService configSyncService(MqttService mqttService, ObjectMapper objectMapper) {
+        ConfigSyncService configSyncService = new ConfigSyncService();
+        inject(configSyncService, "mqttService", mqttService);
+        inject(configSyncService, "medicineService", new FixedVersionMedicineService());
+        inject(configSyncService, "deviceEventService", new NoOpDeviceEventService());
+        inject(configSyncService, "objectMapper", objectMapper);
+        inject(mqttService, "configSyncService", configSyncService);
+        return configSyncService;
+    }
+
+    // 与 Spring 装配的 mqttMessageHandler 相同的处理器实例，事件分发到空实现
+    static MqttIntegrationConfig mqttIntegrationConfig(ObjectMapper objectMapper, DeviceMessageCodec codec,
+                                                       MqttService mqttService, ConfigSyncService configSyncService) {
+        MqttIntegrationConfig config = new MqttIntegrationConfig();
+        inject(config, "objectMapper", objectMapper);
+        inject(config, "deviceMessageCodec", codec);
+        inject(config, "mqttService", mqttService);
+        inject(config, "configSyncService", configSyncService);
+        inject(config, "deviceEventService", new NoOpDeviceEventService());
+        return config;
+    }
+
+    static NotificationService notificationService(int historyCapacity) {
+        NotificationService notificationService = new NotificationService();
+        inject(notificationService, "defaultHistoryCapacity", historyCapacity);
+        inject(notificationService, "classHistoryCapacities", Collections.emptyMap());
+        return notificationService;
+    }
+
+    // 设备最多10个药品槽位，按满配置生成
+    static List<MedicineDTO> medicines(int count) {
+        List<MedicineDTO> medicines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            MedicineDTO medicine = new MedicineDTO();
+            medicine.setId(i + 1);
+            medicine.setName("药品" + (i + 1));
+            medicine.setDosage("1片");
+            medicine.setHour(8 + i);
+            medicine.setMinute(30);
+            medicine.setBoxNum(i % 2 + 1);
+            medicine.setEnabled(true);
+            medicines.add(medicine);
+        }
+        return medicines;
+    }
+
+    static final class NoOpDeviceEventService extends DeviceEventService {
+        @Override
+        public void handleDeviceStatusChange(String deviceId, boolean online) {
+        }
+
+        @Override
+        public void handleConfigSync(String deviceId, boolean success) {
+        }
+
+        @Override
+        public void handleMedicationReminder(String deviceId, String medicineName, String time) {
+        }
+
+        @Override
+        public void handleMedicineTaken(String deviceId, String medicineName) {
+        }
+
+        @Override
+        public void handleDeviceWarning(String deviceId, String warningType, String message) {
+        }
+    }
+
+    static final class FixedVersionMedicineService extends MedicineService {
+        @Override
+        public String getActiveScheduleVersion() {
+            return CONFIG_VERSION;
+        }
+    }
+}
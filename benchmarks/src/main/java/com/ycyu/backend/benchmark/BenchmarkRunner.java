@@ -0,0 +1,29 @@
+package com.ycyu.backend.benchmark;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// benchmarks.jar 入口：参数与JMH命令行一致，未指定结果格式时默认输出JSON，
+// 文件名带时间戳，便于不同版本之间对比
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-rf") && !options.contains("-h") && !options.contains("-l")) {
+            String stamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+            options.add("-rf");
+            options.add("json");
+            if (!options.contains("-rff")) {
+                options.add("-rff");
+                options.add("jmh-result-" + stamp + ".json");
+            }
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,147 @@
+package com.ycyu.backend.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.ycyu.backend.service.ConfigSyncService;
+import com.ycyu.backend.service.DeviceMessageCodec;
+import com.ycyu.backend.service.MqttInboundPipeline;
+import com.ycyu.backend.service.MqttService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// mqttMessageHandler() 的入站热路径：topic解析、负载解码（JSON / MessagePack），以及完整的状态/事件处理
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MqttMessageHandlerBenchmark {
+
+    @Param({"1000"})
+    private int devices;
+
+    private MqttService mqttService;
+    private DeviceMessageCodec codec;
+    private MessageHandler handler;
+    private String[] statusTopics;
+    private byte[] statusJson;
+    private byte[] statusMsgpack;
+    private Message<?>[] statusJsonMessages;
+    private Message<?>[] statusMsgpackMessages;
+    private Message<?>[] eventMessages;
+    private int cursor;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() throws Exception {
+        stdout = BenchmarkFixtures.silenceStdout();
+        ObjectMapper objectMapper = BenchmarkFixtures.objectMapper();
+        codec = BenchmarkFixtures.deviceMessageCodec(objectMapper);
+        mqttService = BenchmarkFixtures.mqttService(objectMapper, codec);
+        ConfigSyncService configSyncService = BenchmarkFixtures.configSyncService(mqttService, objectMapper);
+        handler = BenchmarkFixtures.mqttIntegrationConfig(objectMapper, codec, mqttService, configSyncService)
+                .mqttMessageHandler();
+
+        statusTopics = new String[devices];
+        statusJsonMessages = new Message<?>[devices];
+        statusMsgpackMessages = new Message<?>[devices];
+        eventMessages = new Message<?>[devices];
+        for (int i = 0; i < devices; i++) {
+            String deviceId = "box-" + i;
+            statusTopics[i] = "medicinebox/" + deviceId + "/status";
+            byte[] json = objectMapper.writeValueAsBytes(status(objectMapper, deviceId));
+            byte[] msgpack = codec.toMsgPack(new String(json, StandardCharsets.UTF_8));
+            byte[] event = objectMapper.writeValueAsBytes(event(objectMapper, deviceId));
+            statusJsonMessages[i] = message(statusTopics[i], json);
+            statusMsgpackMessages[i] = message(statusTopics[i], msgpack);
+            eventMessages[i] = message("medicinebox/" + deviceId + "/events", event);
+            if (i == 0) {
+                statusJson = json;
+                statusMsgpack = msgpack;
+            }
+            // 先登记设备，测量的是稳定运行时的心跳处理
+            mqttService.updateDeviceStatus(deviceId);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mqttService.shutdownLivenessTracker();
+        System.setOut(stdout);
+    }
+
+    // 与固件 sendStatusUpdate 的字段一致
+    private static ObjectNode status(ObjectMapper objectMapper, String deviceId) {
+        ObjectNode status = objectMapper.createObjectNode();
+        status.put("deviceId", deviceId);
+        status.put("type", "STATUS");
+        status.put("wifiConnected", true);
+        status.put("mqttConnected", true);
+        status.put("timeSynced", true);
+        status.put("emergencyMode", false);
+        status.put("remindLevel", 1);
+        status.put("arduinoReady", true);
+        status.put("activeMedicines", 3);
+        status.put("offlineMode", true);
+        status.put("configVersion", BenchmarkFixtures.CONFIG_VERSION);
+        status.put("timestamp", 123456789L);
+        status.put("currentTime", "08:30:00");
+        return status;
+    }
+
+    private static ObjectNode event(ObjectMapper objectMapper, String deviceId) {
+        ObjectNode event = objectMapper.createObjectNode();
+        event.put("deviceId", deviceId);
+        event.put("type", "MEDICINE_TAKEN");
+        event.put("message", "药品已服用");
+        event.put("timestamp", 123456789L);
+        return event;
+    }
+
+    private static Message<?> message(String topic, byte[] payload) {
+        return MessageBuilder.withPayload(payload).setHeader("mqtt_receivedTopic", topic).build();
+    }
+
+    private int next() {
+        int index = cursor;
+        cursor = index + 1 == devices ? 0 : index + 1;
+        return index;
+    }
+
+    @Benchmark
+    public String extractDeviceId() {
+        return MqttInboundPipeline.extractDeviceId(statusTopics[next()]);
+    }
+
+    @Benchmark
+    public DeviceMessageCodec.DeviceMessage decodeStatusJson() {
+        return codec.decode(statusJson);
+    }
+
+    @Benchmark
+    public DeviceMessageCodec.DeviceMessage decodeStatusMsgpack() {
+        return codec.decode(statusMsgpack);
+    }
+
+    @Benchmark
+    public void handleStatusJson() {
+        handler.handleMessage(statusJsonMessages[next()]);
+    }
+
+    @Benchmark
+    public void handleStatusMsgpack() {
+        handler.handleMessage(statusMsgpackMessages[next()]);
+    }
+
+    @Benchmark
+    public void handleEvent() {
+        handler.handleMessage(eventMessages[next()]);
+    }
+}
@@ -0,0 +1,58 @@
+package com.ycyu.backend.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ycyu.backend.dto.DeviceStatusDTO;
+import com.ycyu.backend.service.MqttService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// 设备状态表在大量设备下的心跳更新（updateDeviceStatus）和列表查询（getDeviceStatusList）
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MqttServiceBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int devices;
+
+    private MqttService mqttService;
+    private String[] deviceIds;
+    private int cursor;
+    private PrintStream stdout;
+
+    @Setup
+    public void setup() {
+        stdout = BenchmarkFixtures.silenceStdout();
+        ObjectMapper objectMapper = BenchmarkFixtures.objectMapper();
+        mqttService = BenchmarkFixtures.mqttService(objectMapper, BenchmarkFixtures.deviceMessageCodec(objectMapper));
+        deviceIds = new String[devices];
+        for (int i = 0; i < devices; i++) {
+            deviceIds[i] = "box-" + i;
+            mqttService.updateDeviceStatus(deviceIds[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mqttService.shutdownLivenessTracker();
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public void updateDeviceStatus() {
+        int index = cursor;
+        cursor = index + 1 == devices ? 0 : index + 1;
+        mqttService.updateDeviceStatus(deviceIds[index]);
+    }
+
+    @Benchmark
+    public List<DeviceStatusDTO> getDeviceStatusList() {
+        return mqttService.getDeviceStatusList();
+    }
+}
@@ -0,0 +1,38 @@
+package com.ycyu.backend.benchmark;
+
+import com.ycyu.backend.dto.NotificationDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// NotificationDTO 构造的开销，主要来自 UUID.randomUUID()（SecureRandom），多线程下对比竞争情况
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NotificationDtoBenchmark {
+
+    @Benchmark
+    public NotificationDTO newNotification() {
+        return create();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public NotificationDTO newNotification4Threads() {
+        return create();
+    }
+
+    @Benchmark
+    public String randomUuid() {
+        return UUID.randomUUID().toString();
+    }
+
+    private static NotificationDTO create() {
+        return new NotificationDTO("服药提醒", "药品: 药品1 服药时间到", "reminder", "box-1",
+                "MEDICATION_REMINDER", "{\"medicineName\": \"药品1\", \"time\": \"08:30\"}");
+    }
+}
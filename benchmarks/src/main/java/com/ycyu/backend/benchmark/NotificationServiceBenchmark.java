@@ -0,0 +1,92 @@
+package com.ycyu.backend.benchmark;
+
+import com.ycyu.backend.dto.NotificationDTO;
+import com.ycyu.backend.service.NotificationService;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// 通知历史的写入（saveNotificationToHistory）与读取（getDeviceNotifications），历史缓冲区已写满
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NotificationServiceBenchmark {
+
+    // saveNotificationToHistory 是私有方法，推送部分需要WebSocket，这里只测历史记录本身
+    private static final MethodHandle SAVE_TO_HISTORY;
+
+    static {
+        try {
+            SAVE_TO_HISTORY = MethodHandles.privateLookupIn(NotificationService.class, MethodHandles.lookup())
+                    .findVirtual(NotificationService.class, "saveNotificationToHistory",
+                            MethodType.methodType(void.class, NotificationDTO.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Param({"100", "10000"})
+    private int devices;
+
+    @Param({"100"})
+    private int capacity;
+
+    private NotificationService notificationService;
+    private String[] deviceIds;
+    private NotificationDTO[] notifications;
+    private int cursor;
+    private int deviceCursor;
+
+    @Setup
+    public void setup() throws Throwable {
+        notificationService = BenchmarkFixtures.notificationService(capacity);
+        deviceIds = new String[devices];
+        // 每台设备两条通知循环写入；历史已预先写满，每次写入都会覆盖最旧的一条
+        notifications = new NotificationDTO[devices * 2];
+        for (int i = 0; i < devices; i++) {
+            deviceIds[i] = "box-" + i;
+        }
+        for (int i = 0; i < notifications.length; i++) {
+            String deviceId = deviceIds[i % devices];
+            notifications[i] = new NotificationDTO("服药提醒", "药品: 药品1 服药时间到", "reminder", deviceId,
+                    "MEDICATION_REMINDER", "{\"medicineName\": \"药品1\", \"time\": \"08:30\"}");
+        }
+        for (int round = 0; round < capacity; round++) {
+            for (String deviceId : deviceIds) {
+                SAVE_TO_HISTORY.invokeExact(notificationService, new NotificationDTO("服药提醒", "药品: 药品1 服药时间到",
+                        "reminder", deviceId, "MEDICATION_REMINDER", "{}"));
+            }
+        }
+    }
+
+    @Benchmark
+    public void saveNotificationToHistory() throws Throwable {
+        int index = cursor;
+        cursor = index + 1 == notifications.length ? 0 : index + 1;
+        SAVE_TO_HISTORY.invokeExact(notificationService, notifications[index]);
+    }
+
+    @Benchmark
+    public List<NotificationDTO> getDeviceNotifications() {
+        return notificationService.getDeviceNotifications(nextDevice());
+    }
+
+    // 只取最近20条（分页查询）
+    @Benchmark
+    public List<NotificationDTO> getDeviceNotificationsLimit20() {
+        return notificationService.getDeviceNotifications(nextDevice(), 20);
+    }
+
+    private String nextDevice() {
+        int index = deviceCursor;
+        deviceCursor = index + 1 == devices ? 0 : index + 1;
+        return deviceIds[index];
+    }
+}
@@ -0,0 +1,68 @@
+package com.ycyu.backend.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ycyu.backend.dto.MedicineDTO;
+import com.ycyu.backend.service.DeviceMessageCodec;
+import com.ycyu.backend.service.MqttService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// SYNC_MEDICINES 下发消息的序列化：药品列表的Jackson序列化、消息拼装，以及转为MessagePack
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SyncPayloadBenchmark {
+
+    @Param({"1", "10"})
+    private int medicineCount;
+
+    private MqttService mqttService;
+    private DeviceMessageCodec codec;
+    private List<MedicineDTO> medicines;
+    private String medicinesJson;
+    private String syncMessage;
+
+    @Setup
+    public void setup() {
+        ObjectMapper objectMapper = BenchmarkFixtures.objectMapper();
+        codec = BenchmarkFixtures.deviceMessageCodec(objectMapper);
+        mqttService = BenchmarkFixtures.mqttService(objectMapper, codec);
+        medicines = BenchmarkFixtures.medicines(medicineCount);
+        medicinesJson = mqttService.serializeMedicines(medicines);
+        syncMessage = mqttService.buildSyncMessage("box-1", medicinesJson, BenchmarkFixtures.CONFIG_VERSION, 0L);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mqttService.shutdownLivenessTracker();
+    }
+
+    @Benchmark
+    public String serializeMedicines() {
+        return mqttService.serializeMedicines(medicines);
+    }
+
+    // 批量同步时药品列表只序列化一次，每台设备只拼装消息
+    @Benchmark
+    public String buildSyncMessage() {
+        return mqttService.buildSyncMessage("box-1", medicinesJson, BenchmarkFixtures.CONFIG_VERSION,
+                System.currentTimeMillis());
+    }
+
+    // 单设备同步：序列化加拼装
+    @Benchmark
+    public String syncMessage() {
+        return mqttService.buildSyncMessage("box-1", mqttService.serializeMedicines(medicines),
+                BenchmarkFixtures.CONFIG_VERSION, System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public byte[] syncMessageMsgpack() {
+        return codec.toMsgPack(syncMessage);
+    }
+}
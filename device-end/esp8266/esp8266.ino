@@ -96,6 +96,9 @@ unsigned long mqttWaitStart = 0;
 
 
 String currentTime = "--:--";
+String configVersion = "";  // 当前配置版本号，随状态上报作为同步确认
+String currentRequestId = "";  // 正在处理的命令ID，随响应回传供服务器关联
+bool binaryEncoding = false;  // 服务器确认后状态/事件改用MessagePack编码
 String lastDisplayedTime = "";
 int lastSecond = -1;
 
@@ -309,7 +312,11 @@ void mqttCallback(char* topic, byte* payload, unsigned int length) {
   Serial.print("] 长度: ");
   Serial.println(length);
   Serial.print("内容: ");
-  Serial.println(message);
+  if (length > 0 && payload[0] == '{') {
+    Serial.println(message);
+  } else {
+    Serial.println("<MessagePack>");
+  }
   
   // 检查主题类型
   String topicStr = String(topic);
@@ -322,7 +329,7 @@ void mqttCallback(char* topic, byte* payload, unsigned int length) {
   
   if (topicStr == topicConfig) {
     Serial.println("处理配置同步消息...");
-    handleConfigMessage(message);
+    handleConfigMessage(message, length);
   } else if (topicStr == topicCommand) {
     Serial.println("处理命令消息...");
     handleCommandMessage(message);
@@ -337,18 +344,25 @@ void mqttCallback(char* topic, byte* payload, unsigned int length) {
 }
 
 // ===================== 处理配置消息 =====================
-void handleConfigMessage(char* message) {
+void handleConfigMessage(char* message, unsigned int length) {
   DynamicJsonDocument doc(2048);
-  DeserializationError error = deserializeJson(doc, message);
+  // JSON以'{'开头，否则按MessagePack解析
+  DeserializationError error = message[0] == '{'
+      ? deserializeJson(doc, message)
+      : deserializeMsgPack(doc, message, length);
   
   if (error) {
-    Serial.print("JSON解析失败: ");
+    Serial.print("配置解析失败: ");
     Serial.println(error.c_str());
     sendMqttResponse("SYNC_ERROR", "配置解析失败");
     return;
   }
   
   String msgType = doc["type"].as<String>();
+  if (msgType == "PATCH_MEDICINES") {
+    handlePatchMessage(doc);
+    return;
+  }
   if (msgType != "SYNC_MEDICINES") {
     Serial.println("不是配置同步消息");
     return;
@@ -401,8 +415,11 @@ void handleConfigMessage(char* message) {
   
   configSynced = true;
   displayDirty = true;
+  configVersion = doc["configVersion"] | "";
   
   sendMqttResponse("SYNC_SUCCESS", "药品配置已更新");
+  // 立即上报状态，服务器据此确认新版本已生效
+  sendDeviceStatus();
   
   // 发送配置到Arduino
   sendConfigToArduino();
@@ -411,6 +428,65 @@ void handleConfigMessage(char* message) {
   showSyncScreen(true, "配置已更新");
 }
 
+// 增量同步：只更新变化的槽位，基准版本与本地不一致时拒绝，由服务器改为全量同步
+void handlePatchMessage(DynamicJsonDocument& doc) {
+  String baseVersion = doc["baseVersion"] | "";
+  if (baseVersion != configVersion) {
+    Serial.println("配置版本不匹配，等待全量同步");
+    sendMqttResponse("SYNC_VERSION_MISMATCH", "配置版本不匹配");
+    sendDeviceStatus();
+    return;
+  }
+  
+  Serial.println("开始增量同步药品配置...");
+  
+  JsonArray slots = doc["slots"];
+  for (JsonObject slot : slots) {
+    int i = slot["slot"] | -1;
+    if (i < 0 || i >= MAX_MEDICINES) continue;
+    
+    if (slot["clear"] | false) {
+      strcpy(medicines[i].name, "");
+      strcpy(medicines[i].dosage, "");
+      medicines[i].hour = 0;
+      medicines[i].minute = 0;
+      medicines[i].boxNum = 1;
+      medicines[i].enabled = false;
+      medicines[i].taken = false;
+      continue;
+    }
+    
+    if (slot.containsKey("name")) {
+      String name = slot["name"].as<String>();
+      name.toCharArray(medicines[i].name, 16);
+    }
+    if (slot.containsKey("dosage")) {
+      String dosage = slot["dosage"].as<String>();
+      dosage.toCharArray(medicines[i].dosage, 8);
+    }
+    if (slot.containsKey("hour")) medicines[i].hour = slot["hour"];
+    if (slot.containsKey("minute")) medicines[i].minute = slot["minute"];
+    if (slot.containsKey("boxNum")) medicines[i].boxNum = slot["boxNum"];
+    if (slot.containsKey("enabled")) medicines[i].enabled = slot["enabled"];
+    medicines[i].taken = false;
+    
+    Serial.print("更新药品");
+    Serial.print(i + 1);
+    Serial.print(": ");
+    Serial.println(medicines[i].name);
+  }
+  
+  configSynced = true;
+  displayDirty = true;
+  configVersion = doc["configVersion"] | "";
+  
+  sendMqttResponse("SYNC_SUCCESS", "药品配置已增量更新");
+  sendDeviceStatus();
+  
+  sendConfigToArduino();
+  showSyncScreen(true, "配置已更新");
+}
+
 // ===================== 处理命令消息 =====================
 void handleCommandMessage(char* message) {
   DynamicJsonDocument doc(1024);
@@ -431,6 +507,7 @@ void handleCommandMessage(char* message) {
   
   String command = doc["command"].as<String>();
   JsonObject data = doc["data"];
+  currentRequestId = doc["requestId"] | "";
   
   Serial.print("执行命令: ");
   Serial.println(command);
@@ -461,6 +538,7 @@ void handleCommandMessage(char* message) {
     
   } else if (command == "GET_STATUS") {
     sendDeviceStatus();
+    sendMqttResponse("COMMAND_SUCCESS", "状态已上报");
     
   } else if (command == "REBOOT") {
     sendMqttResponse("REBOOTING", "设备正在重启");
@@ -479,6 +557,13 @@ void handleCommandMessage(char* message) {
     Serial.println(boxCmd);
     sendMqttResponse("COMMAND_SUCCESS", "药格已切换");
     
+  } else if (command == "SET_ENCODING") {
+    String encoding = data["encoding"] | "json";
+    binaryEncoding = encoding == "msgpack";
+    Serial.print("消息编码: ");
+    Serial.println(encoding);
+    sendMqttResponse("COMMAND_SUCCESS", binaryEncoding ? "已切换为MessagePack" : "已切换为JSON");
+    
   } else if (command == "SET_OFFLINE_MODE") {
     bool enabled = data["enabled"].as<bool>();
     offlineMode = enabled;
@@ -492,6 +577,7 @@ void handleCommandMessage(char* message) {
     Serial.println(command);
     sendMqttResponse("ERROR", "未知命令");
   }
+  currentRequestId = "";
 }
 
 // ===================== 处理广播消息 =====================
@@ -600,6 +686,9 @@ void sendMqttResponse(String responseType, String message) {
   jsonStr += "\"type\":\"RESPONSE\",";
   jsonStr += "\"responseType\":\"" + responseType + "\",";
   jsonStr += "\"message\":\"" + escapeJsonString(message) + "\",";
+  if (currentRequestId.length() > 0) {
+    jsonStr += "\"requestId\":\"" + currentRequestId + "\",";
+  }
   jsonStr += "\"timestamp\":" + String(millis());
   jsonStr += "}";
   
@@ -619,6 +708,7 @@ void sendDeviceInfo() {
   jsonStr += "\"ipAddress\":\"" + WiFi.localIP().toString() + "\",";
   jsonStr += "\"firmwareVersion\":\"V8.3\",";
   jsonStr += "\"maxMedicines\":" + String(MAX_MEDICINES) + ",";
+  jsonStr += "\"msgpack\":true,";
   jsonStr += "\"timestamp\":" + String(millis());
   jsonStr += "}";
   
@@ -633,32 +723,58 @@ void sendDeviceStatus() {
     }
   }
   
-  String jsonStr = "{";
-  jsonStr += "\"deviceId\":\"" + deviceId + "\",";
-  jsonStr += "\"type\":\"STATUS\",";
-  jsonStr += "\"wifiConnected\":" + String(wifiConnected ? "true" : "false") + ",";
-  jsonStr += "\"mqttConnected\":" + String(mqttConnected ? "true" : "false") + ",";
-  jsonStr += "\"timeSynced\":" + String(timeSynced ? "true" : "false") + ",";
-  jsonStr += "\"emergencyMode\":" + String(emergencyMode ? "true" : "false") + ",";
-  jsonStr += "\"remindLevel\":" + String(remindLevel) + ",";
-  jsonStr += "\"arduinoReady\":" + String(arduinoReady ? "true" : "false") + ",";
-  jsonStr += "\"activeMedicines\":" + String(activeMedicines) + ",";
-  jsonStr += "\"offlineMode\":" + String(offlineMode ? "true" : "false") + ",";
-  jsonStr += "\"timestamp\":" + String(millis());
+  StaticJsonDocument<512> doc;
+  doc["deviceId"] = deviceId;
+  doc["type"] = "STATUS";
+  doc["wifiConnected"] = wifiConnected;
+  doc["mqttConnected"] = mqttConnected;
+  doc["timeSynced"] = timeSynced;
+  doc["emergencyMode"] = emergencyMode;
+  doc["remindLevel"] = remindLevel;
+  doc["arduinoReady"] = arduinoReady;
+  doc["activeMedicines"] = activeMedicines;
+  doc["offlineMode"] = offlineMode;
+  doc["configVersion"] = configVersion;
+  doc["timestamp"] = millis();
   
   if (timeSynced) {
-    jsonStr += ",\"currentTime\":\"" + currentTime + "\"";
+    doc["currentTime"] = currentTime;
   }
   
-  jsonStr += "}";
-  
-  mqttClient.publish(topicStatus.c_str(), jsonStr.c_str());
+  publishDoc(topicStatus, doc);
+}
+
+// 按协商的编码发布消息：服务器确认切换后使用MessagePack，否则为JSON
+void publishDoc(const String& topic, JsonDocument& doc) {
+  if (binaryEncoding) {
+    size_t len = measureMsgPack(doc);
+    uint8_t* buffer = (uint8_t*)malloc(len);
+    serializeMsgPack(doc, buffer, len);
+    mqttClient.publish(topic.c_str(), buffer, len);
+    free(buffer);
+  } else {
+    String jsonStr;
+    serializeJson(doc, jsonStr);
+    mqttClient.publish(topic.c_str(), jsonStr.c_str());
+  }
+}
+
+void publishEvent(const char* type, const String& message) {
+  StaticJsonDocument<256> doc;
+  doc["deviceId"] = deviceId;
+  doc["type"] = type;
+  doc["message"] = message;
+  doc["timestamp"] = millis();
+  publishDoc(topicEvents, doc);
 }
 
 void sendCurrentConfig() {
   String jsonStr = "{";
   jsonStr += "\"deviceId\":\"" + deviceId + "\",";
   jsonStr += "\"type\":\"CONFIG\",";
+  if (currentRequestId.length() > 0) {
+    jsonStr += "\"requestId\":\"" + currentRequestId + "\",";
+  }
   jsonStr += "\"timestamp\":" + String(millis()) + ",";
   jsonStr += "\"offlineMode\":" + String(offlineMode ? "true" : "false") + ",";
   jsonStr += "\"medicines\":[";
@@ -804,14 +920,7 @@ void processSerialMessage(String msg) {
     emergencyMode = false;
     displayDirty = true;
     
-    String jsonStr = "{";
-    jsonStr += "\"deviceId\":\"" + deviceId + "\",";
-    jsonStr += "\"type\":\"MEDICINE_TAKEN\",";
-    jsonStr += "\"message\":\"药品已服用\",";
-    jsonStr += "\"timestamp\":" + String(millis());
-    jsonStr += "}";
-    
-    mqttClient.publish(topicEvents.c_str(), jsonStr.c_str());
+    publishEvent("MEDICINE_TAKEN", "药品已服用");
     Serial.println("服药确认已发送到MQTT");
     
     for (int i = 1; i <= MAX_MEDICINES; i++) {
@@ -827,14 +936,7 @@ void processSerialMessage(String msg) {
     remindLevel = 0;
     displayDirty = true;
     
-    String jsonStr = "{";
-    jsonStr += "\"deviceId\":\"" + deviceId + "\",";
-    jsonStr += "\"type\":\"EMERGENCY\",";
-    jsonStr += "\"message\":\"紧急报警触发\",";
-    jsonStr += "\"timestamp\":" + String(millis());
-    jsonStr += "}";
-    
-    mqttClient.publish(topicEvents.c_str(), jsonStr.c_str());
+    publishEvent("EMERGENCY", "紧急报警触发");
     Serial.println("紧急报警已发送到MQTT");
     
   } else if (msg == "EMERGENCY_CANCEL") {
@@ -842,14 +944,7 @@ void processSerialMessage(String msg) {
     Serial.println("BUZZ_OFF");
     displayDirty = true;
     
-    String jsonStr = "{";
-    jsonStr += "\"deviceId\":\"" + deviceId + "\",";
-    jsonStr += "\"type\":\"EMERGENCY_CANCEL\",";
-    jsonStr += "\"message\":\"紧急报警已取消\",";
-    jsonStr += "\"timestamp\":" + String(millis());
-    jsonStr += "}";
-    
-    mqttClient.publish(topicEvents.c_str(), jsonStr.c_str());
+    publishEvent("EMERGENCY_CANCEL", "紧急报警已取消");
     Serial.println("紧急报警取消已发送到MQTT");
     
   } else if (msg == "ARDUINO_READY" || msg == "READY") {
@@ -897,14 +992,7 @@ void checkMedicationTime() {
       snprintf(boxCmd, sizeof(boxCmd), "SET_BOX:%d", medicines[i].boxNum);
       Serial.println(boxCmd);
       
-      String jsonStr = "{";
-      jsonStr += "\"deviceId\":\"" + deviceId + "\",";
-      jsonStr += "\"type\":\"MEDICINE_REMINDER\",";
-      jsonStr += "\"message\":\"服药时间到: " + String(medicines[i].name) + "\",";
-      jsonStr += "\"timestamp\":" + String(millis());
-      jsonStr += "}";
-      
-      mqttClient.publish(topicEvents.c_str(), jsonStr.c_str());
+      publishEvent("MEDICINE_REMINDER", String("服药时间到: ") + String(medicines[i].name));
       Serial.println("服药提醒已发送到MQTT");
       
       displayDirty = true;
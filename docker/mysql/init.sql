@@ -32,15 +32,76 @@ CREATE TABLE IF NOT EXISTS users (
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
 
 -- 创建离线事件表
+-- 按过期时间 expires_at 范围分区：过期数据由后端保留期任务整块删除分区，不逐行删除。
+-- 分区列必须包含在主键中，因此主键为 (id, expires_at)；建表后立即按保留期预建分区（表为空，代价很小），后端之后按需从空的 MAXVALUE 分区继续拆分
 CREATE TABLE IF NOT EXISTS offline_events (
-    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    id BIGINT NOT NULL AUTO_INCREMENT,
     device_id VARCHAR(50) NOT NULL,
-    event_time DATETIME NOT NULL,
+    event_time DATETIME(6) NOT NULL,
     event_type VARCHAR(50) NOT NULL,
     event_data TEXT,
-    processed BOOLEAN DEFAULT FALSE,
+    processed BOOLEAN NOT NULL DEFAULT FALSE,
     description VARCHAR(200),
-    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+    expires_at DATETIME(6) NOT NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id, expires_at),
+    KEY idx_offline_events_device_time (device_id, event_time, id),
+    KEY idx_offline_events_processed_time (processed, event_time, id),
+    KEY idx_offline_events_expires (expires_at)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci
+PARTITION BY RANGE COLUMNS (expires_at) (
+    PARTITION pmax VALUES LESS THAN (MAXVALUE)
+);
+
+-- 按 expires_at 每 partition_days 天一个分区，从今天起预建到 horizon_days 天之后，最后是空的 MAXVALUE 分区。
+-- 分区名与边界和后端 OfflineEventPartitionManager 一致（p+yyyyMMdd，存放 expires_at 小于该日零点的数据），
+-- 之后后端只需从空的 pmax 中继续拆出新分区。表非空时会重建整表，只能在维护窗口调用
+DROP PROCEDURE IF EXISTS partition_offline_events;
+DELIMITER //
+CREATE PROCEDURE partition_offline_events(IN partition_days INT, IN horizon_days INT)
+BEGIN
+    DECLARE bound DATE DEFAULT CURDATE();
+    DECLARE horizon DATE DEFAULT DATE_ADD(CURDATE(), INTERVAL horizon_days DAY);
+    DECLARE definitions TEXT DEFAULT '';
+    REPEAT
+        SET definitions = CONCAT(definitions, 'PARTITION p', DATE_FORMAT(bound, '%Y%m%d'),
+                ' VALUES LESS THAN (''', DATE_FORMAT(bound, '%Y-%m-%d'), ' 00:00:00''), ');
+        SET bound = DATE_ADD(bound, INTERVAL partition_days DAY);
+    UNTIL DATE_SUB(bound, INTERVAL partition_days DAY) >= horizon END REPEAT;
+    SET @partition_sql = CONCAT('ALTER TABLE offline_events PARTITION BY RANGE COLUMNS (expires_at) (',
+            definitions, 'PARTITION pmax VALUES LESS THAN (MAXVALUE))');
+    PREPARE partition_stmt FROM @partition_sql;
+    EXECUTE partition_stmt;
+    DEALLOCATE PREPARE partition_stmt;
+END //
+DELIMITER ;
+
+-- 最长保留期 1825 天（offline-event.retention.ttl-days 各类型的最大值）再多预建一个 30 天分区，须在插入初始数据前执行
+CALL partition_offline_events(30, 1855);
+
+-- 离线事件每日汇总表（按设备、日期、事件类型），原始事件过期后仍保留
+CREATE TABLE IF NOT EXISTS offline_event_daily_rollups (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    device_id VARCHAR(255) NOT NULL,
+    rollup_date DATE NOT NULL,
+    event_type VARCHAR(50) NOT NULL,
+    event_count BIGINT NOT NULL,
+    first_event_time DATETIME(6),
+    last_event_time DATETIME(6),
+    UNIQUE KEY uk_offline_event_rollup (device_id, rollup_date, event_type),
+    KEY idx_offline_event_rollup_date (rollup_date)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
+
+-- 服药依从性每日计数（device_id = '*' 为全部药盒合计）
+CREATE TABLE IF NOT EXISTS medication_adherence_daily (
+    id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    device_id VARCHAR(255) NOT NULL,
+    stat_date DATE NOT NULL,
+    reminders BIGINT NOT NULL,
+    taken BIGINT NOT NULL,
+    updated_at DATETIME(6),
+    UNIQUE KEY uk_medication_adherence (device_id, stat_date),
+    KEY idx_medication_adherence_date (stat_date)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
 
 -- 插入药品初始数据
@@ -66,9 +127,19 @@ INSERT INTO users (username, password, name, role, enabled, phone, email) VALUES
 ('lao_li', 'user123', '李大爷', 'USER', TRUE, '13700137000', 'laoli@example.com');
 
 -- 插入离线事件初始数据
-INSERT INTO offline_events (device_id, event_time, event_type, event_data, processed, description) VALUES
-('medicinebox_E8DB8498F9E9', NOW() - INTERVAL 2 DAY, 'DEVICE_OFFLINE', NULL, FALSE, '设备离线'),
-('medicinebox_E8DB8498F9E9', NOW() - INTERVAL 1 DAY, 'MEDICATION_REMINDER', '{"medicineId": 1, "medicineName": "降压药"}', FALSE, '提醒服药'),
-('medicinebox_E8DB8498F9E9', NOW() - INTERVAL 12 HOUR, 'MEDICATION_REMINDER', '{"medicineId": 2, "medicineName": "降糖药"}', TRUE, '提醒服药'),
-('medicinebox_E8DB8498F9E9', NOW() - INTERVAL 6 HOUR, 'DEVICE_ONLINE', NULL, TRUE, '设备上线'),
-('medicinebox_E8DB8498F9E9', NOW() - INTERVAL 3 HOUR, 'CONFIG_SYNC', '{"configVersion": "1.0"}', FALSE, '配置同步');
+-- expires_at 与 application.properties 中 offline-event.retention.ttl-days 的默认配置一致
+INSERT INTO offline_events (device_id, event_time, event_type, event_data, processed, description, expires_at) VALUES
+('medicinebox_E8DB8498F9E9', NOW() - INTERVAL 2 DAY, 'DEVICE_OFFLINE', NULL, FALSE, '设备离线', NOW() - INTERVAL 2 DAY + INTERVAL 7 DAY),
+('medicinebox_E8DB8498F9E9', NOW() - INTERVAL 1 DAY, 'MEDICATION_REMINDER', '{"medicineId": 1, "medicineName": "降压药"}', FALSE, '提醒服药', NOW() - INTERVAL 1 DAY + INTERVAL 1825 DAY),
+('medicinebox_E8DB8498F9E9', NOW() - INTERVAL 12 HOUR, 'MEDICATION_REMINDER', '{"medicineId": 2, "medicineName": "降糖药"}', TRUE, '提醒服药', NOW() - INTERVAL 12 HOUR + INTERVAL 1825 DAY),
+('medicinebox_E8DB8498F9E9', NOW() - INTERVAL 6 HOUR, 'DEVICE_ONLINE', NULL, TRUE, '设备上线', NOW() - INTERVAL 6 HOUR + INTERVAL 7 DAY),
+('medicinebox_E8DB8498F9E9', NOW() - INTERVAL 3 HOUR, 'CONFIG_SYNC', '{"configVersion": "1.0"}', FALSE, '配置同步', NOW() - INTERVAL 3 HOUR + INTERVAL 30 DAY);
+
+-- 离线事件ID序列表（池化序列分配ID，支持批量插入）
+-- next_val 是下一个ID块（allocationSize = 100）的上界，必须从 MAX(id) + 100 开始，否则第一块与已有ID重叠
+CREATE TABLE IF NOT EXISTS offline_events_seq (
+    next_val BIGINT
+) ENGINE=InnoDB;
+
+INSERT INTO offline_events_seq (next_val)
+SELECT COALESCE(MAX(id), 0) + 100 FROM offline_events;
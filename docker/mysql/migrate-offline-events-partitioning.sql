@@ -0,0 +1,42 @@
+-- 已有数据库迁移为按 expires_at 分区的离线事件表（新建的数据库由 init.sql 直接创建分区表，无需执行）
+-- 步骤：
+--   1. 先用新版本后端启动一次，等待保留期任务补齐旧数据的 expires_at（GET /api/offline-events/retention 中 backfilledEvents 不再增长）
+--   2. 在维护窗口执行本脚本：修改主键和分区都会重建整表，耗时与表大小成正比；分区一次建好到最长保留期之后，pmax 保持为空
+--   3. 重启后端，保留期任务只从空的 pmax 中拆出新分区，过期数据按分区整块删除
+--   若后端日志提示 pmax 中有数据（例如调大了保留天数），在维护窗口重新执行 CALL partition_offline_events(30, <最长保留天数 + 30>)
+USE smart_medicine_box;
+
+-- 兜底：仍未补齐的数据按默认保留期（365天）计算
+UPDATE offline_events SET expires_at = TIMESTAMPADD(DAY, 365, event_time) WHERE expires_at IS NULL;
+
+-- 分区列必须包含在主键中
+ALTER TABLE offline_events
+    MODIFY expires_at DATETIME(6) NOT NULL,
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (id, expires_at);
+
+-- 按 expires_at 每 partition_days 天一个分区，从今天起预建到 horizon_days 天之后，最后是空的 MAXVALUE 分区。
+-- 分区名与边界和后端 OfflineEventPartitionManager 一致（p+yyyyMMdd，存放 expires_at 小于该日零点的数据），
+-- 之后后端只需从空的 pmax 中继续拆出新分区。表非空时会重建整表，只能在维护窗口调用
+DROP PROCEDURE IF EXISTS partition_offline_events;
+DELIMITER //
+CREATE PROCEDURE partition_offline_events(IN partition_days INT, IN horizon_days INT)
+BEGIN
+    DECLARE bound DATE DEFAULT CURDATE();
+    DECLARE horizon DATE DEFAULT DATE_ADD(CURDATE(), INTERVAL horizon_days DAY);
+    DECLARE definitions TEXT DEFAULT '';
+    REPEAT
+        SET definitions = CONCAT(definitions, 'PARTITION p', DATE_FORMAT(bound, '%Y%m%d'),
+                ' VALUES LESS THAN (''', DATE_FORMAT(bound, '%Y-%m-%d'), ' 00:00:00''), ');
+        SET bound = DATE_ADD(bound, INTERVAL partition_days DAY);
+    UNTIL DATE_SUB(bound, INTERVAL partition_days DAY) >= horizon END REPEAT;
+    SET @partition_sql = CONCAT('ALTER TABLE offline_events PARTITION BY RANGE COLUMNS (expires_at) (',
+            definitions, 'PARTITION pmax VALUES LESS THAN (MAXVALUE))');
+    PREPARE partition_stmt FROM @partition_sql;
+    EXECUTE partition_stmt;
+    DEALLOCATE PREPARE partition_stmt;
+END //
+DELIMITER ;
+
+-- 最长保留期 1825 天（offline-event.retention.ttl-days 各类型的最大值）再多预建一个 30 天分区
+CALL partition_offline_events(30, 1855);